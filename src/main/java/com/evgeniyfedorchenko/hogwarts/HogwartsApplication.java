@@ -1,14 +1,26 @@
 package com.evgeniyfedorchenko.hogwarts;
 
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
 import io.swagger.v3.oas.annotations.OpenAPIDefinition;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @OpenAPIDefinition
 @SpringBootApplication
+@EnableScheduling
 public class HogwartsApplication {
 
 	public static void main(String[] args) {
 		SpringApplication.run(HogwartsApplication.class, args);
 	}
+
+	/* У DTO с @JsonFilter фильтр задается на каждый ответ с ?fields=, а без него сериализуются все свойства */
+	@Bean
+	public Jackson2ObjectMapperBuilderCustomizer serializeAllByDefault() {
+		return builder -> builder.filters(new SimpleFilterProvider().setDefaultFilter(SimpleBeanPropertyFilter.serializeAll()));
+	}
 }
@@ -0,0 +1,98 @@
+package com.evgeniyfedorchenko.hogwarts.controllers;
+
+import com.evgeniyfedorchenko.hogwarts.dto.FacultyOutputDto;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentOutputDto;
+import com.evgeniyfedorchenko.hogwarts.exceptions.PreconditionFailedException;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Строгие ETag на основе колонки {@code version}. Они считаются по уже собранным DTO, поэтому на 304
+ * Spring отвечает без сериализации тела (см. {@code HttpEntityMethodProcessor})
+ */
+final class ETags {
+
+    private static final int LIST_TAG_BYTES = 16;
+
+    private ETags() {
+    }
+
+    static String of(StudentOutputDto student) {
+        return quote(Long.toString(student.getVersion()));
+    }
+
+    /* Версия факультета меняется только при изменении его собственных полей. Перевод студентов ее не трогает,
+       поэтому в тег входит и количество студентов. При проверке If-Match учитывается только часть до точки */
+    static String of(FacultyOutputDto faculty) {
+        return quote(faculty.getVersion() + "." + faculty.getStudentCount());
+    }
+
+    /**
+     * Тег страницы id: состав страницы и полностью определяет ее содержимое
+     */
+    static String ofIds(List<Long> ids) {
+        MessageDigest digest = sha256();
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        ids.forEach(id -> digest.update(buffer.clear().putLong(id).flip()));
+        return quote(HexFormat.of().formatHex(digest.digest(), 0, LIST_TAG_BYTES));
+    }
+
+    /**
+     * Агрегатная версия списка: меняется при изменении любого элемента, его добавлении, удалении или перестановке
+     */
+    static String ofStudents(List<StudentOutputDto> students) {
+        MessageDigest digest = sha256();
+        ByteBuffer buffer = ByteBuffer.allocate(2 * Long.BYTES);
+        students.forEach(student ->
+                digest.update(buffer.clear().putLong(student.getId()).putLong(student.getVersion()).flip()));
+        return quote(HexFormat.of().formatHex(digest.digest(), 0, LIST_TAG_BYTES));
+    }
+
+    static String ofFaculties(List<FacultyOutputDto> faculties) {
+        MessageDigest digest = sha256();
+        ByteBuffer buffer = ByteBuffer.allocate(3 * Long.BYTES);
+        faculties.forEach(faculty -> digest.update(buffer.clear()
+                .putLong(faculty.getId())
+                .putLong(faculty.getVersion())
+                .putLong(faculty.getStudentCount())
+                .flip()));
+        return quote(HexFormat.of().formatHex(digest.digest(), 0, LIST_TAG_BYTES));
+    }
+
+    /**
+     * @return - ожидаемая клиентом версия или {@code null}, если заголовка нет или в нем {@code *}
+     * @throws PreconditionFailedException - слабый или нераспознанный тег: для If-Match он не совпадает ни с чем
+     */
+    static Long parseIfMatch(String ifMatch) {
+        if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        String tag = ifMatch.trim();
+        if (tag.length() < 2 || !tag.startsWith("\"") || !tag.endsWith("\"")) {
+            throw new PreconditionFailedException("If-Match must contain a single strong ETag, got " + ifMatch);
+        }
+        String value = tag.substring(1, tag.length() - 1);
+        int dot = value.indexOf('.');
+        try {
+            return Long.parseLong(dot == -1 ? value : value.substring(0, dot));
+        } catch (NumberFormatException e) {
+            throw new PreconditionFailedException("Unknown ETag " + ifMatch);
+        }
+    }
+
+    private static String quote(String value) {
+        return "\"" + value + "\"";
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.evgeniyfedorchenko.hogwarts.controllers;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Ответы выгрузок студентов: строки уходят клиенту порциями по мере чтения из БД.
+ * Выгрузка может длиться дольше стандартного таймаута асинхронных ответов, поэтому у нее свой таймаут,
+ * заданный только для нее, а не через общий {@code spring.mvc.async.request-timeout}
+ */
+@Component
+public class ExportResponses {
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private final Logger logger = LoggerFactory.getLogger(ExportResponses.class);
+
+    // Выгрузка почти все время ждет БД или клиента, поэтому поток на каждую виртуальный
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final long timeoutMillis;
+
+    public ExportResponses(@Value("${students.export.timeout:1800000}") long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @FunctionalInterface
+    public interface Export {
+
+        void writeTo(OutputStream outputStream) throws IOException;
+    }
+
+    /**
+     * @param fileName - имя файла, под которым клиент сохранит выгрузку
+     * @return - ответ, тело которого пишет {@code export} в отдельном потоке
+     */
+    public ResponseEntity<ResponseBodyEmitter> stream(ExportFormat format, String fileName, Export export) {
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(timeoutMillis);
+        executor.execute(() -> {
+            try (OutputStream outputStream = new BufferedOutputStream(new EmitterOutputStream(emitter, format.getMediaType()), CHUNK_SIZE)) {
+                export.writeTo(outputStream);
+            } catch (IOException | RuntimeException e) {
+//                После таймаута или обрыва соединения запись падает, и выгрузка прекращается вместе с транзакцией чтения
+                logger.warn("Export {} aborted", fileName, e);
+                emitter.completeWithError(e);
+                return;
+            }
+            emitter.complete();
+        });
+        return ResponseEntity.ok()
+                .contentType(format.getMediaType())
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + fileName)
+                .body(emitter);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /* Каждая порция отправляется копией: до начала ответа emitter копит отправленное у себя */
+    private static class EmitterOutputStream extends OutputStream {
+
+        private final ResponseBodyEmitter emitter;
+        private final MediaType mediaType;
+
+        private EmitterOutputStream(ResponseBodyEmitter emitter, MediaType mediaType) {
+            this.emitter = emitter;
+            this.mediaType = mediaType;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (length > 0) {
+                emitter.send(Arrays.copyOfRange(bytes, offset, offset + length), mediaType);
+            }
+        }
+    }
+}
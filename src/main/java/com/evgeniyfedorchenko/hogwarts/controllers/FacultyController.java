@@ -1,19 +1,35 @@
 package com.evgeniyfedorchenko.hogwarts.controllers;
 
+import com.evgeniyfedorchenko.hogwarts.dto.BatchItemResultDto;
 import com.evgeniyfedorchenko.hogwarts.dto.FacultyInputDto;
 import com.evgeniyfedorchenko.hogwarts.dto.FacultyOutputDto;
+import com.evgeniyfedorchenko.hogwarts.dto.MultiGetResult;
+import com.evgeniyfedorchenko.hogwarts.dto.SparseFieldset;
 import com.evgeniyfedorchenko.hogwarts.dto.StudentOutputDto;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentTransferDto;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentTransferResultDto;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentsPage;
 import com.evgeniyfedorchenko.hogwarts.entities.Color;
 import com.evgeniyfedorchenko.hogwarts.entities.Faculty;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentSort;
 import com.evgeniyfedorchenko.hogwarts.services.FacultyService;
+import com.evgeniyfedorchenko.hogwarts.services.StudentExportService;
+import com.fasterxml.jackson.databind.JsonNode;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.MappingJacksonValue;
+import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 
 import java.util.List;
+import java.util.Optional;
 
 
 @Tag(name = "Faculties")
@@ -21,10 +37,19 @@ import java.util.List;
 @RequestMapping(path = "/faculties")
 public class FacultyController {
 
+    public static final int MAX_STUDENT_IDS_PAGE = 10_000;
+    public static final int MAX_ROSTER_PAGE_SIZE = 1_000;
+
     private final FacultyService facultyService;
+    private final StudentExportService studentExportService;
+    private final ExportResponses exportResponses;
 
-    public FacultyController(FacultyService facultyService) {
+    public FacultyController(FacultyService facultyService,
+                             StudentExportService studentExportService,
+                             ExportResponses exportResponses) {
         this.facultyService = facultyService;
+        this.studentExportService = studentExportService;
+        this.exportResponses = exportResponses;
     }
 
     @PostMapping
@@ -33,33 +58,142 @@ public class FacultyController {
         return facultyService.createFaculty(inputDto);
     }
 
+    @PostMapping(path = "/batch")
+    @Operation(summary = "Creating faculties in bulk, with a separate result for each item")
+    public List<BatchItemResultDto<FacultyOutputDto>> createFaculties(@RequestBody List<FacultyInputDto> inputDtos) {
+        return facultyService.createFaculties(inputDtos);
+    }
+
     @GetMapping(path = "/{id}")
-    @Operation(summary = "Get existing faculty")
-    public ResponseEntity<FacultyOutputDto> getFaculty(@PathVariable
-                                                       @Min(value = 1, message = "Id must be greater than 0") Long id) {
-        return ResponseEntity.of(facultyService.findFaculty(id));
+    @Operation(summary = "Get existing faculty. \"fields\" limits the response to the listed properties, e.g. \"id,name\"")
+    public ResponseEntity<MappingJacksonValue> getFaculty(@PathVariable
+                                                          @Min(value = 1, message = "Id must be greater than 0") Long id,
+                                                          @RequestParam(required = false) String fields) {
+        SparseFieldset fieldset = SparseFieldset.parse(fields, FacultyOutputDto.FIELDS);
+        return facultyService.findFaculty(id, fieldset)
+                .map(faculty -> ResponseEntity.ok()
+                        .eTag(ETags.of(faculty))
+                        .body(SparseFieldsets.filter(faculty, FacultyOutputDto.JSON_FILTER, fieldset)))
+                .orElseGet(() -> ResponseEntity.of(Optional.empty()));
+    }
+
+    @GetMapping(params = "ids")
+    @Operation(summary = "Get faculties by list of ids, e.g. \"ids=1,2,3\". Faculties are returned in the order of ids, " +
+                         "ids that were not found are listed in X-Missing-Ids. " +
+                         "\"fields\" limits the response to the listed properties, e.g. \"id,name\"")
+    public ResponseEntity<MappingJacksonValue> getFacultiesByIds(@RequestParam List<Long> ids,
+                                                                 @RequestParam(required = false) String fields) {
+        SparseFieldset fieldset = SparseFieldset.parse(fields, FacultyOutputDto.FIELDS);
+        MultiGetResult<FacultyOutputDto> result = facultyService.findFaculties(ids, fieldset);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(ETags.ofFaculties(result.getFound()));
+        if (!result.getMissingIds().isEmpty()) {
+            response.header(StudentController.MISSING_IDS_HEADER,
+                    StringUtils.collectionToCommaDelimitedString(result.getMissingIds()));
+        }
+        return response.body(SparseFieldsets.filter(result.getFound(), FacultyOutputDto.JSON_FILTER, fieldset));
     }
 
     @GetMapping
-    @Operation(summary = "Get faculties by color or part of name")
-    public List<FacultyOutputDto> getFacultyByColorOrPartName(@RequestParam(required = false) Color color,
-                                                              @RequestParam(required = false, defaultValue = "") String namePart) {
-        return facultyService.findFacultyByColorOrPartName(color, namePart);
+    @Operation(summary = "Get faculties by color or part of name. \"fields\" limits the response to the listed properties, e.g. \"id,name\"")
+    public ResponseEntity<MappingJacksonValue> getFacultyByColorOrPartName(@RequestParam(required = false) Color color,
+                                                                           @RequestParam(required = false, defaultValue = "") String namePart,
+                                                                           @RequestParam(required = false) String fields) {
+        SparseFieldset fieldset = SparseFieldset.parse(fields, FacultyOutputDto.FIELDS);
+        List<FacultyOutputDto> faculties = facultyService.findFacultyByColorOrPartName(color, namePart, fieldset);
+        return ResponseEntity.ok()
+                .eTag(ETags.ofFaculties(faculties))
+                .body(SparseFieldsets.filter(faculties, FacultyOutputDto.JSON_FILTER, fieldset));
     }
 
     @GetMapping(path = "/{id}/students")
-    @Operation(summary = "Get all students of faculty")
-    public List<StudentOutputDto> getStudentsOfFaculty(@PathVariable
-                                                       @Min(value = 1, message = "Id must be greater than 0") Long id) {
-        return facultyService.findStudents(id);
+    @Operation(summary = "Get students of faculty page by page. Pass the X-Next-Cursor header value as \"cursor\" " +
+                         "to get the next page. \"sort\" takes up to 3 columns of id, name, age, e.g. \"name,id:desc\". " +
+                         "\"fields\" limits the response to the listed properties, e.g. \"id,name\"")
+    public ResponseEntity<MappingJacksonValue> getStudentsOfFaculty(@PathVariable
+                                                                       @Min(value = 1, message = "Id must be greater than 0") Long id,
+
+                                                                       @RequestParam(required = false, defaultValue = "id") String sort,
+
+                                                                       @RequestParam(required = false, defaultValue = "100")
+                                                                       @Min(value = 1, message = "Size of page must be greater than 0")
+                                                                       @Max(value = MAX_ROSTER_PAGE_SIZE, message = "Size of page must not exceed " + MAX_ROSTER_PAGE_SIZE) int pageSize,
+
+                                                                       @RequestParam(required = false) String cursor,
+                                                                       @RequestParam(required = false) String fields) {
+        SparseFieldset fieldset = SparseFieldset.parse(fields, StudentOutputDto.FIELDS);
+        StudentsPage page = facultyService.findStudents(id, StudentSort.parse(sort), pageSize, cursor, fieldset);
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(ETags.ofStudents(page.getStudents()));
+        if (page.getNextCursor() != null) {
+            response.header(StudentController.NEXT_CURSOR_HEADER, page.getNextCursor());
+        }
+        return response.body(SparseFieldsets.filter(page.getStudents(), StudentOutputDto.JSON_FILTER, fieldset));
+    }
+
+    /* Весь состав одним ответом, но без сборки списка в памяти: строки пишутся в ответ по мере чтения из БД */
+    @GetMapping(path = "/{id}/students/export")
+    @Operation(summary = "Export all students of faculty row by row as NDJSON or CSV in the given \"sort\" order")
+    public ResponseEntity<ResponseBodyEmitter> exportStudentsOfFaculty(@PathVariable
+                                                                       @Min(value = 1, message = "Id must be greater than 0") Long id,
+                                                                       @RequestParam(required = false, defaultValue = "id") String sort,
+                                                                       @RequestParam(required = false, defaultValue = "NDJSON") ExportFormat format) {
+        StudentSort studentSort = StudentSort.parse(sort);
+        return exportResponses.stream(format, "faculty-%d-students.%s".formatted(id, format.getExtension()),
+                outputStream -> studentExportService.exportStudentsOfFaculty(id, studentSort, format, outputStream));
+    }
+
+    @GetMapping(path = "/{id}/student-ids")
+    @Operation(summary = "Get ids of faculty students page by page in ascending order. " +
+                         "Pass the X-Next-Cursor header value as \"cursor\" to get the next page")
+    public ResponseEntity<List<Long>> getStudentIdsOfFaculty(@PathVariable
+                                                             @Min(value = 1, message = "Id must be greater than 0") Long id,
+
+                                                             @RequestParam(required = false, defaultValue = "0")
+                                                             @Min(value = 0, message = "Cursor must not be negative") long cursor,
+
+                                                             @RequestParam(required = false, defaultValue = "1000")
+                                                             @Min(value = 1, message = "Limit must be greater than 0")
+                                                             @Max(value = MAX_STUDENT_IDS_PAGE, message = "Limit must not exceed " + MAX_STUDENT_IDS_PAGE) int limit) {
+        return facultyService.findStudentIds(id, cursor, limit)
+                .map(page -> {
+                    ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(ETags.ofIds(page.getStudentIds()));
+                    if (page.getNextCursor() != null) {
+                        response.header(StudentController.NEXT_CURSOR_HEADER, page.getNextCursor().toString());
+                    }
+                    return response.body(page.getStudentIds());
+                })
+                .orElseGet(() -> ResponseEntity.of(Optional.empty()));
+    }
+
+    @PostMapping(path = "/{id}/students/transfer")
+    @Operation(summary = "Transfer listed students or all students of another faculty to this faculty")
+    public StudentTransferResultDto transferStudents(@PathVariable
+                                                     @Min(value = 1, message = "Id must be greater than 0") Long id,
+                                                     @RequestBody StudentTransferDto transferDto) {
+        return facultyService.transferStudents(id, transferDto);
     }
 
     @PutMapping(path = "/{id}")
-    @Operation(summary = "Update existing faculty")
+    @Operation(summary = "Update existing faculty. Pass the ETag value as \"If-Match\" to update only the version you have seen")
     public ResponseEntity<FacultyOutputDto> updateFaculty(@PathVariable
                                                           @Min(value = 1, message = "Id must be greater than 0") Long id,
-                                                          @RequestBody @Valid FacultyInputDto inputDto) {
-        return ResponseEntity.of(facultyService.updateFaculty(id, inputDto));
+                                                          @RequestBody @Valid FacultyInputDto inputDto,
+                                                          @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        return facultyService.updateFaculty(id, inputDto, ETags.parseIfMatch(ifMatch))
+                .map(this::withValidator)
+                .orElseGet(() -> ResponseEntity.of(Optional.empty()));
+    }
+
+    @PatchMapping(path = "/{id}", consumes = {StudentController.MERGE_PATCH_JSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    @Operation(summary = "Partially update existing faculty with JSON Merge Patch: only the passed properties are changed. " +
+                         "Pass the ETag value as \"If-Match\" to update only the version you have seen")
+    public ResponseEntity<FacultyOutputDto> patchFaculty(@PathVariable
+                                                         @Min(value = 1, message = "Id must be greater than 0") Long id,
+                                                         @RequestBody JsonNode patch,
+                                                         @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        return facultyService.patchFaculty(id, patch, ETags.parseIfMatch(ifMatch))
+                .map(this::withValidator)
+                .orElseGet(() -> ResponseEntity.of(Optional.empty()));
     }
 
     @DeleteMapping(path = "/{id}")
@@ -67,4 +201,9 @@ public class FacultyController {
     public ResponseEntity<Faculty> deleteFaculty(@PathVariable @Min(value = 1, message = "Id must be greater than 0") Long id) {
         return ResponseEntity.of(facultyService.deleteFaculty(id));
     }
+
+    /* Last-Modified не отдается: перевод студентов меняет состав, но не updated_at факультета */
+    private ResponseEntity<FacultyOutputDto> withValidator(FacultyOutputDto faculty) {
+        return ResponseEntity.ok().eTag(ETags.of(faculty)).body(faculty);
+    }
 }
@@ -1,5 +1,6 @@
 package com.evgeniyfedorchenko.hogwarts.controllers;
 
+import com.evgeniyfedorchenko.hogwarts.dto.CacheStatsDto;
 import com.evgeniyfedorchenko.hogwarts.services.InfoService;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -19,4 +20,9 @@ public class InfoController {
     public Integer getUsedPort() {
         return infoService.getUsedPort();
     }
+
+    @GetMapping(path = "/cache-stats")
+    public CacheStatsDto getCacheStats() {
+        return infoService.getCacheStats();
+    }
 }
@@ -0,0 +1,27 @@
+package com.evgeniyfedorchenko.hogwarts.controllers;
+
+import com.evgeniyfedorchenko.hogwarts.dto.SparseFieldset;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import org.springframework.http.converter.json.MappingJacksonValue;
+
+/**
+ * Оборачивает тело ответа так, чтобы в JSON попали только свойства из {@code fields}.
+ * Фильтр действует на DTO, помеченные {@code @JsonFilter} с тем же именем, остальные сериализуются целиком
+ */
+final class SparseFieldsets {
+
+    private SparseFieldsets() {
+    }
+
+    static MappingJacksonValue filter(Object body, String jsonFilter, SparseFieldset fields) {
+        SimpleBeanPropertyFilter filter = fields.isAll()
+                ? SimpleBeanPropertyFilter.serializeAll()
+                : SimpleBeanPropertyFilter.filterOutAllExcept(fields.names());
+        MappingJacksonValue value = new MappingJacksonValue(body);
+        value.setFilters(new SimpleFilterProvider()
+                .addFilter(jsonFilter, filter)
+                .setDefaultFilter(SimpleBeanPropertyFilter.serializeAll()));
+        return value;
+    }
+}
@@ -1,24 +1,49 @@
 package com.evgeniyfedorchenko.hogwarts.controllers;
 
 import com.evgeniyfedorchenko.hogwarts.dto.AvatarDto;
+import com.evgeniyfedorchenko.hogwarts.dto.AvatarsPage;
+import com.evgeniyfedorchenko.hogwarts.dto.BatchItemResultDto;
 import com.evgeniyfedorchenko.hogwarts.dto.FacultyOutputDto;
+import com.evgeniyfedorchenko.hogwarts.dto.MultiGetResult;
+import com.evgeniyfedorchenko.hogwarts.dto.SparseFieldset;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentImportResultDto;
 import com.evgeniyfedorchenko.hogwarts.dto.StudentInputDto;
 import com.evgeniyfedorchenko.hogwarts.dto.StudentOutputDto;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentProfileDto;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentStatsDto;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentsPage;
 import com.evgeniyfedorchenko.hogwarts.entities.Avatar;
+import com.evgeniyfedorchenko.hogwarts.entities.Color;
 import com.evgeniyfedorchenko.hogwarts.entities.Student;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentFilter;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentSort;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentSortColumn;
 import com.evgeniyfedorchenko.hogwarts.services.AvatarService;
+import com.evgeniyfedorchenko.hogwarts.services.StudentAnalyticsService;
+import com.evgeniyfedorchenko.hogwarts.services.StudentExportService;
+import com.evgeniyfedorchenko.hogwarts.services.StudentImportService;
+import com.evgeniyfedorchenko.hogwarts.services.StudentProfileService;
 import com.evgeniyfedorchenko.hogwarts.services.StudentService;
+import com.fasterxml.jackson.databind.JsonNode;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.Size;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.MappingJacksonValue;
+import org.springframework.util.StringUtils;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 
+import java.io.InputStream;
 import java.util.List;
 import java.util.Optional;
 
@@ -30,14 +55,34 @@ import java.util.Optional;
 public class StudentController {
 
     public static final String BASE_STUDENTS_URI = "/students";
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    public static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+    public static final String MISSING_IDS_HEADER = "X-Missing-Ids";
+    public static final String MERGE_PATCH_JSON_VALUE = "application/merge-patch+json";
+    public static final int MAX_QUERY_PAGE_SIZE = 1_000;
 
     private final StudentService studentService;
     private final AvatarService avatarService;
+    private final StudentExportService studentExportService;
+    private final StudentAnalyticsService studentAnalyticsService;
+    private final StudentImportService studentImportService;
+    private final StudentProfileService studentProfileService;
+    private final ExportResponses exportResponses;
 
     public StudentController(StudentService studentService,
-                             AvatarService avatarService) {
+                             AvatarService avatarService,
+                             StudentExportService studentExportService,
+                             StudentAnalyticsService studentAnalyticsService,
+                             StudentImportService studentImportService,
+                             StudentProfileService studentProfileService,
+                             ExportResponses exportResponses) {
         this.studentService = studentService;
         this.avatarService = avatarService;
+        this.studentExportService = studentExportService;
+        this.studentAnalyticsService = studentAnalyticsService;
+        this.studentImportService = studentImportService;
+        this.studentProfileService = studentProfileService;
+        this.exportResponses = exportResponses;
     }
 
     @PostMapping
@@ -46,23 +91,124 @@ public class StudentController {
         return studentService.createStudent(inputDto);
     }
 
+    @PostMapping(path = "/batch")
+    @Operation(summary = "Creating students in bulk, with a separate result for each item")
+    public List<BatchItemResultDto<StudentOutputDto>> createStudents(@RequestBody List<StudentInputDto> inputDtos) {
+        return studentService.createStudents(inputDtos);
+    }
+
+    /* Тело запроса читается как поток и передается в COPY по мере поступления,
+       поэтому размер файла не ограничен памятью (в отличие от multipart) */
+    @PostMapping(path = "/import", consumes = "text/csv")
+    @Operation(summary = "Import students from CSV with columns name,age,facultyName and a header line")
+    public StudentImportResultDto importStudents(InputStream csv) {
+        return studentImportService.importStudents(csv);
+    }
+
     @GetMapping(path = "/{id}")
-    @Operation(summary = "Get existing student")
-    public ResponseEntity<StudentOutputDto> getStudent(@PathVariable @Min(value = 1, message = "Id must be greater than 0") Long id) {
-        return ResponseEntity.of(studentService.findStudent(id));
+    @Operation(summary = "Get existing student. \"fields\" limits the response to the listed properties, e.g. \"id,name\"")
+    public ResponseEntity<MappingJacksonValue> getStudent(@PathVariable @Min(value = 1, message = "Id must be greater than 0") Long id,
+                                                          @RequestParam(required = false) String fields) {
+        SparseFieldset fieldset = SparseFieldset.parse(fields, StudentOutputDto.FIELDS);
+        return studentService.findStudent(id)
+                .map(student -> validators(student)
+                        .body(SparseFieldsets.filter(student, StudentOutputDto.JSON_FILTER, fieldset)))
+                .orElseGet(() -> ResponseEntity.of(Optional.empty()));
+    }
+
+    @GetMapping(params = "ids")
+    @Operation(summary = "Get students by list of ids, e.g. \"ids=1,2,3\". Students are returned in the order of ids, " +
+                         "ids that were not found are listed in X-Missing-Ids. " +
+                         "\"fields\" limits the response to the listed properties, e.g. \"id,name\"")
+    public ResponseEntity<MappingJacksonValue> getStudentsByIds(@RequestParam List<Long> ids,
+                                                                @RequestParam(required = false) String fields) {
+        SparseFieldset fieldset = SparseFieldset.parse(fields, StudentOutputDto.FIELDS);
+        MultiGetResult<StudentOutputDto> result = studentService.findStudents(ids);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(ETags.ofStudents(result.getFound()));
+        if (!result.getMissingIds().isEmpty()) {
+            response.header(MISSING_IDS_HEADER, StringUtils.collectionToCommaDelimitedString(result.getMissingIds()));
+        }
+        return response.body(SparseFieldsets.filter(result.getFound(), StudentOutputDto.JSON_FILTER, fieldset));
     }
 
     @GetMapping()
-    @Operation(summary = "Student's search API")
-    public List<StudentOutputDto> searchStudents(@RequestParam(required = false, defaultValue = "id") String sortParam,
-                                                 @RequestParam(required = false, defaultValue = "ASC") SortOrder sortOrder,
+    @Operation(summary = "Student's search API. Pass the X-Next-Cursor header value as \"cursor\" to get the next page. " +
+                         "\"sort\" takes up to 3 columns of id, name, age, facultyName, e.g. \"facultyName,age:desc\" " +
+                         "and overrides \"sortParam\" with \"sortOrder\". " +
+                         "Set \"count\" to EXACT or ESTIMATED to get the total number of students in X-Total-Count. " +
+                         "\"fields\" limits the response to the listed properties, e.g. \"id,name\"")
+    public ResponseEntity<MappingJacksonValue> searchStudents(@RequestParam(required = false, defaultValue = "id") String sortParam,
+                                                                 @RequestParam(required = false, defaultValue = "ASC") SortOrder sortOrder,
+                                                                 @RequestParam(required = false) String sort,
+
+                                                                 @RequestParam(required = false, defaultValue = "1")
+                                                                 @Min(value = 1, message = "Number of page must be greater than 0") int pageNumber,
+
+                                                                 @RequestParam(required = false, defaultValue = "100")
+                                                                 @Positive(message = "Size of page must be greater than 0")
+                                                                 @Max(value = MAX_QUERY_PAGE_SIZE, message = "Size of page must not exceed " + MAX_QUERY_PAGE_SIZE) int pageSize,
+
+                                                                 @RequestParam(required = false) String cursor,
+                                                                 @RequestParam(required = false, defaultValue = "NONE") TotalCountMode count,
+                                                                 @RequestParam(required = false) String fields) {
+        StudentSort studentSort = sort == null
+                ? StudentSort.of(StudentSortColumn.fromParam(sortParam), sortOrder)
+                : StudentSort.parse(sort);
+        SparseFieldset fieldset = SparseFieldset.parse(fields, StudentOutputDto.FIELDS);
+        return withPageHeaders(studentService.searchStudents(studentSort, pageNumber, pageSize, cursor, count, fieldset), fieldset);
+    }
+
+    @GetMapping(path = "/search")
+    @Operation(summary = "Fuzzy search of students by part of name, the most similar go first")
+    public ResponseEntity<List<StudentOutputDto>> searchStudentsByName(@RequestParam
+                                                       @Size(min = 3, message = "Search query must contain at least 3 characters") String q,
+
+                                                       @RequestParam(required = false, defaultValue = "1")
+                                                       @Min(value = 1, message = "Number of page must be greater than 0") int pageNumber,
+
+                                                       @RequestParam(required = false, defaultValue = "20")
+                                                       @Min(value = 1, message = "Size of page must be greater than 0") int pageSize) {
+        return withListValidator(studentService.searchStudentsByName(q.trim(), pageNumber, pageSize));
+    }
+
+    @GetMapping(path = "/query")
+    @Operation(summary = "Search students by any combination of age range, faculty id or color, name prefix and avatar presence. " +
+                         "Pass the X-Next-Cursor header value as \"cursor\" with the same filters to get the next page. " +
+                         "Set \"count\" to EXACT or ESTIMATED to get the total number of matches in X-Total-Count. " +
+                         "\"fields\" limits the response to the listed properties, e.g. \"id,name\"")
+    public ResponseEntity<MappingJacksonValue> queryStudents(@RequestParam(required = false) Integer minAge,
+                                                                @RequestParam(required = false) Integer maxAge,
+
+                                                                @RequestParam(required = false)
+                                                                @Min(value = 1, message = "FacultyId must be greater than 0") Long facultyId,
+
+                                                                @RequestParam(required = false) Color color,
+                                                                @RequestParam(required = false) String namePrefix,
+                                                                @RequestParam(required = false) Boolean hasAvatar,
+                                                                @RequestParam(required = false, defaultValue = "id") String sort,
+
+                                                                @RequestParam(required = false, defaultValue = "1")
+                                                                @Min(value = 1, message = "Number of page must be greater than 0") int pageNumber,
 
-                                                 @RequestParam(required = false, defaultValue = "1")
-                                                 @Min(value = 1, message = "Number of page must be greater than 0") int pageNumber,
+                                                                @RequestParam(required = false, defaultValue = "100")
+                                                                @Min(value = 1, message = "Size of page must be greater than 0")
+                                                                @Max(value = MAX_QUERY_PAGE_SIZE, message = "Size of page must not exceed " + MAX_QUERY_PAGE_SIZE) int pageSize,
 
-                                                 @RequestParam(required = false, defaultValue = "2147483648")
-                                                 @Min(value = 1, message = "Size of page must be greater than 0") int pageSize) {
-        return studentService.searchStudents(sortParam, sortOrder, pageNumber, pageSize);
+                                                                @RequestParam(required = false) String cursor,
+                                                                @RequestParam(required = false, defaultValue = "NONE") TotalCountMode count,
+                                                                @RequestParam(required = false) String fields) {
+        String prefix = namePrefix == null || namePrefix.isBlank() ? null : namePrefix.trim();
+        StudentFilter filter = new StudentFilter(minAge, maxAge, facultyId, color, prefix, hasAvatar);
+        SparseFieldset fieldset = SparseFieldset.parse(fields, StudentOutputDto.FIELDS);
+        return withPageHeaders(studentService.queryStudents(filter, StudentSort.parse(sort), pageNumber, pageSize, cursor, count, fieldset),
+                fieldset);
+    }
+
+    @GetMapping(path = "/export")
+    @Operation(summary = "Export all students row by row as NDJSON or CSV")
+    public ResponseEntity<ResponseBodyEmitter> exportStudents(@RequestParam(required = false, defaultValue = "NDJSON") ExportFormat format) {
+        return exportResponses.stream(format, "students." + format.getExtension(),
+                outputStream -> studentExportService.exportStudents(format, outputStream));
     }
 
     @GetMapping(path = "/quantity")
@@ -77,21 +223,51 @@ public class StudentController {
         return studentService.getAverageAge();
     }
 
+    @GetMapping(path = "/stats")
+    @Operation(summary = "Get count, average, min, max and percentile ages per faculty, per color and in total")
+    public StudentStatsDto getStats() {
+        return studentAnalyticsService.getStats();
+    }
+
     @GetMapping(path = "/byAge")
     @Operation(summary = "Enter one value for an exact-match search and two values for a range search")
-    public List<StudentOutputDto> getStudentByAge(@RequestParam
+    public ResponseEntity<List<StudentOutputDto>> getStudentByAge(@RequestParam
                                                   @Min(value = 16, message = "Age must be greater than 15") int age,
                                                   @RequestParam
                                                   @Min(value = 16, message = "\"UpTo\" must be greater than 15") int upTo) {
-        return studentService.findStudentsByAge(age, upTo);
+        return withListValidator(studentService.findStudentsByAge(age, upTo));
     }
 
     @PutMapping(path = "/{id}")
-    @Operation(summary = "Update existing student")
+    @Operation(summary = "Update existing student. Pass the ETag value as \"If-Match\" to update only the version you have seen")
     public ResponseEntity<StudentOutputDto> updateStudent(@PathVariable
                                                           @Min(value = 1, message = "Id must be greater than 0") Long id,
-                                                          @RequestBody @Valid StudentInputDto inputDto) {
-        return ResponseEntity.of(studentService.updateStudent(id, inputDto));
+                                                          @RequestBody @Valid StudentInputDto inputDto,
+                                                          @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        return studentService.updateStudent(id, inputDto, ETags.parseIfMatch(ifMatch))
+                .map(this::withValidators)
+                .orElseGet(() -> ResponseEntity.of(Optional.empty()));
+    }
+
+    @PatchMapping(path = "/{id}", consumes = {MERGE_PATCH_JSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    @Operation(summary = "Partially update existing student with JSON Merge Patch: only the passed properties are changed. " +
+                         "Pass the ETag value as \"If-Match\" to update only the version you have seen")
+    public ResponseEntity<StudentOutputDto> patchStudent(@PathVariable
+                                                         @Min(value = 1, message = "Id must be greater than 0") Long id,
+                                                         @RequestBody JsonNode patch,
+                                                         @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        return studentService.patchStudent(id, patch, ETags.parseIfMatch(ifMatch))
+                .map(this::withValidators)
+                .orElseGet(() -> ResponseEntity.of(Optional.empty()));
+    }
+
+    @GetMapping(path = "/{id}/profile")
+    @Operation(summary = "Get student card: student, faculty, avatar metadata and, if \"preview\" is true, " +
+                         "the compressed avatar image as Base64 - in one response")
+    public ResponseEntity<StudentProfileDto> getStudentProfile(@PathVariable
+                                                               @Min(value = 1, message = "Id must be greater than 0") Long id,
+                                                               @RequestParam(required = false, defaultValue = "false") boolean preview) {
+        return ResponseEntity.of(studentProfileService.getProfile(id, preview));
     }
 
     @GetMapping(path = "/{id}/faculty")
@@ -120,10 +296,16 @@ public class StudentController {
     }
 
     @GetMapping(path = "/avatars")
-    @Operation(summary = "Get all avatars")
-    public List<AvatarDto> getAllAvatars(@RequestParam @Min(value = 1, message = "Number of page must be greater than 0") int pageNumber,
-                                         @RequestParam @Min(value = 1, message = "Size of page must be greater than 0") int pageSize) {
-        return avatarService.getAllAvatars(pageNumber, pageSize);
+    @Operation(summary = "Get all avatars. Set \"count\" to EXACT or ESTIMATED to get the total number of avatars in X-Total-Count")
+    public ResponseEntity<List<AvatarDto>> getAllAvatars(@RequestParam @Min(value = 1, message = "Number of page must be greater than 0") int pageNumber,
+                                                         @RequestParam @Min(value = 1, message = "Size of page must be greater than 0") int pageSize,
+                                                         @RequestParam(required = false, defaultValue = "NONE") TotalCountMode count) {
+        AvatarsPage page = avatarService.getAllAvatars(pageNumber, pageSize, count);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.getTotalCount() != null) {
+            response.header(TOTAL_COUNT_HEADER, page.getTotalCount().toString());
+        }
+        return response.body(page.getAvatars());
     }
 
     @DeleteMapping(path = "/{id}")
@@ -133,6 +315,34 @@ public class StudentController {
     }
 
 
+    /* Для GET при совпадении If-None-Match или If-Modified-Since Spring сам ответит 304 и не будет сериализовать тело */
+    private ResponseEntity<StudentOutputDto> withValidators(StudentOutputDto student) {
+        return validators(student).body(student);
+    }
+
+    private ResponseEntity.BodyBuilder validators(StudentOutputDto student) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(ETags.of(student));
+        if (student.getUpdatedAt() != null) {
+            response.lastModified(student.getUpdatedAt());
+        }
+        return response;
+    }
+
+    private ResponseEntity<MappingJacksonValue> withPageHeaders(StudentsPage page, SparseFieldset fields) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(ETags.ofStudents(page.getStudents()));
+        if (page.getNextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, page.getNextCursor());
+        }
+        if (page.getTotalCount() != null) {
+            response.header(TOTAL_COUNT_HEADER, page.getTotalCount().toString());
+        }
+        return response.body(SparseFieldsets.filter(page.getStudents(), StudentOutputDto.JSON_FILTER, fields));
+    }
+
+    private ResponseEntity<List<StudentOutputDto>> withListValidator(List<StudentOutputDto> students) {
+        return ResponseEntity.ok().eTag(ETags.ofStudents(students)).body(students);
+    }
+
     private ResponseEntity<byte[]> setHeaders(Avatar avatar) {
         return ResponseEntity.status(HttpStatus.OK)
                 .contentLength(avatar.getData().length)
@@ -0,0 +1,21 @@
+package com.evgeniyfedorchenko.hogwarts.controllers;
+
+/**
+ * Как считать общее количество элементов списка для заголовка X-Total-Count
+ */
+public enum TotalCountMode {
+
+    /**
+     * Не считать, заголовка в ответе не будет
+     */
+    NONE,
+    /**
+     * Точное количество. По возможности считается оконной функцией в том же запросе, что и страница
+     */
+    EXACT,
+    /**
+     * Оценка без обращения к таблице: счетчики в памяти или статистика планировщика
+     */
+    ESTIMATED
+
+}
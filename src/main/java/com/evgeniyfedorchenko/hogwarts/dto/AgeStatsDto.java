@@ -0,0 +1,59 @@
+package com.evgeniyfedorchenko.hogwarts.dto;
+
+public class AgeStatsDto {
+
+    private long count;
+    private Double averageAge;
+    private Integer minAge;
+    private Integer maxAge;
+    private Double medianAge;
+    private Double percentile90Age;
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    public Double getAverageAge() {
+        return averageAge;
+    }
+
+    public void setAverageAge(Double averageAge) {
+        this.averageAge = averageAge;
+    }
+
+    public Integer getMinAge() {
+        return minAge;
+    }
+
+    public void setMinAge(Integer minAge) {
+        this.minAge = minAge;
+    }
+
+    public Integer getMaxAge() {
+        return maxAge;
+    }
+
+    public void setMaxAge(Integer maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    public Double getMedianAge() {
+        return medianAge;
+    }
+
+    public void setMedianAge(Double medianAge) {
+        this.medianAge = medianAge;
+    }
+
+    public Double getPercentile90Age() {
+        return percentile90Age;
+    }
+
+    public void setPercentile90Age(Double percentile90Age) {
+        this.percentile90Age = percentile90Age;
+    }
+}
@@ -0,0 +1,26 @@
+package com.evgeniyfedorchenko.hogwarts.dto;
+
+import java.util.List;
+
+public class AvatarsPage {
+
+    private final List<AvatarDto> avatars;
+
+    /**
+     * Общее количество аватаров. {@code null}, если его не запрашивали
+     */
+    private final Long totalCount;
+
+    public AvatarsPage(List<AvatarDto> avatars, Long totalCount) {
+        this.avatars = avatars;
+        this.totalCount = totalCount;
+    }
+
+    public List<AvatarDto> getAvatars() {
+        return avatars;
+    }
+
+    public Long getTotalCount() {
+        return totalCount;
+    }
+}
@@ -0,0 +1,76 @@
+package com.evgeniyfedorchenko.hogwarts.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/**
+ * Результат обработки одного элемента пакетного запроса.
+ * Отклоненные элементы не мешают сохранению остальных
+ *
+ * @param <T> - тип созданного объекта
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchItemResultDto<T> {
+
+    public enum Status {
+        CREATED,
+        REJECTED
+    }
+
+    private int index;
+    private Status status;
+    private T result;
+    private List<String> errors;
+
+    public static <T> BatchItemResultDto<T> created(int index, T result) {
+        BatchItemResultDto<T> itemResult = new BatchItemResultDto<>();
+        itemResult.setIndex(index);
+        itemResult.setStatus(Status.CREATED);
+        itemResult.setResult(result);
+        return itemResult;
+    }
+
+    public static <T> BatchItemResultDto<T> rejected(int index, List<String> errors) {
+        BatchItemResultDto<T> itemResult = new BatchItemResultDto<>();
+        itemResult.setIndex(index);
+        itemResult.setStatus(Status.REJECTED);
+        itemResult.setErrors(errors);
+        return itemResult;
+    }
+
+    /**
+     * @return - позиция элемента в массиве запроса, начиная с 0
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public T getResult() {
+        return result;
+    }
+
+    public void setResult(T result) {
+        this.result = result;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public void setErrors(List<String> errors) {
+        this.errors = errors;
+    }
+}
@@ -0,0 +1,67 @@
+package com.evgeniyfedorchenko.hogwarts.dto;
+
+import java.util.Map;
+
+/**
+ * Счетчики кэшей приложения с момента его старта
+ */
+public class CacheStatsDto {
+
+    private boolean statisticsEnabled;
+    private long entityLoadCount;
+    private long queryExecutionCount;
+    private Map<String, CacheRegionStatsDto> regions;
+    private LocalCacheStatsDto studentDtoCache;
+
+    public boolean isStatisticsEnabled() {
+        return statisticsEnabled;
+    }
+
+    public void setStatisticsEnabled(boolean statisticsEnabled) {
+        this.statisticsEnabled = statisticsEnabled;
+    }
+
+    /**
+     * @return - сколько сущностей всех типов было прочитано из БД, а не из кэша
+     */
+    public long getEntityLoadCount() {
+        return entityLoadCount;
+    }
+
+    public void setEntityLoadCount(long entityLoadCount) {
+        this.entityLoadCount = entityLoadCount;
+    }
+
+    /**
+     * @return - сколько JPQL-запросов дошло до БД, а не было взято из кэша запросов
+     */
+    public long getQueryExecutionCount() {
+        return queryExecutionCount;
+    }
+
+    public void setQueryExecutionCount(long queryExecutionCount) {
+        this.queryExecutionCount = queryExecutionCount;
+    }
+
+    /**
+     * @return - счетчики по регионам: сущностей ({@code faculties}), результатов запросов и меток обновления таблиц
+     */
+    public Map<String, CacheRegionStatsDto> getRegions() {
+        return regions;
+    }
+
+    public void setRegions(Map<String, CacheRegionStatsDto> regions) {
+        this.regions = regions;
+    }
+
+    /**
+     * @return - кэш DTO студентов для {@code GET /students/{id}}, отдельный от Hibernate
+     */
+    public LocalCacheStatsDto getStudentDtoCache() {
+        return studentDtoCache;
+    }
+
+    public void setStudentDtoCache(LocalCacheStatsDto studentDtoCache) {
+        this.studentDtoCache = studentDtoCache;
+    }
+}
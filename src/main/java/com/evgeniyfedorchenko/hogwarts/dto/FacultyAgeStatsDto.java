@@ -0,0 +1,34 @@
+package com.evgeniyfedorchenko.hogwarts.dto;
+
+import com.evgeniyfedorchenko.hogwarts.entities.Color;
+
+public class FacultyAgeStatsDto extends AgeStatsDto {
+
+    private Long facultyId;
+    private String facultyName;
+    private Color color;
+
+    public Long getFacultyId() {
+        return facultyId;
+    }
+
+    public void setFacultyId(Long facultyId) {
+        this.facultyId = facultyId;
+    }
+
+    public String getFacultyName() {
+        return facultyName;
+    }
+
+    public void setFacultyName(String facultyName) {
+        this.facultyName = facultyName;
+    }
+
+    public Color getColor() {
+        return color;
+    }
+
+    public void setColor(Color color) {
+        this.color = color;
+    }
+}
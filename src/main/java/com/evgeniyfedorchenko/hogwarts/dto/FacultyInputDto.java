@@ -3,13 +3,14 @@ package com.evgeniyfedorchenko.hogwarts.dto;
 
 import com.evgeniyfedorchenko.hogwarts.entities.Color;
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
 
 public class FacultyInputDto {
 
     @NotBlank(message = "Faculty name cannot be empty")
     private String name;
 
-    @NotBlank(message = "Faculty color cannot be empty")
+    @NotNull(message = "Faculty color cannot be empty")
     private Color color;
 
     public String getName() {
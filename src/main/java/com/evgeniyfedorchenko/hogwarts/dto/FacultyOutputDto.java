@@ -1,16 +1,31 @@
 package com.evgeniyfedorchenko.hogwarts.dto;
 
 import com.evgeniyfedorchenko.hogwarts.entities.Color;
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
-import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 
+@JsonFilter(FacultyOutputDto.JSON_FILTER)
 public class FacultyOutputDto {
 
+    public static final String JSON_FILTER = "facultyFields";
+    /**
+     * Свойства, которые можно запросить через {@code fields}
+     */
+    public static final Set<String> FIELDS = Set.of("id", "name", "color", "studentCount");
+
     private Long id;
     private String name;
     private Color color;
-    private List<Long> studentIds;
+    /* Вместо списка id всех студентов: размер ответа не зависит от размера факультета.
+       Сами id отдаются постранично через /faculties/{id}/student-ids */
+    private long studentCount;
+
+    // Не сериализуется: входит в ETag вместе с количеством студентов
+    @JsonIgnore
+    private long version;
 
     public Long getId() {
         return id;
@@ -36,17 +51,25 @@ public class FacultyOutputDto {
         this.color = color;
     }
 
-    public List<Long> getStudentIds() {
-        return studentIds;
+    public long getStudentCount() {
+        return studentCount;
     }
 
-    public void setStudentIds(List<Long> studentIds) {
-        this.studentIds = studentIds;
+    public void setStudentCount(long studentCount) {
+        this.studentCount = studentCount;
     }
 
     @Override
     public String toString() {
-            return "Faculty %d - %s, clr, students: %s".formatted(id, name, studentIds);
+            return "Faculty %d - %s, clr, students: %s".formatted(id, name, studentCount);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
     }
 
     @Override
@@ -61,11 +84,11 @@ public class FacultyOutputDto {
         return id.equals(outputDto.id)
                && name.equals(outputDto.name)
                && color == outputDto.color
-               && Objects.equals(studentIds, outputDto.studentIds);
+               && studentCount == outputDto.studentCount;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, name, color, studentIds);
+        return Objects.hash(id, name, color, studentCount);
     }
 }
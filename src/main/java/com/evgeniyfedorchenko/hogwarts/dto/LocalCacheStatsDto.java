@@ -0,0 +1,83 @@
+package com.evgeniyfedorchenko.hogwarts.dto;
+
+public class LocalCacheStatsDto {
+
+    private long estimatedSize;
+    private long weightedSize;
+    private long maximumWeight;
+    private long hitCount;
+    private long missCount;
+    private double hitRate;
+    private long evictionCount;
+    private long evictionWeight;
+
+    public long getEstimatedSize() {
+        return estimatedSize;
+    }
+
+    public void setEstimatedSize(long estimatedSize) {
+        this.estimatedSize = estimatedSize;
+    }
+
+    /**
+     * @return - примерный объем закэшированных записей в байтах
+     */
+    public long getWeightedSize() {
+        return weightedSize;
+    }
+
+    public void setWeightedSize(long weightedSize) {
+        this.weightedSize = weightedSize;
+    }
+
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    public void setMaximumWeight(long maximumWeight) {
+        this.maximumWeight = maximumWeight;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public void setHitCount(long hitCount) {
+        this.hitCount = hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public void setMissCount(long missCount) {
+        this.missCount = missCount;
+    }
+
+    public double getHitRate() {
+        return hitRate;
+    }
+
+    public void setHitRate(double hitRate) {
+        this.hitRate = hitRate;
+    }
+
+    /**
+     * @return - сколько записей вытеснено по размеру или сроку жизни. Явные сбросы сюда не входят
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public void setEvictionCount(long evictionCount) {
+        this.evictionCount = evictionCount;
+    }
+
+    public long getEvictionWeight() {
+        return evictionWeight;
+    }
+
+    public void setEvictionWeight(long evictionWeight) {
+        this.evictionWeight = evictionWeight;
+    }
+}
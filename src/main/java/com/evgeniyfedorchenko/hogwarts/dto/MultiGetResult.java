@@ -0,0 +1,52 @@
+package com.evgeniyfedorchenko.hogwarts.dto;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+public class MultiGetResult<T> {
+
+    /**
+     * Найденные объекты в порядке запрошенных id, без повторов
+     */
+    private final List<T> found;
+
+    /**
+     * Запрошенные id, по которым ничего не нашлось, в порядке запроса
+     */
+    private final List<Long> missingIds;
+
+    public MultiGetResult(List<T> found, List<Long> missingIds) {
+        this.found = found;
+        this.missingIds = missingIds;
+    }
+
+    /**
+     * Раскладывает найденное по порядку запрошенных id
+     *
+     * @param ids   - запрошенные id без повторов, в порядке запроса
+     * @param found - найденные объекты по id, в любом порядке
+     */
+    public static <T> MultiGetResult<T> inRequestOrder(Collection<Long> ids, Map<Long, T> found) {
+        List<T> ordered = new ArrayList<>(found.size());
+        List<Long> missingIds = new ArrayList<>();
+        for (Long id : ids) {
+            T value = found.get(id);
+            if (value == null) {
+                missingIds.add(id);
+            } else {
+                ordered.add(value);
+            }
+        }
+        return new MultiGetResult<>(ordered, missingIds);
+    }
+
+    public List<T> getFound() {
+        return found;
+    }
+
+    public List<Long> getMissingIds() {
+        return missingIds;
+    }
+}
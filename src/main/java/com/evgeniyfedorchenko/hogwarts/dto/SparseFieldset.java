@@ -0,0 +1,54 @@
+package com.evgeniyfedorchenko.hogwarts.dto;
+
+import com.evgeniyfedorchenko.hogwarts.exceptions.InvalidRequestParameterException;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Свойства DTO, запрошенные клиентом в параметре {@code fields}, например {@code fields=id,name}.
+ * Пустой набор ({@link #ALL}) - все свойства. По набору сервисы пропускают вычисление ненужных свойств,
+ * а контроллеры убирают их из JSON
+ *
+ * @param names - имена свойств, всегда из белого списка DTO
+ */
+public record SparseFieldset(Set<String> names) {
+
+    public static final SparseFieldset ALL = new SparseFieldset(Set.of());
+
+    public SparseFieldset {
+        names = Set.copyOf(names);
+    }
+
+    /**
+     * @param allowed - белый список свойств DTO
+     * @throws InvalidRequestParameterException - в {@code fields} есть свойство не из белого списка
+     */
+    public static SparseFieldset parse(String fields, Set<String> allowed) {
+        if (fields == null || fields.isBlank()) {
+            return ALL;
+        }
+        Set<String> names = Arrays.stream(fields.split(","))
+                .map(String::trim)
+                .filter(name -> !name.isEmpty())
+                .collect(Collectors.toSet());
+        List<String> unknown = names.stream()
+                .filter(name -> !allowed.contains(name))
+                .sorted()
+                .toList();
+        if (!unknown.isEmpty()) {
+            throw new InvalidRequestParameterException("Unknown fields %s, allowed are %s".formatted(unknown, allowed));
+        }
+        return new SparseFieldset(names);
+    }
+
+    public boolean isAll() {
+        return names.isEmpty();
+    }
+
+    public boolean includes(String name) {
+        return names.isEmpty() || names.contains(name);
+    }
+}
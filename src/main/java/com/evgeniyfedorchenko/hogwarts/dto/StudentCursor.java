@@ -0,0 +1,67 @@
+package com.evgeniyfedorchenko.hogwarts.dto;
+
+import com.evgeniyfedorchenko.hogwarts.exceptions.InvalidRequestParameterException;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentRow;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentSort;
+
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Позиция в выборке студентов для keyset-пагинации: сортировка и значения всех ее ключей
+ * у последнего отданного студента (последний ключ - всегда id).
+ * Клиенту передается в виде непрозрачной строки (Base64), которую он возвращает для получения следующей страницы
+ */
+public record StudentCursor(StudentSort sort, List<Object> values) {
+
+    private static final String SEPARATOR = "|";
+
+    public StudentCursor {
+        values = List.copyOf(values);
+    }
+
+    public static StudentCursor after(StudentSort sort, StudentRow last) {
+        List<Object> values = sort.orders().stream()
+                .map(order -> order.column().extractValue(last))
+                .toList();
+        return new StudentCursor(sort, values);
+    }
+
+    public String encode() {
+//        Значения экранируются, чтобы разделитель внутри имени студента не ломал разбор
+        String raw = Stream.concat(
+                        Stream.of(sort.toString()),
+                        values.stream().map(value -> URLEncoder.encode(String.valueOf(value), StandardCharsets.UTF_8)))
+                .collect(Collectors.joining(SEPARATOR));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static StudentCursor decode(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\" + SEPARATOR, -1);
+
+            StudentSort sort = StudentSort.parseWithTiebreaker(parts[0]);
+            List<String> rawValues = Arrays.asList(parts).subList(1, parts.length);
+            if (rawValues.size() != sort.orders().size()) {
+                throw new IllegalArgumentException("Cursor values don't match its sort");
+            }
+
+            List<Object> values = IntStream.range(0, rawValues.size())
+                    .mapToObj(i -> sort.orders().get(i).column()
+                            .parseValue(URLDecoder.decode(rawValues.get(i), StandardCharsets.UTF_8)))
+                    .toList();
+            return new StudentCursor(sort, values);
+
+        } catch (IllegalArgumentException | InvalidRequestParameterException e) {
+            throw new InvalidRequestParameterException("Cursor '" + cursor + "' is malformed");
+        }
+    }
+}
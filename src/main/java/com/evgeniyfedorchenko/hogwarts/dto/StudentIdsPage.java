@@ -0,0 +1,33 @@
+package com.evgeniyfedorchenko.hogwarts.dto;
+
+import java.util.List;
+
+public class StudentIdsPage {
+
+    private final List<Long> studentIds;
+
+    /**
+     * Id последнего студента страницы для запроса следующей. {@code null}, если страница последняя
+     */
+    private final Long nextCursor;
+
+    public StudentIdsPage(List<Long> studentIds, Long nextCursor) {
+        this.studentIds = studentIds;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Страница из id, прочитанных с лимитом {@code limit}. Курсор выдается по тому же правилу, что и в {@link StudentsPage#of}
+     */
+    public static StudentIdsPage of(List<Long> studentIds, int limit) {
+        return new StudentIdsPage(studentIds, studentIds.size() < limit ? null : studentIds.getLast());
+    }
+
+    public List<Long> getStudentIds() {
+        return studentIds;
+    }
+
+    public Long getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,48 @@
+package com.evgeniyfedorchenko.hogwarts.dto;
+
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentImportResult;
+
+import java.util.List;
+
+public class StudentImportResultDto {
+
+    private long imported;
+    private long rejected;
+    private List<StudentImportResult.RejectedRow> rejectedRows;
+
+    public StudentImportResultDto() {
+    }
+
+    public StudentImportResultDto(long imported, long rejected, List<StudentImportResult.RejectedRow> rejectedRows) {
+        this.imported = imported;
+        this.rejected = rejected;
+        this.rejectedRows = rejectedRows;
+    }
+
+    public long getImported() {
+        return imported;
+    }
+
+    public void setImported(long imported) {
+        this.imported = imported;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public void setRejected(long rejected) {
+        this.rejected = rejected;
+    }
+
+    /**
+     * @return - первые отклоненные строки с причинами. Их может быть меньше, чем {@link #getRejected()}
+     */
+    public List<StudentImportResult.RejectedRow> getRejectedRows() {
+        return rejectedRows;
+    }
+
+    public void setRejectedRows(List<StudentImportResult.RejectedRow> rejectedRows) {
+        this.rejectedRows = rejectedRows;
+    }
+}
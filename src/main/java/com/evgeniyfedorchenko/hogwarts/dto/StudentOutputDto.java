@@ -1,15 +1,33 @@
 package com.evgeniyfedorchenko.hogwarts.dto;
 
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.time.Instant;
 import java.util.Objects;
+import java.util.Set;
 
+@JsonFilter(StudentOutputDto.JSON_FILTER)
 public class StudentOutputDto {
 
+    public static final String JSON_FILTER = "studentFields";
+    /**
+     * Свойства, которые можно запросить через {@code fields}
+     */
+    public static final Set<String> FIELDS = Set.of("id", "name", "age", "facultyId", "avatarUrl");
+
     private Long id;
     private String name;
     private int age;
     private Long facultyId;
     private String avatarUrl;
 
+    // Не сериализуются: передаются в заголовках ETag и Last-Modified
+    @JsonIgnore
+    private long version;
+    @JsonIgnore
+    private Instant updatedAt;
+
     public Long getId() {
         return id;
     }
@@ -50,6 +68,22 @@ public class StudentOutputDto {
         this.avatarUrl = avatarUrl;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
     @Override
     public String toString() {
         return "StudentOutputDto:ID%d-%s,%dy.o.(%d)".formatted(id, name, age, facultyId);
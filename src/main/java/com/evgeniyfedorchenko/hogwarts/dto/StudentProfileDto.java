@@ -0,0 +1,49 @@
+package com.evgeniyfedorchenko.hogwarts.dto;
+
+public class StudentProfileDto {
+
+    private StudentOutputDto student;
+    private FacultyOutputDto faculty;
+
+    /**
+     * {@code null}, если у студента нет аватара
+     */
+    private AvatarDto avatar;
+
+    /**
+     * Сжатое изображение аватара из БД, в JSON - строкой Base64. Заполняется только по запросу
+     */
+    private byte[] preview;
+
+    public StudentOutputDto getStudent() {
+        return student;
+    }
+
+    public void setStudent(StudentOutputDto student) {
+        this.student = student;
+    }
+
+    public FacultyOutputDto getFaculty() {
+        return faculty;
+    }
+
+    public void setFaculty(FacultyOutputDto faculty) {
+        this.faculty = faculty;
+    }
+
+    public AvatarDto getAvatar() {
+        return avatar;
+    }
+
+    public void setAvatar(AvatarDto avatar) {
+        this.avatar = avatar;
+    }
+
+    public byte[] getPreview() {
+        return preview;
+    }
+
+    public void setPreview(byte[] preview) {
+        this.preview = preview;
+    }
+}
@@ -0,0 +1,37 @@
+package com.evgeniyfedorchenko.hogwarts.dto;
+
+import com.evgeniyfedorchenko.hogwarts.entities.Color;
+
+import java.util.List;
+import java.util.Map;
+
+public class StudentStatsDto {
+
+    private AgeStatsDto total;
+    private List<FacultyAgeStatsDto> byFaculty;
+    private Map<Color, AgeStatsDto> byColor;
+
+    public AgeStatsDto getTotal() {
+        return total;
+    }
+
+    public void setTotal(AgeStatsDto total) {
+        this.total = total;
+    }
+
+    public List<FacultyAgeStatsDto> getByFaculty() {
+        return byFaculty;
+    }
+
+    public void setByFaculty(List<FacultyAgeStatsDto> byFaculty) {
+        this.byFaculty = byFaculty;
+    }
+
+    public Map<Color, AgeStatsDto> getByColor() {
+        return byColor;
+    }
+
+    public void setByColor(Map<Color, AgeStatsDto> byColor) {
+        this.byColor = byColor;
+    }
+}
@@ -0,0 +1,28 @@
+package com.evgeniyfedorchenko.hogwarts.dto;
+
+import java.util.List;
+
+/**
+ * Кого переводить: либо перечисленных студентов, либо всех студентов другого факультета
+ */
+public class StudentTransferDto {
+
+    private List<Long> studentIds;
+    private Long fromFacultyId;
+
+    public List<Long> getStudentIds() {
+        return studentIds;
+    }
+
+    public void setStudentIds(List<Long> studentIds) {
+        this.studentIds = studentIds;
+    }
+
+    public Long getFromFacultyId() {
+        return fromFacultyId;
+    }
+
+    public void setFromFacultyId(Long fromFacultyId) {
+        this.fromFacultyId = fromFacultyId;
+    }
+}
@@ -0,0 +1,39 @@
+package com.evgeniyfedorchenko.hogwarts.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class StudentTransferResultDto {
+
+    private int transferred;
+    private List<Long> notFoundIds;
+
+    public StudentTransferResultDto() {
+    }
+
+    public StudentTransferResultDto(int transferred, List<Long> notFoundIds) {
+        this.transferred = transferred;
+        this.notFoundIds = notFoundIds;
+    }
+
+    public int getTransferred() {
+        return transferred;
+    }
+
+    public void setTransferred(int transferred) {
+        this.transferred = transferred;
+    }
+
+    /**
+     * @return - id из запроса, для которых студенты не найдены. Не заполняется при переводе целого факультета
+     */
+    public List<Long> getNotFoundIds() {
+        return notFoundIds;
+    }
+
+    public void setNotFoundIds(List<Long> notFoundIds) {
+        this.notFoundIds = notFoundIds;
+    }
+}
@@ -0,0 +1,56 @@
+package com.evgeniyfedorchenko.hogwarts.dto;
+
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentRow;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentSort;
+
+import java.util.List;
+import java.util.function.Function;
+
+public class StudentsPage {
+
+    private final List<StudentOutputDto> students;
+
+    /**
+     * Курсор для запроса следующей страницы. {@code null}, если страница последняя
+     */
+    private final String nextCursor;
+
+    /**
+     * Общее количество студентов, подходящих под запрос. {@code null}, если его не запрашивали
+     */
+    private final Long totalCount;
+
+    public StudentsPage(List<StudentOutputDto> students, String nextCursor, Long totalCount) {
+        this.students = students;
+        this.nextCursor = nextCursor;
+        this.totalCount = totalCount;
+    }
+
+    /**
+     * Страница из строк, прочитанных с лимитом {@code pageSize} в порядке {@code sort}.
+     * Неполная страница - последняя, курсор для нее не выдается. Курсор строится и для страницы,
+     * полученной по номеру: с нее можно перейти на keyset
+     *
+     * @param toDto      - представление строки в ответе
+     * @param totalCount - {@code null}, если количество не запрашивали
+     */
+    public static StudentsPage of(List<StudentRow> rows, StudentSort sort, int pageSize,
+                                  Function<StudentRow, StudentOutputDto> toDto, Long totalCount) {
+        String nextCursor = rows.size() < pageSize
+                ? null
+                : StudentCursor.after(sort, rows.getLast()).encode();
+        return new StudentsPage(rows.stream().map(toDto).toList(), nextCursor, totalCount);
+    }
+
+    public List<StudentOutputDto> getStudents() {
+        return students;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public Long getTotalCount() {
+        return totalCount;
+    }
+}
@@ -7,6 +7,7 @@ import java.util.Objects;
 
 @Entity
 @Table(name = "avatars")
+@NamedEntityGraph(name = "Avatar.withStudent", attributeNodes = @NamedAttributeNode("student"))
 public class Avatar {
 
     @Id
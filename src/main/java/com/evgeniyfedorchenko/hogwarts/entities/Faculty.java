@@ -1,18 +1,33 @@
 package com.evgeniyfedorchenko.hogwarts.entities;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.annotation.Nullable;
 import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.OptimisticLock;
+import org.hibernate.annotations.UpdateTimestamp;
 
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 
+/* Факультетов единицы, а ищутся они при каждом создании и изменении студента, поэтому строки факультетов
+   кэшируются во втором уровне Hibernate. Состав (students) не кэшируется: студенты переводятся и удаляются
+   пачками через JDBC в обход Hibernate, и закэшированная коллекция быстро устаревала бы */
 @Entity
 @Table(name = "faculties")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "faculties")
+@NamedEntityGraph(name = "Faculty.withStudents", attributeNodes = @NamedAttributeNode("students"))
+@DynamicUpdate   // UPDATE только измененных колонок: частичное обновление не переписывает всю строку
 public class Faculty {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "faculties_seq")
+    @SequenceGenerator(name = "faculties_seq", sequenceName = "faculties_seq", allocationSize = 50)
     private Long id;
 
     @Column(unique = true)
@@ -20,9 +35,19 @@ public class Faculty {
     private Color color;
 
     @Nullable
-    @OneToMany(mappedBy = "faculty", fetch = FetchType.EAGER)
+    @OneToMany(mappedBy = "faculty")
+    @OptimisticLock(excluded = true)
     private List<Student> students;
 
+    // Меняется только при изменении самого факультета, но не его состава
+    @JsonIgnore
+    @Version
+    private long version;
+
+    @JsonIgnore
+    @UpdateTimestamp
+    private Instant updatedAt;
+
     public Long getId() {
         return id;
     }
@@ -55,6 +80,14 @@ public class Faculty {
         this.students = students;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
     /**
      * @return - возвращает Faculty с обновленными студентами
      */
@@ -93,8 +126,9 @@ public class Faculty {
         return Objects.hash(id, name, color);
     }
 
+    /* Студенты не выводятся: коллекция ленивая, и ее печать в логе подгружала бы весь состав факультета */
     @Override
     public String toString() {
-        return "Faculty %d - %s, clr, students: %s".formatted(id, name, students);
+        return "Faculty %d - %s, %s".formatted(id, name, color);
     }
 }
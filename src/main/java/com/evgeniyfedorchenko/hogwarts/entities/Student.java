@@ -1,31 +1,48 @@
 package com.evgeniyfedorchenko.hogwarts.entities;
 
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.NotNull;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.UpdateTimestamp;
 
+import java.time.Instant;
 import java.util.Objects;
 
 @Entity
 @Table(name = "students")
+@NamedEntityGraph(name = "Student.withFaculty", attributeNodes = @NamedAttributeNode("faculty"))
+@DynamicUpdate   // UPDATE только измененных колонок: правка одного поля - один короткий UPDATE
 public class Student {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "students_seq")
+    @SequenceGenerator(name = "students_seq", sequenceName = "students_seq", allocationSize = 50)
     private Long id;
 
     private String name;
     private int age;
 
     @NotNull
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "faculty_id")
     private Faculty faculty;
 
-    @OneToOne
+    @OneToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "avatar_id")
     private Avatar avatar;
 
+    /* Версия и время изменения строки - для ETag и оптимистичных блокировок.
+       Set-based запросы в обход Hibernate обновляют их сами */
+    @JsonIgnore
+    @Version
+    private long version;
+
+    @JsonIgnore
+    @UpdateTimestamp
+    private Instant updatedAt;
+
     public Long getId() {
         return id;
     }
@@ -66,6 +83,14 @@ public class Student {
         this.avatar = avatar;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
 
     @Override
     public boolean equals(Object otherStudent) {     /* Каждый студент имеет свой УНИКАЛЬНЫЙ id */
@@ -0,0 +1,8 @@
+package com.evgeniyfedorchenko.hogwarts.exceptions;
+
+public class InvalidRequestParameterException extends RuntimeException {
+
+    public InvalidRequestParameterException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,8 @@
+package com.evgeniyfedorchenko.hogwarts.exceptions;
+
+public class PreconditionFailedException extends RuntimeException {
+
+    public PreconditionFailedException(String message) {
+        super(message);
+    }
+}
@@ -2,9 +2,12 @@ package com.evgeniyfedorchenko.hogwarts.exceptions.handler;
 
 import com.evgeniyfedorchenko.hogwarts.exceptions.AvatarProcessingException;
 import com.evgeniyfedorchenko.hogwarts.exceptions.EntityNotFoundException;
+import com.evgeniyfedorchenko.hogwarts.exceptions.InvalidRequestParameterException;
+import com.evgeniyfedorchenko.hogwarts.exceptions.PreconditionFailedException;
 import jakarta.validation.ConstraintViolation;
 import jakarta.validation.ConstraintViolationException;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.MethodArgumentNotValidException;
@@ -28,11 +31,26 @@ public class GlobalExceptionHandler {
         return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
     }
 
+    @ExceptionHandler(InvalidRequestParameterException.class)    // Неподдерживаемые параметры сортировки, битый курсор и т.п.
+    public ResponseEntity<String> handleInvalidRequestParameterException(InvalidRequestParameterException e) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+    }
+
     @ExceptionHandler(DataIntegrityViolationException.class)     // Нарушение целостности БД (нарушение констрейнтов)
     public ResponseEntity<String> handleDataIntegrityViolationException(DataIntegrityViolationException e) {
         return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
     }
 
+    @ExceptionHandler(PreconditionFailedException.class)    // If-Match не совпал с текущей версией
+    public ResponseEntity<String> handlePreconditionFailedException(PreconditionFailedException e) {
+        return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).body(e.getMessage());
+    }
+
+    @ExceptionHandler(OptimisticLockingFailureException.class)    // Параллельное изменение между чтением и записью
+    public ResponseEntity<String> handleOptimisticLockingFailureException(OptimisticLockingFailureException e) {
+        return ResponseEntity.status(HttpStatus.CONFLICT).body("The entity was modified concurrently, reload it and retry");
+    }
+
     @ExceptionHandler(MethodArgumentNotValidException.class)    // Невалидные параметры inputDto
     public ResponseEntity<String> handleMethodArgumentNotValidException(MethodArgumentNotValidException e) {
         String message = "Validation error in parameter " + (e.getParameter().getParameterIndex() + 1);
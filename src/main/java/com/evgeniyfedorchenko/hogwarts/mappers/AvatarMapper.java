@@ -3,6 +3,7 @@ package com.evgeniyfedorchenko.hogwarts.mappers;
 import com.evgeniyfedorchenko.hogwarts.controllers.StudentController;
 import com.evgeniyfedorchenko.hogwarts.dto.AvatarDto;
 import com.evgeniyfedorchenko.hogwarts.entities.Avatar;
+import com.evgeniyfedorchenko.hogwarts.repositories.AvatarRow;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.util.UriComponentsBuilder;
@@ -28,6 +29,21 @@ public class AvatarMapper {
         return avatarDto;
     }
 
+    public AvatarDto toDto(AvatarRow avatar) {
+        AvatarDto avatarDto = new AvatarDto();
+
+        avatarDto.setId(avatar.id());
+        avatarDto.setMediaType(avatar.mediaType());
+
+        avatarDto.setPreviewUrl(generateUrlToAvatar(false, avatar.studentId()));
+        avatarDto.setFullPictureUrl(generateUrlToAvatar(true, avatar.studentId()));
+
+        avatarDto.setStudentName(avatar.studentName());
+        avatarDto.setStudentId(avatar.studentId());
+
+        return avatarDto;
+    }
+
 
     protected String generateUrlToAvatar(boolean queryParamValue, Long studentId) {
         return UriComponentsBuilder.newInstance()
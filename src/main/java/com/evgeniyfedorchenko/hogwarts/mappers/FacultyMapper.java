@@ -1,27 +1,37 @@
 package com.evgeniyfedorchenko.hogwarts.mappers;
 
+import com.evgeniyfedorchenko.hogwarts.dto.FacultyInputDto;
 import com.evgeniyfedorchenko.hogwarts.dto.FacultyOutputDto;
 import com.evgeniyfedorchenko.hogwarts.entities.Faculty;
-import com.evgeniyfedorchenko.hogwarts.entities.Student;
 import org.springframework.stereotype.Component;
 
-import java.util.List;
-
 @Component
 public class FacultyMapper {
 
-    public FacultyOutputDto toDto(Faculty faculty) {
+    /**
+     * Состав факультета не читается: количество студентов посчитано отдельным запросом
+     */
+    public FacultyOutputDto toDto(Faculty faculty, long studentCount) {
         FacultyOutputDto outputDto = new FacultyOutputDto();
 
         outputDto.setId(faculty.getId());
         outputDto.setName(faculty.getName());
         outputDto.setColor(faculty.getColor());
-
-        List<Long> studentIds = faculty.getStudents().stream()
-                .map(Student::getId)
-                .toList();
-        outputDto.setStudentIds(studentIds);
+        outputDto.setVersion(faculty.getVersion());
+        outputDto.setStudentCount(studentCount);
 
         return outputDto;
     }
+
+    /**
+     * Текущее состояние факультета в виде входного DTO - основа для частичного обновления
+     */
+    public FacultyInputDto toInputDto(Faculty faculty) {
+        FacultyInputDto inputDto = new FacultyInputDto();
+
+        inputDto.setName(faculty.getName());
+        inputDto.setColor(faculty.getColor());
+
+        return inputDto;
+    }
 }
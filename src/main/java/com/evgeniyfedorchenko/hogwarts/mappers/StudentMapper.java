@@ -1,8 +1,10 @@
 package com.evgeniyfedorchenko.hogwarts.mappers;
 
+import com.evgeniyfedorchenko.hogwarts.dto.SparseFieldset;
 import com.evgeniyfedorchenko.hogwarts.dto.StudentInputDto;
 import com.evgeniyfedorchenko.hogwarts.dto.StudentOutputDto;
 import com.evgeniyfedorchenko.hogwarts.entities.Student;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentRow;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -19,6 +21,8 @@ public class StudentMapper {
         studentOutputDto.setName(student.getName());
         studentOutputDto.setAge(student.getAge());
         studentOutputDto.setFacultyId(student.getFaculty().getId());
+        studentOutputDto.setVersion(student.getVersion());
+        studentOutputDto.setUpdatedAt(student.getUpdatedAt());
 
         if (student.getAvatar() != null) {
             studentOutputDto.setAvatarUrl(avatarMapper.generateUrlToAvatar(true, student.getId()));
@@ -28,4 +32,44 @@ public class StudentMapper {
 
         return studentOutputDto;
     }
+
+    /**
+     * Текущее состояние студента в виде входного DTO - основа для частичного обновления.
+     * Факультет не загружается: id берется из прокси
+     */
+    public StudentInputDto toInputDto(Student student) {
+        StudentInputDto inputDto = new StudentInputDto();
+
+        inputDto.setName(student.getName());
+        inputDto.setAge(student.getAge());
+        inputDto.setFacultyId(student.getFaculty().getId());
+
+        return inputDto;
+    }
+
+    public StudentOutputDto toDto(StudentRow row) {
+        return toDto(row, SparseFieldset.ALL);
+    }
+
+    /**
+     * Ссылка на аватар собирается, только если она запрошена
+     */
+    public StudentOutputDto toDto(StudentRow row, SparseFieldset fields) {
+        StudentOutputDto studentOutputDto = new StudentOutputDto();
+
+        studentOutputDto.setId(row.id());
+        studentOutputDto.setName(row.name());
+        studentOutputDto.setAge(row.age());
+        studentOutputDto.setFacultyId(row.facultyId());
+        studentOutputDto.setVersion(row.version());
+        studentOutputDto.setUpdatedAt(row.updatedAt());
+
+        if (row.hasAvatar() && fields.includes("avatarUrl")) {
+            studentOutputDto.setAvatarUrl(avatarMapper.generateUrlToAvatar(true, row.id()));
+        } else {
+            studentOutputDto.setAvatarUrl(null);
+        }
+
+        return studentOutputDto;
+    }
 }
@@ -0,0 +1,7 @@
+package com.evgeniyfedorchenko.hogwarts.repositories;
+
+/**
+ * Количество студентов одного возраста - строка гистограммы возрастов
+ */
+public record AgeCount(int age, long count) {
+}
@@ -0,0 +1,21 @@
+package com.evgeniyfedorchenko.hogwarts.repositories;
+
+import com.evgeniyfedorchenko.hogwarts.entities.Color;
+
+/**
+ * Строка сводки по возрастам студентов. Одна выборка с GROUPING SETS возвращает строки трех уровней
+ *
+ * @param facultyId   - заполняется только на уровне {@link Level#FACULTY}
+ * @param facultyName - заполняется только на уровне {@link Level#FACULTY}
+ * @param color       - не заполняется только на уровне {@link Level#TOTAL}
+ * @param averageAge  - {@code null}, если в группе нет студентов. Так же и для остальных возрастных значений
+ */
+public record AgeStatsRow(Level level, Long facultyId, String facultyName, Color color, long count,
+                          Double averageAge, Integer minAge, Integer maxAge, Double medianAge, Double percentile90Age) {
+
+    public enum Level {
+        FACULTY,
+        COLOR,
+        TOTAL
+    }
+}
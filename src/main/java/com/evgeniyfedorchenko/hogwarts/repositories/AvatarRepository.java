@@ -1,13 +1,74 @@
 package com.evgeniyfedorchenko.hogwarts.repositories;
 
 import com.evgeniyfedorchenko.hogwarts.entities.Avatar;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface AvatarRepository extends JpaRepository<Avatar, Long> {
+
     Optional<Avatar> findByStudent_Id(Long studentId);
 
+    /* Внешний ключ хранится у студента, поэтому оба запроса идут от students по первичному ключу
+       и читают одну строку avatars, без загрузки сущностей студента и факультета */
+    @Query("SELECT new com.evgeniyfedorchenko.hogwarts.repositories.AvatarRow(a.id, a.mediaType, s.id, s.name) " +
+           "FROM Student s JOIN s.avatar a WHERE s.id = :studentId")
+    Optional<AvatarRow> findRowByStudentId(@Param("studentId") Long studentId);
+
+    @Query("SELECT a.data FROM Student s JOIN s.avatar a WHERE s.id = :studentId")
+    Optional<byte[]> findDataByStudentId(@Param("studentId") Long studentId);
+
+    /**
+     * Студент нужен маппингу каждого аватара. Без графа он подгружался бы отдельным запросом на каждую строку
+     */
+    @Override
+    @EntityGraph("Avatar.withStudent")
+    Page<Avatar> findAll(Pageable pageable);
+
+    /**
+     * То же, что {@link #findAll(Pageable)}, но без запроса count(*): читается на одну строку больше,
+     * чтобы узнать, есть ли следующая страница
+     */
+    @EntityGraph("Avatar.withStudent")
+    Slice<Avatar> findAllBy(Pageable pageable);
+
+    /**
+     * Страница аватаров в порядке id и общее количество аватаров одним запросом, как
+     * {@link StudentRepositoryCustom#findCountedPage}: последняя колонка - {@code count(*) OVER ()}
+     */
+    default CountedAvatarRows findCountedPage(int limit, long offset) {
+        List<Object[]> rows = findCountedPageRows(limit, offset);
+        if (rows.isEmpty()) {
+//            Страница за концом выборки: окну не на чем посчитаться
+            return new CountedAvatarRows(List.of(), offset == 0 ? 0 : count());
+        }
+        long total = ((Number) rows.get(0)[4]).longValue();
+        List<AvatarRow> avatars = rows.stream()
+                .map(row -> new AvatarRow(((Number) row[0]).longValue(), (String) row[1],
+                        ((Number) row[2]).longValue(), (String) row[3]))
+                .toList();
+        return new CountedAvatarRows(avatars, total);
+    }
+
+    @Query(value = "SELECT a.id, a.media_type, s.id AS student_id, s.name, count(*) OVER () " +
+                   "FROM avatars a JOIN students s ON s.avatar_id = a.id " +
+                   "ORDER BY a.id LIMIT :limit OFFSET :offset", nativeQuery = true)
+    List<Object[]> findCountedPageRows(@Param("limit") int limit, @Param("offset") long offset);
+
+    /**
+     * Оценка количества строк из статистики планировщика, без чтения таблицы.
+     * -1, если таблицу еще ни разу не анализировали (VACUUM / ANALYZE)
+     */
+    @Query(value = "SELECT CAST(reltuples AS bigint) FROM pg_class WHERE oid = CAST('avatars' AS regclass)", nativeQuery = true)
+    long estimateCount();
+
 }
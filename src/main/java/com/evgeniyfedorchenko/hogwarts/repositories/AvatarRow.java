@@ -0,0 +1,7 @@
+package com.evgeniyfedorchenko.hogwarts.repositories;
+
+/**
+ * Метаданные аватара без самой картинки - для ответов, где аватар только описывается ссылками
+ */
+public record AvatarRow(Long id, String mediaType, Long studentId, String studentName) {
+}
@@ -0,0 +1,9 @@
+package com.evgeniyfedorchenko.hogwarts.repositories;
+
+import java.util.List;
+
+/**
+ * Страница аватаров вместе с общим количеством строк выборки, посчитанным тем же запросом
+ */
+public record CountedAvatarRows(List<AvatarRow> rows, long totalCount) {
+}
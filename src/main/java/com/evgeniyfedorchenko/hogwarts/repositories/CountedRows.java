@@ -0,0 +1,9 @@
+package com.evgeniyfedorchenko.hogwarts.repositories;
+
+import java.util.List;
+
+/**
+ * Страница студентов вместе с общим количеством строк выборки, посчитанным тем же запросом
+ */
+public record CountedRows(List<StudentRow> rows, long totalCount) {
+}
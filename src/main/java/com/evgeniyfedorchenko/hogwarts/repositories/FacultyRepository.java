@@ -2,20 +2,45 @@ package com.evgeniyfedorchenko.hogwarts.repositories;
 
 import com.evgeniyfedorchenko.hogwarts.entities.Color;
 import com.evgeniyfedorchenko.hogwarts.entities.Faculty;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 @Repository
-public interface FacultyRepository extends JpaRepository<Faculty, Long> {
+public interface FacultyRepository extends JpaRepository<Faculty, Long>, FacultyRepositoryCustom {
 
     boolean existsByName(String name);
 
+    /**
+     * Факультет вместе со студентами одним запросом
+     */
+    @EntityGraph("Faculty.withStudents")
+    Optional<Faculty> findWithStudentsById(Long id);
+
+    @Query("SELECT f FROM Faculty f WHERE f.id = (SELECT s.faculty.id FROM Student s WHERE s.id = :studentId)")
+    Optional<Faculty> findByStudentId(@Param("studentId") Long studentId);
+
+    /* Результаты поиска кэшируются: Hibernate сбрасывает их при любой записи в faculties через него самого.
+       Граф со студентами здесь не нужен - закэшированный результат без коллекции при попадании
+       отдал бы факультеты с незагруженным составом. Id студентов читаются отдельно */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
     List<Faculty> findFacultyByColorAndNameContainsIgnoreCase(Color color, String name);
 
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
     List<Faculty> findByNameContainsIgnoreCase(String name);
 
     Optional<Faculty> findFirstByName(String name);
+
+    @Query("SELECT f.name FROM Faculty f WHERE f.name IN :names")
+    Set<String> findExistingNames(@Param("names") Collection<String> names);
 }
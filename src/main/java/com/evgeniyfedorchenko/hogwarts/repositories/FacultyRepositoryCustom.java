@@ -0,0 +1,16 @@
+package com.evgeniyfedorchenko.hogwarts.repositories;
+
+import com.evgeniyfedorchenko.hogwarts.entities.Faculty;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface FacultyRepositoryCustom {
+
+    /**
+     * Факультеты по списку id. В отличие от {@code findAllById}, сначала смотрит в кэш второго уровня,
+     * а оставшиеся id читает одним запросом {@code WHERE id = ANY(?)}. Порядок не определен,
+     * ненайденных id в результате просто нет
+     */
+    List<Faculty> findAllByIdCached(Collection<Long> ids);
+}
@@ -0,0 +1,32 @@
+package com.evgeniyfedorchenko.hogwarts.repositories;
+
+import com.evgeniyfedorchenko.hogwarts.entities.Faculty;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.Session;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
+public class FacultyRepositoryCustomImpl implements FacultyRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<Faculty> findAllByIdCached(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        /* multiLoad проверяет контекст сессии и кэш второго уровня, а промахи на PostgreSQL
+           читает одним запросом с массивом id. Без упорядочивания ненайденные id не дают null-элементов */
+        return entityManager.unwrap(Session.class)
+                .byMultipleIds(Faculty.class)
+                .enableOrderedReturn(false)
+                .multiLoad(List.copyOf(ids))
+                .stream()
+                .filter(Objects::nonNull)
+                .toList();
+    }
+}
@@ -0,0 +1,7 @@
+package com.evgeniyfedorchenko.hogwarts.repositories;
+
+/**
+ * Количество студентов факультета - чтобы посчитать составы нескольких факультетов одним запросом
+ */
+public record FacultyStudentCount(Long facultyId, long count) {
+}
@@ -0,0 +1,17 @@
+package com.evgeniyfedorchenko.hogwarts.repositories;
+
+import java.util.List;
+
+/**
+ * Итог set-based удаления студентов вместе с их аватарами
+ *
+ * @param deletedIds       - id удаленных студентов
+ * @param deletedAges      - количество удаленных студентов каждого возраста
+ * @param avatarFilePaths  - пути к файлам удаленных аватаров на диске. Сами файлы этим удалением не затрагиваются
+ */
+public record StudentDeletionResult(List<Long> deletedIds, List<AgeCount> deletedAges, List<String> avatarFilePaths) {
+
+    public int deletedCount() {
+        return deletedIds.size();
+    }
+}
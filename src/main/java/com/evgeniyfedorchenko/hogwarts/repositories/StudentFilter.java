@@ -0,0 +1,25 @@
+package com.evgeniyfedorchenko.hogwarts.repositories;
+
+import com.evgeniyfedorchenko.hogwarts.entities.Color;
+
+/**
+ * Условия комбинированного поиска студентов. {@code null} в любом поле - условие не применяется,
+ * заданные условия объединяются через AND
+ *
+ * @param namePrefix - начало имени без учета регистра, спецсимволы LIKE ищутся как обычные символы
+ * @param hasAvatar  - {@code true} - только студенты с аватаром, {@code false} - только без него
+ */
+public record StudentFilter(Integer minAge, Integer maxAge, Long facultyId, Color facultyColor,
+                            String namePrefix, Boolean hasAvatar) {
+
+    public boolean requiresFacultyJoin() {
+        return facultyColor != null;
+    }
+
+    /**
+     * @return - {@code true}, если заданы только условия на возраст (или не задано никаких)
+     */
+    public boolean restrictsOnlyAge() {
+        return facultyId == null && facultyColor == null && namePrefix == null && hasAvatar == null;
+    }
+}
@@ -0,0 +1,24 @@
+package com.evgeniyfedorchenko.hogwarts.repositories;
+
+import java.util.List;
+
+/**
+ * Итог загрузки студентов из CSV
+ *
+ * @param importedAges - количество вставленных студентов каждого возраста
+ * @param rejectedRows - первые из отклоненных строк, не больше {@link StudentJdbcRepository#MAX_REPORTED_REJECTS}
+ */
+public record StudentImportResult(List<AgeCount> importedAges, long rejectedCount, List<RejectedRow> rejectedRows) {
+
+    /**
+     * @param line - номер строки файла, считая заголовок
+     */
+    public record RejectedRow(long line, String reason) {
+    }
+
+    public long importedCount() {
+        return importedAges.stream()
+                .mapToLong(AgeCount::count)
+                .sum();
+    }
+}
@@ -0,0 +1,181 @@
+package com.evgeniyfedorchenko.hogwarts.repositories;
+
+import com.evgeniyfedorchenko.hogwarts.exceptions.InvalidRequestParameterException;
+import org.postgresql.PGConnection;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Set-based операции над студентами, для которых JPA не подходит: строки не проходят через контекст персистентности.
+ * Все методы должны вызываться внутри транзакции - тогда JdbcTemplate работает на ее соединении
+ */
+@Repository
+public class StudentJdbcRepository {
+
+    public static final int MAX_REPORTED_REJECTS = 1_000;
+
+    /* Все колонки текстовые, чтобы COPY не падал на первой же кривой строке: проверки делаются потом, одним запросом.
+       ON COMMIT DROP - таблица живет только в текущей транзакции и не видна другим соединениям */
+    static final String CREATE_STAGING_SQL = """
+            CREATE TEMP TABLE student_import (
+                line bigserial,
+                name text,
+                age text,
+                faculty_name text
+            ) ON COMMIT DROP""";
+
+    private static final String COPY_SQL =
+            "COPY student_import (name, age, faculty_name) FROM STDIN WITH (FORMAT csv, HEADER true)";
+
+    private static final String VALID_AGE = "CASE WHEN trim(i.age) ~ '^[0-9]{1,9}$' THEN trim(i.age)::int END";
+
+    private static final String REJECT_REASON = """
+            CASE
+                WHEN coalesce(trim(i.name), '') = '' THEN 'Student name cannot be empty'
+                WHEN %1$s IS NULL THEN 'Age ''' || coalesce(i.age, '') || ''' is not a number'
+                WHEN %1$s < 16 THEN 'Student''s age must be greater than 15'
+                WHEN f.id IS NULL THEN 'Faculty ''' || coalesce(i.faculty_name, '') || ''' not found'
+            END""".formatted(VALID_AGE);
+
+    /* id берется из последовательности явно: в схеме, созданной Hibernate, у колонки нет DEFAULT.
+       С оптимизатором pooled-lo каждая такая строка занимает начало блока из 50 id, поэтому id получаются разреженными */
+    static final String INSERT_SQL = """
+            WITH inserted AS (
+                INSERT INTO students (id, name, age, faculty_id, version, updated_at)
+                SELECT nextval('students_seq'), trim(i.name), %1$s, f.id, 0, now()
+                FROM student_import i JOIN faculties f ON f.name = trim(i.faculty_name)
+                WHERE coalesce(trim(i.name), '') <> '' AND %1$s >= 16
+                ORDER BY i.line
+                RETURNING age
+            )
+            SELECT age, count(*) FROM inserted GROUP BY age""".formatted(VALID_AGE);
+
+    static final String REJECTED_SQL = """
+            SELECT i.line + 1, %s
+            FROM student_import i LEFT JOIN faculties f ON f.name = trim(i.faculty_name)
+            WHERE f.id IS NULL OR coalesce(trim(i.name), '') = '' OR coalesce(%s, 0) < 16
+            ORDER BY i.line
+            LIMIT %d""".formatted(REJECT_REASON, VALID_AGE, MAX_REPORTED_REJECTS);
+
+    // Hibernate здесь версию не увеличит, поэтому без этого ETag переведенных студентов остался бы прежним
+    private static final String TRANSFER_SQL = "UPDATE students SET faculty_id = ?, version = version + 1, updated_at = now() ";
+    static final String TRANSFER_BY_IDS_SQL = TRANSFER_SQL + "WHERE id = ANY(?) RETURNING id";
+    static final String TRANSFER_ALL_SQL = TRANSFER_SQL + "WHERE faculty_id = ? RETURNING id";
+
+    static final String DELETE_STUDENTS_SQL = "DELETE FROM students WHERE faculty_id = ? RETURNING id, age, avatar_id";
+
+    /* Колонка data - oid большого объекта, и удаление строки его не освобождает: он остался бы в pg_largeobject навсегда.
+       Подзапрос к pg_largeobject_metadata пропускает пустые и уже освобожденные oid, на которых lo_unlink упал бы */
+    static final String DELETE_AVATARS_SQL = """
+            DELETE FROM avatars WHERE id = ANY(?)
+            RETURNING file_path, (SELECT lo_unlink(m.oid) FROM pg_largeobject_metadata m WHERE m.oid = data)""";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public StudentJdbcRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Загружает CSV с колонками {@code name,age,facultyName} (первая строка - заголовок) через COPY во временную таблицу,
+     * затем одним INSERT ... SELECT переносит валидные строки в students, подставляя id факультетов по именам.
+     * Поток читается драйвером по мере отправки и целиком в памяти не держится
+     */
+    public StudentImportResult importCsv(InputStream csv) {
+        jdbcTemplate.execute(CREATE_STAGING_SQL);
+        long rows = jdbcTemplate.execute((ConnectionCallback<Long>) connection -> copyIn(connection, csv));
+
+        List<AgeCount> importedAges = jdbcTemplate.query(INSERT_SQL,
+                (rs, rowNum) -> new AgeCount(rs.getInt(1), rs.getLong(2)));
+        List<StudentImportResult.RejectedRow> rejectedRows = jdbcTemplate.query(REJECTED_SQL,
+                (rs, rowNum) -> new StudentImportResult.RejectedRow(rs.getLong(1), rs.getString(2)));
+
+        long importedCount = importedAges.stream().mapToLong(AgeCount::count).sum();
+        return new StudentImportResult(importedAges, rows - importedCount, rejectedRows);
+    }
+
+    /**
+     * Переводит студентов с переданными id на факультет {@code facultyId} одним UPDATE.
+     * Массив id передается одним параметром, поэтому текст запроса не зависит от их количества
+     *
+     * @return - id найденных и переведенных студентов
+     */
+    public List<Long> transferStudents(Long facultyId, List<Long> studentIds) {
+        return jdbcTemplate.query(TRANSFER_BY_IDS_SQL,
+                ps -> {
+                    ps.setLong(1, facultyId);
+                    ps.setArray(2, ps.getConnection().createArrayOf("bigint", studentIds.toArray()));
+                },
+                (rs, rowNum) -> rs.getLong(1));
+    }
+
+    /**
+     * Переводит всех студентов факультета {@code fromFacultyId} на факультет {@code facultyId} одним UPDATE
+     *
+     * @return - id переведенных студентов
+     */
+    public List<Long> transferAllStudents(Long fromFacultyId, Long facultyId) {
+        return jdbcTemplate.query(TRANSFER_ALL_SQL,
+                (rs, rowNum) -> rs.getLong(1),
+                facultyId, fromFacultyId);
+    }
+
+    /**
+     * Удаляет всех студентов факультета одним DELETE, затем одним DELETE их аватары вместе с большими объектами.
+     * Файлы аватаров на диске не трогает - их пути возвращаются, чтобы удалить файлы после коммита
+     */
+    public StudentDeletionResult deleteStudentsOfFaculty(Long facultyId) {
+        List<Long> deletedIds = new ArrayList<>();
+        Map<Integer, Long> deletedAges = new TreeMap<>();
+        List<Long> avatarIds = new ArrayList<>();
+        jdbcTemplate.query(DELETE_STUDENTS_SQL,
+                (RowCallbackHandler) rs -> {
+                    deletedIds.add(rs.getLong(1));
+                    deletedAges.merge(rs.getInt(2), 1L, Long::sum);
+                    long avatarId = rs.getLong(3);
+                    if (!rs.wasNull()) {
+                        avatarIds.add(avatarId);
+                    }
+                },
+                facultyId);
+
+        List<String> avatarFilePaths = avatarIds.isEmpty()
+                ? List.of()
+                : jdbcTemplate.query(DELETE_AVATARS_SQL,
+                        ps -> ps.setArray(1, ps.getConnection().createArrayOf("bigint", avatarIds.toArray())),
+                        (rs, rowNum) -> rs.getString(1));
+
+        return new StudentDeletionResult(
+                deletedIds,
+                deletedAges.entrySet().stream()
+                        .map(entry -> new AgeCount(entry.getKey(), entry.getValue()))
+                        .toList(),
+                avatarFilePaths.stream()
+                        .filter(Objects::nonNull)
+                        .toList());
+    }
+
+    private long copyIn(Connection connection, InputStream csv) {
+        try {
+            return connection.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_SQL, csv);
+        } catch (SQLException e) {
+            // Ошибки структуры файла (число колонок, кавычки) COPY не пропускает построчно, весь импорт откатывается
+            throw new InvalidRequestParameterException("Malformed CSV: " + e.getMessage());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read uploaded CSV", e);
+        }
+    }
+}
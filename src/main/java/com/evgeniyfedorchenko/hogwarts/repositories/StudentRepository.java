@@ -1,14 +1,40 @@
 package com.evgeniyfedorchenko.hogwarts.repositories;
 
 import com.evgeniyfedorchenko.hogwarts.entities.Student;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
 @Repository
-public interface StudentRepository extends JpaRepository<Student, Long> {
+public interface StudentRepository extends JpaRepository<Student, Long>, StudentRepositoryCustom {
+
+    /**
+     * Выбирает только колонки таблицы students и сразу строит {@link StudentRow}: без гидрации сущностей,
+     * подгрузки факультета со всеми его студентами и аватара. {@code s.faculty.id} и проверка {@code s.avatar}
+     * берутся из внешних ключей, join не нужен
+     */
+    String ROW_SELECT = "SELECT new com.evgeniyfedorchenko.hogwarts.repositories.StudentRow(" +
+                        "s.id, s.name, s.age, s.faculty.id, CASE WHEN s.avatar IS NOT NULL THEN true ELSE false END, " +
+                        "s.version, s.updatedAt) " +
+                        "FROM Student s ";
+
+    /**
+     * Студент с уже загруженным факультетом: {@link Student#toString()} используется в имени файла аватара
+     * и обращается к имени факультета, в том числе вне транзакции
+     */
+    @EntityGraph("Student.withFaculty")
+    Optional<Student> findWithFacultyById(Long id);
 
     List<Student> findByAge(int age);
 
@@ -16,16 +42,46 @@ public interface StudentRepository extends JpaRepository<Student, Long> {
 
     List<Student> findByFaculty_Id(Long id);
 
+    @Query(ROW_SELECT + "WHERE s.id = :id")
+    Optional<StudentRow> findRowById(@Param("id") Long id);
+
+    @Query(ROW_SELECT + "WHERE s.age = :age")
+    List<StudentRow> findRowsByAge(@Param("age") int age);
+
+    @Query(ROW_SELECT + "WHERE s.age BETWEEN :min AND :max")
+    List<StudentRow> findRowsByAgeBetween(@Param("min") int min, @Param("max") int max);
+
+    @Query(ROW_SELECT + "WHERE s.faculty.id = :facultyId")
+    List<StudentRow> findRowsByFacultyId(@Param("facultyId") Long facultyId);
+
+    /**
+     * Keyset-страница id студентов факультета: запрос покрывается индексом (faculty_id, id),
+     * не читает саму таблицу и стоит одинаково на любой странице
+     */
+    @Query("SELECT s.id FROM Student s WHERE s.faculty.id = :facultyId AND s.id > :afterId ORDER BY s.id")
+    List<Long> findIdsByFacultyIdAfter(@Param("facultyId") Long facultyId, @Param("afterId") long afterId, Limit limit);
+
+    long countByFaculty_Id(Long facultyId);
+
+    @Query("SELECT new com.evgeniyfedorchenko.hogwarts.repositories.FacultyStudentCount(s.faculty.id, count(s)) " +
+           "FROM Student s WHERE s.faculty.id IN :facultyIds GROUP BY s.faculty.id")
+    List<FacultyStudentCount> countByFacultyIdIn(@Param("facultyIds") Collection<Long> facultyIds);
+
     @Query(value = "SELECT AVG(age) FROM students", nativeQuery = true)
     Double getAverageAge();
 
-    @Query(value = "SELECT * FROM students ORDER BY :sortColumn ASC LIMIT :limit OFFSET :offset", nativeQuery = true)
-    List<Student> findLastStudentsAscSort(@Param("sortColumn") String sortParam,
-                                          @Param("limit") int limit,
-                                          @Param("offset") int offset);
+    @Query("SELECT new com.evgeniyfedorchenko.hogwarts.repositories.AgeCount(s.age, count(s)) " +
+           "FROM Student s GROUP BY s.age")
+    List<AgeCount> countGroupedByAge();
 
-    @Query(value = "SELECT * FROM students ORDER BY :sortColumn DESC LIMIT :limit OFFSET :offset", nativeQuery = true)
-    List<Student> findLastStudentsDescSort(@Param("sortColumn") String sortParam,
-                                           @Param("limit") int limit,
-                                           @Param("offset") int offset);
+    /**
+     * Читает студентов порциями через серверный курсор. Вызывать только внутри транзакции
+     * и обязательно закрывать полученный Stream
+     */
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query(ROW_SELECT + "ORDER BY s.id")
+    Stream<StudentRow> streamAllRows();
 }
@@ -0,0 +1,83 @@
+package com.evgeniyfedorchenko.hogwarts.repositories;
+
+import com.evgeniyfedorchenko.hogwarts.dto.StudentCursor;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Запросы, SQL которых собирается из белого списка колонок или использует возможности PostgreSQL,
+ * недоступные в {@code @Query}. Все они сразу возвращают проекции, минуя гидрацию сущностей
+ */
+public interface StudentRepositoryCustom {
+
+    List<StudentRow> findPage(StudentSort sort, int limit, long offset);
+
+    /**
+     * Студенты по списку id одним запросом {@code WHERE id = ANY(?)}: id передаются одним параметром-массивом,
+     * поэтому текст запроса и его план не зависят от количества id. Порядок строк не определен,
+     * ненайденных id в результате просто нет
+     */
+    List<StudentRow> findRowsByIds(Collection<Long> ids);
+
+    /**
+     * То же, что {@link #findPage}, но вместе с количеством всех студентов, посчитанным в том же запросе
+     */
+    CountedRows findCountedPage(StudentSort sort, int limit, long offset);
+
+    /**
+     * Keyset-пагинация: вместо OFFSET ищет строки строго после позиции курсора
+     * по предикату {@code (col, id) > (?, ?)}, который обслуживается составным индексом.
+     * Для сортировки с разными направлениями колонок предикат раскрывается через OR
+     */
+    List<StudentRow> findPageAfter(StudentCursor cursor, int limit);
+
+    /**
+     * То же, что {@link #findPage}, но только по студентам одного факультета
+     */
+    List<StudentRow> findPageOfFaculty(Long facultyId, StudentSort sort, int limit, long offset);
+
+    /**
+     * То же, что {@link #findPageAfter}, но только по студентам одного факультета
+     */
+    List<StudentRow> findPageOfFacultyAfter(Long facultyId, StudentCursor cursor, int limit);
+
+    /**
+     * Читает студентов факультета в порядке сортировки порциями через серверный курсор.
+     * Вызывать только внутри транзакции и обязательно закрывать полученный Stream
+     */
+    Stream<StudentRow> streamRowsOfFaculty(Long facultyId, StudentSort sort);
+
+    /**
+     * Комбинированный поиск: все условия фильтра, сортировка и страница - в одном SQL-запросе.
+     * Запрос собирается через Criteria API только из заданных условий, поэтому при фильтре по факультету
+     * и сортировке по имени или возрасту работают индексы (faculty_id, name, id) и (faculty_id, age, id)
+     */
+    List<StudentRow> findPageByFilter(StudentFilter filter, StudentSort sort, int limit, long offset);
+
+    /**
+     * То же, что {@link #findPageByFilter}, но keyset-страница после позиции курсора
+     */
+    List<StudentRow> findPageByFilterAfter(StudentFilter filter, StudentCursor cursor, int limit);
+
+    /**
+     * Количество студентов, подходящих под фильтр, с теми же условиями, что и в {@link #findPageByFilter}
+     */
+    long countByFilter(StudentFilter filter);
+
+    /**
+     * Нечеткий поиск по части имени с опечатками, самые похожие первыми. Студенты читаются из GiST-индекса
+     * student_name_trgm_gist_idx сразу по убыванию похожести, поэтому страница не требует сортировки всех совпадений
+     *
+     * @param pattern - запрос с экранированными спецсимволами LIKE
+     */
+    List<StudentRow> findByNameSimilarity(String query, String pattern, int limit, long offset);
+
+    /**
+     * Количество, средний, минимальный, максимальный возраст и перцентили возраста по каждому факультету,
+     * по каждому цвету и по всем студентам сразу - за один проход по таблице.
+     * Факультеты без студентов тоже попадают в выборку, с нулевым количеством
+     */
+    List<AgeStatsRow> findAgeStats();
+}
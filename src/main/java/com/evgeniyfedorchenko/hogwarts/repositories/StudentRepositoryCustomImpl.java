@@ -0,0 +1,341 @@
+package com.evgeniyfedorchenko.hogwarts.repositories;
+
+import com.evgeniyfedorchenko.hogwarts.controllers.SortOrder;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentCursor;
+import com.evgeniyfedorchenko.hogwarts.entities.Color;
+import com.evgeniyfedorchenko.hogwarts.entities.Faculty;
+import com.evgeniyfedorchenko.hogwarts.entities.Student;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Query;
+import jakarta.persistence.TypedQuery;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Expression;
+import jakarta.persistence.criteria.Join;
+import jakarta.persistence.criteria.Order;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import jakarta.persistence.criteria.Selection;
+import org.hibernate.Session;
+import org.hibernate.jpa.HibernateHints;
+import org.hibernate.query.criteria.HibernateCriteriaBuilder;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class StudentRepositoryCustomImpl implements StudentRepositoryCustom {
+
+    private static final String ROWS_BY_IDS_SQL =
+            "SELECT %s FROM students s WHERE s.id = ANY(:ids)".formatted(StudentSortQueries.ROW_COLUMNS);
+
+    /* s.name <->> :query - это 1 - word_similarity(:query, s.name), записанное так, чтобы GiST-индекс
+       отдавал строки сразу в этом порядке (KNN) и LIMIT останавливал чтение, без сортировки всех совпадений */
+    private static final String NAME_SIMILARITY_SQL = """
+            SELECT %s FROM students s
+            WHERE s.name ILIKE '%%' || :pattern || '%%' OR :query <%% s.name
+            ORDER BY s.name <->> :query, s.id
+            LIMIT :limit OFFSET :offset""".formatted(StudentSortQueries.ROW_COLUMNS);
+
+    /* GROUPING(f.id, f.color) - битовая маска свернутых колонок: 0 - строка факультета, 2 - цвета, 3 - итог */
+    private static final String AGE_STATS_SQL = """
+            SELECT GROUPING(f.id, f.color), f.id, f.name, f.color,
+                   count(s.id), avg(s.age), min(s.age), max(s.age),
+                   percentile_cont(0.5) WITHIN GROUP (ORDER BY s.age),
+                   percentile_cont(0.9) WITHIN GROUP (ORDER BY s.age)
+            FROM faculties f LEFT JOIN students s ON s.faculty_id = f.id
+            GROUP BY GROUPING SETS ((f.id, f.name, f.color), (f.color), ())
+            ORDER BY GROUPING(f.id, f.color), f.color, f.id""";
+
+    private static final int STREAM_FETCH_SIZE = 1000;
+
+    private final StudentSortQueries sortQueries = new StudentSortQueries();
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<StudentRow> findPage(StudentSort sort, int limit, long offset) {
+        Query query = entityManager.createNativeQuery(sortQueries.get(sort).pageSql())
+                .setParameter("limit", limit)
+                .setParameter("offset", offset);
+        return getRows(query);
+    }
+
+    @Override
+    public List<StudentRow> findRowsByIds(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        Query query = entityManager.createNativeQuery(ROWS_BY_IDS_SQL)
+                .setParameter("ids", ids.toArray(Long[]::new));
+        return getRows(query);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public CountedRows findCountedPage(StudentSort sort, int limit, long offset) {
+        List<Object[]> rows = entityManager.createNativeQuery(sortQueries.get(sort).countedPageSql())
+                .setParameter("limit", limit)
+                .setParameter("offset", offset)
+                .getResultList();
+        if (rows.isEmpty()) {
+//            Страница за концом выборки: окну не на чем посчитаться
+            long total = offset == 0 ? 0 : ((Number) entityManager.createNativeQuery("SELECT count(*) FROM students")
+                    .getSingleResult()).longValue();
+            return new CountedRows(List.of(), total);
+        }
+        long total = ((Number) rows.get(0)[rows.get(0).length - 1]).longValue();
+        List<StudentRow> students = rows.stream()
+                .map(row -> toStudentRow(Arrays.copyOf(row, row.length - 1)))
+                .toList();
+        return new CountedRows(students, total);
+    }
+
+    @Override
+    public List<StudentRow> findPageAfter(StudentCursor cursor, int limit) {
+        Query query = entityManager.createNativeQuery(sortQueries.get(cursor.sort()).seekSql())
+                .setParameter("limit", limit);
+        return getRows(setCursorValues(query, cursor));
+    }
+
+    @Override
+    public List<StudentRow> findPageOfFaculty(Long facultyId, StudentSort sort, int limit, long offset) {
+        Query query = entityManager.createNativeQuery(sortQueries.getForFaculty(sort).pageSql())
+                .setParameter("facultyId", facultyId)
+                .setParameter("limit", limit)
+                .setParameter("offset", offset);
+        return getRows(query);
+    }
+
+    @Override
+    public List<StudentRow> findPageOfFacultyAfter(Long facultyId, StudentCursor cursor, int limit) {
+        Query query = entityManager.createNativeQuery(sortQueries.getForFaculty(cursor.sort()).seekSql())
+                .setParameter("facultyId", facultyId)
+                .setParameter("limit", limit);
+        return getRows(setCursorValues(query, cursor));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Stream<StudentRow> streamRowsOfFaculty(Long facultyId, StudentSort sort) {
+        Stream<Object[]> rows = entityManager.createNativeQuery(sortQueries.getForFaculty(sort).streamSql())
+                .setParameter("facultyId", facultyId)
+                .setHint(HibernateHints.HINT_FETCH_SIZE, STREAM_FETCH_SIZE)
+                .setHint(HibernateHints.HINT_READ_ONLY, true)
+                .getResultStream();
+        return rows.map(this::toStudentRow);
+    }
+
+    @Override
+    public List<StudentRow> findPageByFilter(StudentFilter filter, StudentSort sort, int limit, long offset) {
+//        До такого смещения не дойти: в таблице нет столько строк
+        if (offset > Integer.MAX_VALUE) {
+            return List.of();
+        }
+        return filterQuery(filter, sort, null)
+                .setFirstResult((int) offset)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    @Override
+    public List<StudentRow> findPageByFilterAfter(StudentFilter filter, StudentCursor cursor, int limit) {
+        return filterQuery(filter, cursor.sort(), cursor)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    @Override
+    public long countByFilter(StudentFilter filter) {
+        HibernateCriteriaBuilder cb = entityManager.unwrap(Session.class).getCriteriaBuilder();
+        CriteriaQuery<Long> query = cb.createQuery(Long.class);
+        Root<Student> s = query.from(Student.class);
+        Join<Student, Faculty> f = filter.requiresFacultyJoin() ? s.join("faculty") : null;
+
+        query.select(cb.count(s))
+                .where(filterPredicates(cb, s, f, filter).toArray(Predicate[]::new));
+        return entityManager.createQuery(query).getSingleResult();
+    }
+
+    @Override
+    public List<StudentRow> findByNameSimilarity(String query, String pattern, int limit, long offset) {
+        Query nativeQuery = entityManager.createNativeQuery(NAME_SIMILARITY_SQL)
+                .setParameter("query", query)
+                .setParameter("pattern", pattern)
+                .setParameter("limit", limit)
+                .setParameter("offset", offset);
+        return getRows(nativeQuery);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<AgeStatsRow> findAgeStats() {
+        List<Object[]> rows = entityManager.createNativeQuery(AGE_STATS_SQL).getResultList();
+        return rows.stream()
+                .map(this::toAgeStatsRow)
+                .toList();
+    }
+
+    /* Те же колонки, что и в StudentRepository.ROW_SELECT: s.faculty.id и проверка s.avatar берутся из внешних ключей.
+       Факультет присоединяется, только если по нему фильтруют по цвету или сортируют по имени */
+    private TypedQuery<StudentRow> filterQuery(StudentFilter filter, StudentSort sort, StudentCursor cursor) {
+        HibernateCriteriaBuilder cb = entityManager.unwrap(Session.class).getCriteriaBuilder();
+        CriteriaQuery<StudentRow> query = cb.createQuery(StudentRow.class);
+        Root<Student> s = query.from(Student.class);
+        Join<Student, Faculty> f = filter.requiresFacultyJoin() || sort.requiresFacultyJoin()
+                ? s.join("faculty")
+                : null;
+
+        List<Selection<?>> columns = new ArrayList<>(List.of(
+                s.get("id"), s.get("name"), s.get("age"), s.get("faculty").get("id"),
+                cb.<Boolean>selectCase().when(cb.isNotNull(s.get("avatar")), true).otherwise(false),
+                s.get("version"), s.get("updatedAt")));
+        if (sort.requiresFacultyJoin()) {
+            columns.add(f.get("name"));
+        }
+        query.select(cb.construct(StudentRow.class, columns.toArray(Selection<?>[]::new)));
+
+        List<Predicate> predicates = filterPredicates(cb, s, f, filter);
+
+        List<Expression<?>> keys = sort.orders().stream()
+                .<Expression<?>>map(order -> switch (order.column()) {
+                    case ID -> s.get("id");
+                    case NAME -> s.get("name");
+                    case AGE -> s.get("age");
+                    case FACULTY_NAME -> f.get("name");
+                })
+                .toList();
+        if (cursor != null) {
+            predicates.add(seekPredicate(cb, keys, cursor));
+        }
+        query.where(predicates.toArray(Predicate[]::new));
+
+        List<Order> orderBy = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            orderBy.add(sort.orders().get(i).direction() == SortOrder.ASC ? cb.asc(keys.get(i)) : cb.desc(keys.get(i)));
+        }
+        query.orderBy(orderBy);
+
+        return entityManager.createQuery(query);
+    }
+
+    private List<Predicate> filterPredicates(HibernateCriteriaBuilder cb, Root<Student> s, Join<Student, Faculty> f,
+                                             StudentFilter filter) {
+        List<Predicate> predicates = new ArrayList<>();
+        if (filter.minAge() != null) {
+            predicates.add(cb.greaterThanOrEqualTo(s.<Integer>get("age"), filter.minAge()));
+        }
+        if (filter.maxAge() != null) {
+            predicates.add(cb.lessThanOrEqualTo(s.<Integer>get("age"), filter.maxAge()));
+        }
+        if (filter.facultyId() != null) {
+            predicates.add(cb.equal(s.get("faculty").get("id"), filter.facultyId()));
+        }
+        if (filter.facultyColor() != null) {
+            predicates.add(cb.equal(f.get("color"), filter.facultyColor()));
+        }
+        if (filter.namePrefix() != null) {
+            String pattern = filter.namePrefix()
+                    .replace("\\", "\\\\")
+                    .replace("%", "\\%")
+                    .replace("_", "\\_");
+            predicates.add(cb.ilike(s.<String>get("name"), pattern + "%", '\\'));
+        }
+        if (filter.hasAvatar() != null) {
+            predicates.add(filter.hasAvatar() ? cb.isNotNull(s.get("avatar")) : cb.isNull(s.get("avatar")));
+        }
+        return predicates;
+    }
+
+    /* Как и в StudentSortQueries: (a > :k0) OR (a = :k0 AND b > :k1) OR ..., с учетом направления каждого ключа.
+       Дополнительная граница на первый ключ (a >= :k0) ничего не меняет в результате,
+       но в отличие от OR становится условием доступа к индексу */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Predicate seekPredicate(HibernateCriteriaBuilder cb, List<Expression<?>> keys, StudentCursor cursor) {
+        List<StudentSort.Order> orders = cursor.sort().orders();
+        List<Object> values = cursor.values();
+
+        List<Predicate> alternatives = new ArrayList<>();
+        for (int i = 0; i < orders.size(); i++) {
+            List<Predicate> conjunction = new ArrayList<>();
+            for (int j = 0; j < i; j++) {
+                conjunction.add(cb.equal(keys.get(j), values.get(j)));
+            }
+            Expression key = keys.get(i);
+            Comparable value = (Comparable) values.get(i);
+            conjunction.add(orders.get(i).direction() == SortOrder.ASC ? cb.greaterThan(key, value) : cb.lessThan(key, value));
+            alternatives.add(cb.and(conjunction.toArray(Predicate[]::new)));
+        }
+
+        Expression first = keys.get(0);
+        Comparable firstValue = (Comparable) values.get(0);
+        Predicate bound = orders.get(0).direction() == SortOrder.ASC
+                ? cb.greaterThanOrEqualTo(first, firstValue)
+                : cb.lessThanOrEqualTo(first, firstValue);
+        return cb.and(bound, cb.or(alternatives.toArray(Predicate[]::new)));
+    }
+
+    private Query setCursorValues(Query query, StudentCursor cursor) {
+        List<Object> values = cursor.values();
+        for (int i = 0; i < values.size(); i++) {
+            query.setParameter("k" + i, values.get(i));
+        }
+        return query;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<StudentRow> getRows(Query query) {
+        List<Object[]> rows = query.getResultList();
+        return rows.stream()
+                .map(this::toStudentRow)
+                .toList();
+    }
+
+    private StudentRow toStudentRow(Object[] row) {
+        return new StudentRow(
+                ((Number) row[0]).longValue(),
+                (String) row[1],
+                ((Number) row[2]).intValue(),
+                ((Number) row[3]).longValue(),
+                (Boolean) row[4],
+                ((Number) row[5]).longValue(),
+                toInstant(row[6]),
+                row.length > 7 ? (String) row[7] : null);
+    }
+
+    // Тип значения timestamptz в нативном запросе зависит от настроек Hibernate и драйвера
+    private Instant toInstant(Object value) {
+        return switch (value) {
+            case null -> null;
+            case Instant instant -> instant;
+            case OffsetDateTime offsetDateTime -> offsetDateTime.toInstant();
+            case Timestamp timestamp -> timestamp.toInstant();
+            default -> throw new IllegalStateException("Unexpected timestamp type " + value.getClass());
+        };
+    }
+
+    private AgeStatsRow toAgeStatsRow(Object[] row) {
+        AgeStatsRow.Level level = switch (((Number) row[0]).intValue()) {
+            case 0 -> AgeStatsRow.Level.FACULTY;
+            case 2 -> AgeStatsRow.Level.COLOR;
+            default -> AgeStatsRow.Level.TOTAL;
+        };
+        return new AgeStatsRow(
+                level,
+                row[1] == null ? null : ((Number) row[1]).longValue(),
+                (String) row[2],
+                row[3] == null ? null : Color.values()[((Number) row[3]).intValue()],
+                ((Number) row[4]).longValue(),
+                row[5] == null ? null : ((Number) row[5]).doubleValue(),
+                row[6] == null ? null : ((Number) row[6]).intValue(),
+                row[7] == null ? null : ((Number) row[7]).intValue(),
+                row[8] == null ? null : ((Number) row[8]).doubleValue(),
+                row[9] == null ? null : ((Number) row[9]).doubleValue());
+    }
+}
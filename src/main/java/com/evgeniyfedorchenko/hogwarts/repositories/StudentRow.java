@@ -0,0 +1,22 @@
+package com.evgeniyfedorchenko.hogwarts.repositories;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.time.Instant;
+
+/**
+ * Плоская проекция студента: только колонки таблицы students, без загрузки факультета и аватара.
+ * Этого достаточно для построения {@link com.evgeniyfedorchenko.hogwarts.dto.StudentOutputDto}
+ *
+ * @param version     - версия строки для ETag, в выгрузку не попадает
+ * @param facultyName - заполняется, только если выборка сортируется по имени факультета: нужно для курсора
+ */
+public record StudentRow(Long id, String name, int age, Long facultyId, boolean hasAvatar,
+                         @JsonIgnore long version, @JsonIgnore Instant updatedAt,
+                         @JsonIgnore String facultyName) {
+
+    public StudentRow(Long id, String name, int age, Long facultyId, boolean hasAvatar,
+                      long version, Instant updatedAt) {
+        this(id, name, age, facultyId, hasAvatar, version, updatedAt, null);
+    }
+}
@@ -0,0 +1,110 @@
+package com.evgeniyfedorchenko.hogwarts.repositories;
+
+import com.evgeniyfedorchenko.hogwarts.controllers.SortOrder;
+import com.evgeniyfedorchenko.hogwarts.exceptions.InvalidRequestParameterException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Сортировка выборки студентов по нескольким колонкам из белого списка {@link StudentSortColumn}.
+ * Последним ключом всегда идет id - так порядок строк однозначен и по нему можно строить курсор
+ */
+public record StudentSort(List<Order> orders) {
+
+    public static final int MAX_COLUMNS = 3;
+
+    public record Order(StudentSortColumn column, SortOrder direction) {
+
+        @Override
+        public String toString() {
+            return column.getParam() + ":" + direction;
+        }
+    }
+
+    public StudentSort {
+        orders = List.copyOf(orders);
+    }
+
+    public static StudentSort of(StudentSortColumn column, SortOrder direction) {
+        return withIdTiebreaker(List.of(new Order(column, direction)));
+    }
+
+    /**
+     * Разбирает параметр вида {@code "facultyName,age:desc"}. Направление по умолчанию - ASC
+     */
+    public static StudentSort parse(String sort) {
+        return withIdTiebreaker(parseOrders(sort, MAX_COLUMNS));
+    }
+
+    /**
+     * Разбирает сортировку, сохраненную в курсоре через {@link #toString()}: там к {@link #MAX_COLUMNS}
+     * колонкам клиента уже добавлен id, поэтому допускается на одну колонку больше, но только если последняя - id
+     */
+    public static StudentSort parseWithTiebreaker(String sort) {
+        List<Order> orders = parseOrders(sort, MAX_COLUMNS + 1);
+        if (orders.size() > MAX_COLUMNS && orders.getLast().column() != StudentSortColumn.ID) {
+            throw new InvalidRequestParameterException("From 1 to %d sort columns are allowed, but got '%s'".formatted(MAX_COLUMNS, sort));
+        }
+        return withIdTiebreaker(orders);
+    }
+
+    private static List<Order> parseOrders(String sort, int maxColumns) {
+        List<Order> orders = Arrays.stream(sort.split(","))
+                .map(String::trim)
+                .filter(part -> !part.isEmpty())
+                .map(StudentSort::parseOrder)
+                .toList();
+
+        if (orders.isEmpty() || orders.size() > maxColumns) {
+            throw new InvalidRequestParameterException("From 1 to %d sort columns are allowed, but got '%s'".formatted(MAX_COLUMNS, sort));
+        }
+        if (orders.stream().map(Order::column).distinct().count() != orders.size()) {
+            throw new InvalidRequestParameterException("Sort columns must not repeat: '" + sort + "'");
+        }
+        return orders;
+    }
+
+    private static Order parseOrder(String part) {
+        String[] columnAndDirection = part.split(":", 2);
+        StudentSortColumn column = StudentSortColumn.fromParam(columnAndDirection[0]);
+        if (columnAndDirection.length == 1) {
+            return new Order(column, SortOrder.ASC);
+        }
+        try {
+            return new Order(column, SortOrder.valueOf(columnAndDirection[1].toUpperCase()));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidRequestParameterException("Unknown sort direction '" + columnAndDirection[1] + "'");
+        }
+    }
+
+    /* id уникален, поэтому колонки после него ничего не меняют и отбрасываются.
+       Если id не указан, он добавляется в конец с направлением последней колонки:
+       при одинаковом направлении всех ключей курсор обходится сравнением кортежей */
+    private static StudentSort withIdTiebreaker(List<Order> orders) {
+        List<Order> result = new ArrayList<>();
+        for (Order order : orders) {
+            result.add(order);
+            if (order.column() == StudentSortColumn.ID) {
+                return new StudentSort(result);
+            }
+        }
+        result.add(new Order(StudentSortColumn.ID, orders.get(orders.size() - 1).direction()));
+        return new StudentSort(result);
+    }
+
+    public boolean isUniformDirection() {
+        return orders.stream().map(Order::direction).distinct().count() == 1;
+    }
+
+    public boolean requiresFacultyJoin() {
+        return orders.stream().anyMatch(order -> order.column().requiresFacultyJoin());
+    }
+
+    @Override
+    public String toString() {
+        return orders.stream().map(Order::toString).collect(Collectors.joining(","));
+    }
+}
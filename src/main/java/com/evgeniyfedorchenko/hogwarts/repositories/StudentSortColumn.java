@@ -0,0 +1,67 @@
+package com.evgeniyfedorchenko.hogwarts.repositories;
+
+import com.evgeniyfedorchenko.hogwarts.exceptions.InvalidRequestParameterException;
+
+import java.util.Arrays;
+
+/**
+ * Белый список колонок, по которым разрешена сортировка студентов.
+ * Выражение колонки подставляется в SQL как есть, поэтому принимать его напрямую от клиента нельзя
+ */
+public enum StudentSortColumn {
+
+    ID("id", "s.id"),
+    NAME("name", "s.name"),
+    AGE("age", "s.age"),
+    FACULTY_NAME("facultyName", "f.name");
+
+    private final String param;
+    private final String expression;
+
+    StudentSortColumn(String param, String expression) {
+        this.param = param;
+        this.expression = expression;
+    }
+
+    public String getParam() {
+        return param;
+    }
+
+    /**
+     * @return - выражение для SQL-запроса. Таблица students имеет алиас {@code s}, faculties - {@code f}
+     */
+    public String getExpression() {
+        return expression;
+    }
+
+    public boolean requiresFacultyJoin() {
+        return this == FACULTY_NAME;
+    }
+
+    /**
+     * Приводит строковое значение ключа сортировки из курсора к типу колонки
+     */
+    public Object parseValue(String value) {
+        return switch (this) {
+            case ID -> Long.valueOf(value);
+            case NAME, FACULTY_NAME -> value;
+            case AGE -> Integer.valueOf(value);
+        };
+    }
+
+    public Object extractValue(StudentRow row) {
+        return switch (this) {
+            case ID -> row.id();
+            case NAME -> row.name();
+            case AGE -> row.age();
+            case FACULTY_NAME -> row.facultyName();
+        };
+    }
+
+    public static StudentSortColumn fromParam(String sortParam) {
+        return Arrays.stream(values())
+                .filter(sortColumn -> sortColumn.param.equalsIgnoreCase(sortParam))
+                .findFirst()
+                .orElseThrow(() -> new InvalidRequestParameterException("Sorting by '" + sortParam + "' is not supported"));
+    }
+}
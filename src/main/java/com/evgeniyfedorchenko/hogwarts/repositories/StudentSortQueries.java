@@ -0,0 +1,115 @@
+package com.evgeniyfedorchenko.hogwarts.repositories;
+
+import com.evgeniyfedorchenko.hogwarts.controllers.SortOrder;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Собирает SQL для каждой комбинации сортировки один раз и хранит его.
+ * Комбинаций конечное число (их ограничивает белый список колонок), а одинаковый текст запроса
+ * позволяет драйверу переиспользовать подготовленный на сервере план.
+ * Параметры ключей курсора называются {@code k0, k1, ...} в порядке ключей сортировки,
+ * а выборка по одному факультету получает параметр {@code facultyId}
+ */
+class StudentSortQueries {
+
+    /**
+     * Колонки {@link StudentRow} в порядке его компонентов
+     */
+    static final String ROW_COLUMNS = "s.id, s.name, s.age, s.faculty_id, s.avatar_id IS NOT NULL, s.version, s.updated_at";
+
+    /**
+     * @param countedPageSql - как pageSql, но последней колонкой идет {@code count(*) OVER ()}: размер всей выборки.
+     *                       Окно считается до LIMIT, поэтому отдельный запрос count(*) не нужен
+     * @param streamSql      - вся выборка в порядке сортировки, без LIMIT: для построчной выгрузки
+     */
+    record Compiled(String pageSql, String countedPageSql, String seekSql, String streamSql) {
+    }
+
+    private record Key(StudentSort sort, boolean byFaculty) {
+    }
+
+    private final Map<Key, Compiled> cache = new ConcurrentHashMap<>();
+
+    Compiled get(StudentSort sort) {
+        return cache.computeIfAbsent(new Key(sort, false), StudentSortQueries::compile);
+    }
+
+    /**
+     * Запросы по составу одного факультета. Условие на faculty_id идет первым ключом индексов
+     * (faculty_id, id), (faculty_id, name, id) и (faculty_id, age, id), поэтому страница читается из индекса без сортировки
+     */
+    Compiled getForFaculty(StudentSort sort) {
+        return cache.computeIfAbsent(new Key(sort, true), StudentSortQueries::compile);
+    }
+
+    private static Compiled compile(Key key) {
+        StudentSort sort = key.sort();
+        String from = sort.requiresFacultyJoin()
+                ? "students s JOIN faculties f ON f.id = s.faculty_id"
+                : "students s";
+        String orderBy = sort.orders().stream()
+                .map(order -> order.column().getExpression() + " " + order.direction())
+                .collect(Collectors.joining(", "));
+
+        String select = sort.requiresFacultyJoin()
+                ? ROW_COLUMNS + ", f.name"
+                : ROW_COLUMNS;
+
+        String filter = key.byFaculty() ? "WHERE s.faculty_id = :facultyId " : "";
+        String seekFilter = key.byFaculty() ? "s.faculty_id = :facultyId AND " : "";
+
+        String pageSql = "SELECT %s FROM %s %sORDER BY %s LIMIT :limit OFFSET :offset"
+                .formatted(select, from, filter, orderBy);
+        String countedPageSql = "SELECT %s, count(*) OVER () FROM %s %sORDER BY %s LIMIT :limit OFFSET :offset"
+                .formatted(select, from, filter, orderBy);
+        String seekSql = "SELECT %s FROM %s WHERE %s%s ORDER BY %s LIMIT :limit"
+                .formatted(select, from, seekFilter, seekPredicate(sort), orderBy);
+        String streamSql = "SELECT %s FROM %s %sORDER BY %s"
+                .formatted(select, from, filter, orderBy);
+        return new Compiled(pageSql, countedPageSql, seekSql, streamSql);
+    }
+
+    /* При одном направлении у всех ключей - сравнение кортежей (a, b, id) > (:k0, :k1, :k2),
+       которое PostgreSQL превращает в условие доступа по составному индексу.
+       При смешанных направлениях кортеж не применим, и условие раскрывается вручную:
+       (a > :k0) OR (a = :k0 AND b < :k1) OR (a = :k0 AND b = :k1 AND id > :k2).
+       OR сам по себе не дает условия доступа по индексу, поэтому к нему добавляется граница первого ключа
+       a >= :k0 (a <= :k0 для DESC) - как и в Criteria-версии StudentRepositoryCustomImpl.seekPredicate */
+    private static String seekPredicate(StudentSort sort) {
+        List<StudentSort.Order> orders = sort.orders();
+
+        if (sort.isUniformDirection()) {
+            String columns = orders.stream()
+                    .map(order -> order.column().getExpression())
+                    .collect(Collectors.joining(", "));
+            String params = IntStream.range(0, orders.size())
+                    .mapToObj(i -> ":k" + i)
+                    .collect(Collectors.joining(", "));
+            return "(%s) %s (%s)".formatted(columns, operator(orders.get(0).direction()), params);
+        }
+
+        return IntStream.range(0, orders.size())
+                .mapToObj(i -> {
+                    String equalPrefix = IntStream.range(0, i)
+                            .mapToObj(j -> orders.get(j).column().getExpression() + " = :k" + j)
+                            .collect(Collectors.joining(" AND "));
+                    StudentSort.Order order = orders.get(i);
+                    String comparison = "%s %s :k%d".formatted(order.column().getExpression(), operator(order.direction()), i);
+                    return "(" + (equalPrefix.isEmpty() ? comparison : equalPrefix + " AND " + comparison) + ")";
+                })
+                .collect(Collectors.joining(" OR ", leadingKeyBound(orders.get(0)) + " AND (", ")"));
+    }
+
+    private static String leadingKeyBound(StudentSort.Order first) {
+        return "%s %s :k0".formatted(first.column().getExpression(), first.direction() == SortOrder.ASC ? ">=" : "<=");
+    }
+
+    private static String operator(SortOrder direction) {
+        return direction == SortOrder.ASC ? ">" : "<";
+    }
+}
@@ -0,0 +1,58 @@
+package com.evgeniyfedorchenko.hogwarts.services;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Удаляет файлы аватаров с диска в фоновом потоке, чтобы массовое удаление студентов
+ * не ждало файловую систему. Файлы удаляются только после коммита транзакции, удалившей записи из БД:
+ * при откате аватары остаются на месте вместе со своими файлами
+ */
+@Component
+public class AvatarFileCleaner {
+
+    private final Logger logger = LoggerFactory.getLogger(AvatarFileCleaner.class);
+
+    // Один поток: удаление файлов упирается в диск, и параллельность его не ускорит
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("avatar-cleaner").daemon().factory());
+
+    public void deleteAfterCommit(List<String> filePaths) {
+        if (!filePaths.isEmpty()) {
+            TransactionCallbacks.afterCommit(() -> executor.execute(() -> deleteFiles(filePaths)));
+        }
+    }
+
+    private void deleteFiles(List<String> filePaths) {
+        int deleted = 0;
+        for (String filePath : filePaths) {
+            try {
+                if (Files.deleteIfExists(Path.of(filePath))) {
+                    deleted++;
+                }
+            } catch (IOException | RuntimeException e) {
+                // Оставшийся файл ни на что не влияет, поэтому остальные удаляем дальше
+                logger.warn("Failed to delete avatar file {}", filePath, e);
+            }
+        }
+        logger.info("{} of {} avatar files deleted from Local", deleted, filePaths.size());
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+            logger.warn("Avatar files cleanup did not finish before shutdown");
+        }
+    }
+}
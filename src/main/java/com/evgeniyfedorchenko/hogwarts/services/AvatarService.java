@@ -1,12 +1,12 @@
 package com.evgeniyfedorchenko.hogwarts.services;
 
+import com.evgeniyfedorchenko.hogwarts.controllers.TotalCountMode;
 import com.evgeniyfedorchenko.hogwarts.entities.Avatar;
-import com.evgeniyfedorchenko.hogwarts.dto.AvatarDto;
+import com.evgeniyfedorchenko.hogwarts.dto.AvatarsPage;
 import com.evgeniyfedorchenko.hogwarts.entities.Student;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
-import java.util.List;
 import java.util.Optional;
 
 public interface AvatarService {
@@ -19,7 +19,10 @@ public interface AvatarService {
 
     Optional<Avatar> getFromLocal(Long avatarId) throws IOException;
 
-    List<AvatarDto> getAllAvatars(int pageNumber, int pageSize);
+    /**
+     * @param countMode - при {@link TotalCountMode#NONE} запрос count(*) не выполняется
+     */
+    AvatarsPage getAllAvatars(int pageNumber, int pageSize, TotalCountMode countMode);
 
     void deleteAvatar(Student student);
 }
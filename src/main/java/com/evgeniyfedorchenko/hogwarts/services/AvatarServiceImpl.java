@@ -1,16 +1,21 @@
 package com.evgeniyfedorchenko.hogwarts.services;
 
+import com.evgeniyfedorchenko.hogwarts.controllers.TotalCountMode;
 import com.evgeniyfedorchenko.hogwarts.dto.AvatarDto;
+import com.evgeniyfedorchenko.hogwarts.dto.AvatarsPage;
 import com.evgeniyfedorchenko.hogwarts.entities.Avatar;
 import com.evgeniyfedorchenko.hogwarts.entities.Student;
 import com.evgeniyfedorchenko.hogwarts.exceptions.AvatarProcessingException;
 import com.evgeniyfedorchenko.hogwarts.mappers.AvatarMapper;
 import com.evgeniyfedorchenko.hogwarts.repositories.AvatarRepository;
+import com.evgeniyfedorchenko.hogwarts.repositories.CountedAvatarRows;
 import com.evgeniyfedorchenko.hogwarts.repositories.StudentRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.StringUtils;
@@ -158,13 +163,30 @@ public class AvatarServiceImpl implements AvatarService {
     }
 
     @Override
-    public List<AvatarDto> getAllAvatars(int pageNumber, int pageSize) {
-        List<AvatarDto> avatarDtos = avatarRepository.findAll(PageRequest.of(pageNumber - 1, pageSize))
-                .get()
+    public AvatarsPage getAllAvatars(int pageNumber, int pageSize, TotalCountMode countMode) {
+        /* Точное количество считается окном в том же запросе, что и страница (как у студентов), а не вторым
+           запросом count(*), который выполнил бы Page. В остальных случаях хватает Slice без подсчета */
+        if (countMode == TotalCountMode.EXACT) {
+            CountedAvatarRows countedRows = avatarRepository.findCountedPage(pageSize, (long) (pageNumber - 1) * pageSize);
+            List<AvatarDto> avatarDtos = countedRows.rows().stream()
+                    .map(avatarMapper::toDto)
+                    .toList();
+            logger.info("Entries from the avatar repo successfully received from DB with pagination");
+            return new AvatarsPage(avatarDtos, countedRows.totalCount());
+        }
+
+        Long totalCount = null;
+        if (countMode == TotalCountMode.ESTIMATED) {
+            long estimate = avatarRepository.estimateCount();
+            totalCount = estimate >= 0 ? estimate : avatarRepository.count();
+        }
+        Slice<Avatar> avatars = avatarRepository.findAllBy(PageRequest.of(pageNumber - 1, pageSize, Sort.by("id")));
+
+        List<AvatarDto> avatarDtos = avatars.stream()
                 .map(avatarMapper::toDto)
                 .toList();
         logger.info("Entries from the avatar repo successfully received from DB with pagination");
-        return avatarDtos;
+        return new AvatarsPage(avatarDtos, totalCount);
     }
 
     public void deleteAvatar(Student student) {
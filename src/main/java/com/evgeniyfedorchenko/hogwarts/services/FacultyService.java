@@ -1,25 +1,89 @@
 package com.evgeniyfedorchenko.hogwarts.services;
 
+import com.evgeniyfedorchenko.hogwarts.dto.BatchItemResultDto;
 import com.evgeniyfedorchenko.hogwarts.dto.FacultyInputDto;
 import com.evgeniyfedorchenko.hogwarts.dto.FacultyOutputDto;
-import com.evgeniyfedorchenko.hogwarts.dto.StudentOutputDto;
+import com.evgeniyfedorchenko.hogwarts.dto.MultiGetResult;
+import com.evgeniyfedorchenko.hogwarts.dto.SparseFieldset;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentIdsPage;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentTransferDto;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentTransferResultDto;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentsPage;
 import com.evgeniyfedorchenko.hogwarts.entities.Color;
 import com.evgeniyfedorchenko.hogwarts.entities.Faculty;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentSort;
+import com.fasterxml.jackson.databind.JsonNode;
 
 import java.util.List;
 import java.util.Optional;
 
 public interface FacultyService {
 
+    int MAX_BATCH_SIZE = 10_000;
+    int MAX_MULTI_GET_IDS = 1_000;
+
     FacultyOutputDto createFaculty(FacultyInputDto facultyInputDto);
 
-    Optional<FacultyOutputDto> findFaculty(Long id);
+    /**
+     * Сохраняет факультеты одной транзакцией пакетными INSERT. Занятые имена проверяются одним запросом на весь пакет.
+     * Невалидные элементы и повторы имен отклоняются по отдельности и не мешают сохранению остальных
+     *
+     * @return - результаты в порядке элементов запроса
+     */
+    List<BatchItemResultDto<FacultyOutputDto>> createFaculties(List<FacultyInputDto> inputDtos);
+
+    /**
+     * @param fields - если количество студентов не запрошено, оно не считается
+     */
+    Optional<FacultyOutputDto> findFaculty(Long id, SparseFieldset fields);
+
+    /**
+     * Факультеты по списку id: закэшированные берутся из кэша второго уровня, остальные читаются одним запросом
+     *
+     * @param fields - если количество студентов не запрошено, оно не считается
+     * @return - факультеты в порядке запрошенных id и id, которых нет в БД. Повторы id схлопываются
+     */
+    MultiGetResult<FacultyOutputDto> findFaculties(List<Long> ids, SparseFieldset fields);
 
-    Optional<FacultyOutputDto> updateFaculty(Long id, FacultyInputDto facultyInputDto);
+    /**
+     * @param expectedVersion - версия из If-Match или {@code null}, если клиент ее не передал
+     * @throws com.evgeniyfedorchenko.hogwarts.exceptions.PreconditionFailedException - текущая версия факультета другая
+     */
+    Optional<FacultyOutputDto> updateFaculty(Long id, FacultyInputDto facultyInputDto, Long expectedVersion);
+
+    /**
+     * Частичное обновление по JSON Merge Patch: меняются только переданные свойства,
+     * и UPDATE содержит только действительно измененные колонки. Патч без изменений не пишет в БД
+     *
+     * @param expectedVersion - версия из If-Match или {@code null}, если клиент ее не передал
+     * @throws com.evgeniyfedorchenko.hogwarts.exceptions.PreconditionFailedException - текущая версия факультета другая
+     * @throws com.evgeniyfedorchenko.hogwarts.exceptions.InvalidRequestParameterException - патч или его результат невалиден
+     */
+    Optional<FacultyOutputDto> patchFaculty(Long id, JsonNode patch, Long expectedVersion);
 
     Optional<Faculty> deleteFaculty(Long id);
 
-    List<FacultyOutputDto> findFacultyByColorOrPartName(Color color, String namePart);
+    /**
+     * @param fields - если количество студентов не запрошено, оно не считается
+     */
+    List<FacultyOutputDto> findFacultyByColorOrPartName(Color color, String namePart, SparseFieldset fields);
+
+    /**
+     * Страница состава факультета. Без курсора - первая страница в порядке {@code sort},
+     * с курсором - следующая страница в порядке, сохраненном в курсоре
+     */
+    StudentsPage findStudents(Long id, StudentSort sort, int pageSize, String cursor, SparseFieldset fields);
+
+    /**
+     * Страница id студентов факультета по возрастанию id
+     *
+     * @param afterId - курсор: id последнего студента предыдущей страницы, 0 для первой
+     * @return - пустой Optional, если факультета нет
+     */
+    Optional<StudentIdsPage> findStudentIds(Long id, long afterId, int limit);
 
-    List<StudentOutputDto> findStudents(Long id);
+    /**
+     * Переводит студентов на факультет {@code id} одним UPDATE, без загрузки студентов и составов факультетов
+     */
+    StudentTransferResultDto transferStudents(Long id, StudentTransferDto transferDto);
 }
@@ -1,40 +1,89 @@
 package com.evgeniyfedorchenko.hogwarts.services;
 
+import com.evgeniyfedorchenko.hogwarts.dto.BatchItemResultDto;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentCursor;
 import com.evgeniyfedorchenko.hogwarts.dto.FacultyInputDto;
 import com.evgeniyfedorchenko.hogwarts.dto.FacultyOutputDto;
-import com.evgeniyfedorchenko.hogwarts.dto.StudentOutputDto;
+import com.evgeniyfedorchenko.hogwarts.dto.MultiGetResult;
+import com.evgeniyfedorchenko.hogwarts.dto.SparseFieldset;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentIdsPage;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentTransferDto;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentTransferResultDto;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentsPage;
 import com.evgeniyfedorchenko.hogwarts.entities.Color;
 import com.evgeniyfedorchenko.hogwarts.entities.Faculty;
-import com.evgeniyfedorchenko.hogwarts.entities.Student;
+import com.evgeniyfedorchenko.hogwarts.exceptions.EntityNotFoundException;
+import com.evgeniyfedorchenko.hogwarts.exceptions.InvalidRequestParameterException;
+import com.evgeniyfedorchenko.hogwarts.exceptions.PreconditionFailedException;
 import com.evgeniyfedorchenko.hogwarts.mappers.FacultyMapper;
 import com.evgeniyfedorchenko.hogwarts.mappers.StudentMapper;
 import com.evgeniyfedorchenko.hogwarts.repositories.FacultyRepository;
+import com.evgeniyfedorchenko.hogwarts.repositories.FacultyStudentCount;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentDeletionResult;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentJdbcRepository;
 import com.evgeniyfedorchenko.hogwarts.repositories.StudentRepository;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentRow;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentSort;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 public class FacultyServiceImpl implements FacultyService {
 
     private final FacultyRepository facultyRepository;
     private final StudentRepository studentRepository;
+    private final StudentJdbcRepository studentJdbcRepository;
     private final FacultyMapper facultyMapper;
     private final StudentMapper studentMapper;
+    private final StudentStatistics studentStatistics;
+    private final AvatarFileCleaner avatarFileCleaner;
+    private final StudentDtoCache studentDtoCache;
+    private final StudentAnalyticsService studentAnalyticsService;
+    private final Validator validator;
+    private final ObjectMapper objectMapper;
     private final Logger logger = LoggerFactory.getLogger(FacultyServiceImpl.class);
 
     public FacultyServiceImpl(FacultyRepository facultyRepository,
                               StudentRepository studentRepository,
+                              StudentJdbcRepository studentJdbcRepository,
                               FacultyMapper facultyMapper,
-                              StudentMapper studentMapper) {
+                              StudentMapper studentMapper,
+                              StudentStatistics studentStatistics,
+                              AvatarFileCleaner avatarFileCleaner,
+                              StudentDtoCache studentDtoCache,
+                              StudentAnalyticsService studentAnalyticsService,
+                              Validator validator,
+                              ObjectMapper objectMapper) {
         this.facultyRepository = facultyRepository;
         this.studentRepository = studentRepository;
+        this.studentJdbcRepository = studentJdbcRepository;
         this.facultyMapper = facultyMapper;
         this.studentMapper = studentMapper;
+        this.studentStatistics = studentStatistics;
+        this.avatarFileCleaner = avatarFileCleaner;
+        this.studentDtoCache = studentDtoCache;
+        this.studentAnalyticsService = studentAnalyticsService;
+        this.validator = validator;
+        this.objectMapper = objectMapper;
     }
 
     @Override
@@ -42,31 +91,135 @@ public class FacultyServiceImpl implements FacultyService {
 
         Faculty faculty = fillFaculty(inputDto, new Faculty());
         Faculty savedFaculty = facultyRepository.save(faculty);
+        studentAnalyticsService.invalidate();
         logger.info("New {} successfully saved", faculty);
-        return facultyMapper.toDto(savedFaculty);
+        return facultyMapper.toDto(savedFaculty, 0);
     }
 
     @Override
-    public Optional<FacultyOutputDto> findFaculty(Long id) {
-        Optional<FacultyOutputDto> outputDtoOpt = facultyRepository.findById(id).map(facultyMapper::toDto);
+    @Transactional
+    public List<BatchItemResultDto<FacultyOutputDto>> createFaculties(List<FacultyInputDto> inputDtos) {
+        if (inputDtos.size() > MAX_BATCH_SIZE) {
+            throw new InvalidRequestParameterException("Batch size must not exceed " + MAX_BATCH_SIZE);
+        }
+
+        Set<String> takenNames = new HashSet<>(facultyRepository.findExistingNames(inputDtos.stream()
+                .filter(Objects::nonNull)
+                .map(FacultyInputDto::getName)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet())));
+
+        List<BatchItemResultDto<FacultyOutputDto>> results = new ArrayList<>(inputDtos.size());
+        List<Faculty> faculties = new ArrayList<>();
+        for (int i = 0; i < inputDtos.size(); i++) {
+            FacultyInputDto inputDto = inputDtos.get(i);
+            List<String> errors = validate(inputDto);
+            // Имя занимается первым элементом пакета с этим именем, повторы отклоняются
+            if (errors.isEmpty() && !takenNames.add(inputDto.getName())) {
+                errors.add("Faculty with name " + inputDto.getName() + " already exists");
+            }
+            if (!errors.isEmpty()) {
+                results.add(BatchItemResultDto.rejected(i, errors));
+                continue;
+            }
+            faculties.add(fillFaculty(inputDto, new Faculty()));
+            results.add(null);   // Заполняется после сохранения, когда известен id
+        }
+
+        facultyRepository.saveAll(faculties);
+
+        Iterator<Faculty> saved = faculties.iterator();
+        for (int i = 0; i < results.size(); i++) {
+            if (results.get(i) == null) {
+                results.set(i, BatchItemResultDto.created(i, facultyMapper.toDto(saved.next(), 0)));
+            }
+        }
+
+        studentAnalyticsService.invalidate();
+        logger.info("{} of {} faculties successfully saved in batch", faculties.size(), inputDtos.size());
+        return results;
+    }
+
+    private List<String> validate(FacultyInputDto inputDto) {
+        if (inputDto == null) {
+            return new ArrayList<>(List.of("Faculty must not be null"));
+        }
+        return validator.validate(inputDto).stream()
+                .map(ConstraintViolation::getMessage)
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    @Override
+    public Optional<FacultyOutputDto> findFaculty(Long id, SparseFieldset fields) {
+        // Факультет берется из кэша второго уровня, а от students читаются только id по индексу
+        Optional<FacultyOutputDto> outputDtoOpt = facultyRepository.findById(id)
+                .map(faculty -> facultyMapper.toDto(faculty,
+                        fields.includes("studentCount") ? studentRepository.countByFaculty_Id(id) : 0));
         logger.debug("FacultyID %s ".formatted(id) + (outputDtoOpt.isEmpty() ? "not found" : "was found") + "for find");
         return outputDtoOpt;
 
     }
 
     @Override
-    public Optional<FacultyOutputDto> updateFaculty(Long id, FacultyInputDto facultyInputDto) {
+    public MultiGetResult<FacultyOutputDto> findFaculties(List<Long> ids, SparseFieldset fields) {
+        Set<Long> requestedIds = new LinkedHashSet<>(ids);
+        if (requestedIds.size() > MAX_MULTI_GET_IDS) {
+            throw new InvalidRequestParameterException("Number of ids must not exceed " + MAX_MULTI_GET_IDS);
+        }
+
+        Map<Long, FacultyOutputDto> found = toDtos(facultyRepository.findAllByIdCached(requestedIds), fields).stream()
+                .collect(Collectors.toMap(FacultyOutputDto::getId, Function.identity()));
+        logger.debug("Calling findFaculties for {} ids: {} found", requestedIds.size(), found.size());
+        return MultiGetResult.inRequestOrder(requestedIds, found);
+    }
+
+    @Override
+    @Transactional
+    public Optional<FacultyOutputDto> updateFaculty(Long id, FacultyInputDto facultyInputDto, Long expectedVersion) {
 
         Optional<Faculty> byId = facultyRepository.findById(id);
         if (id <= 0L || byId.isEmpty()) {
             logger.debug("FacultyID {} not found for update", id);
             return Optional.empty();
         }
+        if (expectedVersion != null && byId.get().getVersion() != expectedVersion) {
+            throw new PreconditionFailedException("Faculty %d has version %d, not %d"
+                    .formatted(id, byId.get().getVersion(), expectedVersion));
+        }
         Faculty oldFaculty = fillFaculty(facultyInputDto, byId.get());
-        facultyRepository.save(oldFaculty);
+        facultyRepository.saveAndFlush(oldFaculty);   // Сразу, чтобы в ответе была новая версия
+        studentAnalyticsService.invalidate();
         logger.info("{} successfully updated to {}", byId, oldFaculty);
 
-        return Optional.of(facultyMapper.toDto(oldFaculty));
+        return Optional.of(facultyMapper.toDto(oldFaculty, studentRepository.countByFaculty_Id(id)));
+    }
+
+    @Override
+    @Transactional
+    public Optional<FacultyOutputDto> patchFaculty(Long id, JsonNode patch, Long expectedVersion) {
+
+        Optional<Faculty> byId = facultyRepository.findById(id);
+        if (id <= 0L || byId.isEmpty()) {
+            logger.debug("FacultyID {} not found for patch", id);
+            return Optional.empty();
+        }
+        Faculty faculty = byId.get();
+        if (expectedVersion != null && faculty.getVersion() != expectedVersion) {
+            throw new PreconditionFailedException("Faculty %d has version %d, not %d"
+                    .formatted(id, faculty.getVersion(), expectedVersion));
+        }
+
+        FacultyInputDto patched = MergePatches.apply(objectMapper, validator, patch, facultyMapper.toInputDto(faculty));
+        long versionBefore = faculty.getVersion();
+        // Состав факультета не трогается, в UPDATE попадают только измененные колонки
+        fillFaculty(patched, faculty);
+        facultyRepository.flush();
+
+        if (faculty.getVersion() != versionBefore) {
+            studentAnalyticsService.invalidate();
+            logger.info("{} successfully patched", faculty);
+        }
+        return Optional.of(facultyMapper.toDto(faculty, studentRepository.countByFaculty_Id(id)));
     }
 
     private Faculty fillFaculty(FacultyInputDto src, Faculty dest) {
@@ -83,10 +236,19 @@ public class FacultyServiceImpl implements FacultyService {
 
         Optional<Faculty> facultyOpt = facultyRepository.findById(id);
         if (facultyOpt.isPresent()) {
-            List<Student> students = facultyOpt.get().getStudents();
-            studentRepository.deleteAll(students);
-            facultyRepository.delete(facultyOpt.get());
-            logger.info("{} successfully deleted with its students", facultyOpt.get());
+            /* Студенты и их аватары удаляются двумя DELETE без загрузки сущностей, а файлы аватаров -
+               в фоне после коммита, поэтому время запроса почти не зависит от размера факультета */
+            StudentDeletionResult deletion = studentJdbcRepository.deleteStudentsOfFaculty(id);
+            Faculty faculty = facultyOpt.get();
+            faculty.setStudents(new ArrayList<>());   // Ленивый состав не загружаем: в БД его уже нет
+            facultyRepository.delete(faculty);
+
+            avatarFileCleaner.deleteAfterCommit(deletion.avatarFilePaths());
+            studentDtoCache.evictAll(deletion.deletedIds());
+            studentStatistics.ageGroupsRemoved(deletion.deletedAges());
+            studentAnalyticsService.invalidate();
+            logger.info("{} successfully deleted with its {} students and {} avatars",
+                    faculty, deletion.deletedCount(), deletion.avatarFilePaths().size());
             return facultyOpt;
         } else {
             logger.debug("FacultyID {} not found for delete", id);
@@ -96,20 +258,92 @@ public class FacultyServiceImpl implements FacultyService {
 
     // Для того чтобы можно было искать по совпадению хотя бы одного параметра
     @Override
-    public List<FacultyOutputDto> findFacultyByColorOrPartName(Color color, String namePart) {
+    public List<FacultyOutputDto> findFacultyByColorOrPartName(Color color, String namePart, SparseFieldset fields) {
         List<Faculty> faculties = color == null
                 ? facultyRepository.findByNameContainsIgnoreCase(namePart)
                 : facultyRepository.findFacultyByColorAndNameContainsIgnoreCase(color, namePart);
+        return toDtos(faculties, fields);
+    }
+
+    private List<FacultyOutputDto> toDtos(List<Faculty> faculties, SparseFieldset fields) {
+        if (faculties.isEmpty()) {
+            return List.of();
+        }
+        if (!fields.includes("studentCount")) {
+            return faculties.stream()
+                    .map(faculty -> facultyMapper.toDto(faculty, 0))
+                    .toList();
+        }
+        // Один GROUP BY по индексу (faculty_id, id) на все найденные факультеты, сами студенты не читаются
+        Map<Long, Long> studentCounts = studentRepository.countByFacultyIdIn(faculties.stream().map(Faculty::getId).toList())
+                .stream()
+                .collect(Collectors.toMap(FacultyStudentCount::facultyId, FacultyStudentCount::count));
 
         return faculties.stream()
-                .map(facultyMapper::toDto)
+                .map(faculty -> facultyMapper.toDto(faculty, studentCounts.getOrDefault(faculty.getId(), 0L)))
                 .toList();
     }
 
     @Override
-    public List<StudentOutputDto> findStudents(Long id) {
-        return studentRepository.findByFaculty_Id(id).stream()
-                .map(studentMapper::toDto)
-                .toList();
+    public Optional<StudentIdsPage> findStudentIds(Long id, long afterId, int limit) {
+        if (facultyRepository.findById(id).isEmpty()) {   // Обычно попадание в кэш второго уровня, без запроса
+            logger.debug("FacultyID {} not found for student ids", id);
+            return Optional.empty();
+        }
+        List<Long> studentIds = studentRepository.findIdsByFacultyIdAfter(id, afterId, Limit.of(limit));
+        return Optional.of(StudentIdsPage.of(studentIds, limit));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public StudentsPage findStudents(Long id, StudentSort sort, int pageSize, String cursor, SparseFieldset fields) {
+        List<StudentRow> students;
+        if (cursor != null) {
+            StudentCursor currentCursor = StudentCursor.decode(cursor);
+            sort = currentCursor.sort();
+            students = studentRepository.findPageOfFacultyAfter(id, currentCursor, pageSize);
+        } else {
+            students = studentRepository.findPageOfFaculty(id, sort, pageSize, 0);
+        }
+        logger.debug("Calling findStudents with params: facultyId={}, sort={}, pageSize={}, cursor={} returned {} students",
+                id, sort, pageSize, cursor, students.size());
+        return StudentsPage.of(students, sort, pageSize, row -> studentMapper.toDto(row, fields), null);
+    }
+
+    @Override
+    @Transactional
+    public StudentTransferResultDto transferStudents(Long id, StudentTransferDto transferDto) {
+        List<Long> studentIds = transferDto.getStudentIds();
+        Long fromFacultyId = transferDto.getFromFacultyId();
+        if ((studentIds == null) == (fromFacultyId == null)) {
+            throw new InvalidRequestParameterException("Exactly one of studentIds and fromFacultyId must be specified");
+        }
+        if (studentIds != null && studentIds.size() > MAX_BATCH_SIZE) {
+            throw new InvalidRequestParameterException("Number of studentIds must not exceed " + MAX_BATCH_SIZE);
+        }
+        if (!facultyRepository.existsById(id)) {
+            logger.debug("FacultyID {} not found for transfer", id);
+            throw new EntityNotFoundException("FacultyId " + id + " not found");
+        }
+
+        StudentTransferResultDto result;
+        Set<Long> transferredIds;
+        if (studentIds != null) {
+            transferredIds = new HashSet<>(studentJdbcRepository.transferStudents(id, studentIds));
+            List<Long> notFoundIds = studentIds.stream()
+                    .filter(studentId -> !transferredIds.contains(studentId))
+                    .distinct()
+                    .toList();
+            result = new StudentTransferResultDto(transferredIds.size(), notFoundIds);
+        } else {
+            transferredIds = new HashSet<>(studentJdbcRepository.transferAllStudents(fromFacultyId, id));
+            result = new StudentTransferResultDto(transferredIds.size(), null);
+        }
+
+        // Возраст студентов не меняется, поэтому StudentStatistics не затрагивается
+        studentDtoCache.evictAll(transferredIds);
+        studentAnalyticsService.invalidate();
+        logger.info("{} students transferred to FacultyID {}", result.getTransferred(), id);
+        return result;
     }
 }
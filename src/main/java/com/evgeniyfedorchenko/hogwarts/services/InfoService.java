@@ -1,6 +1,10 @@
 package com.evgeniyfedorchenko.hogwarts.services;
 
+import com.evgeniyfedorchenko.hogwarts.dto.CacheStatsDto;
+
 public interface InfoService {
 
     Integer getUsedPort();
+
+    CacheStatsDto getCacheStats();
 }
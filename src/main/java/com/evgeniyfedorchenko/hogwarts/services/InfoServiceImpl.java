@@ -1,16 +1,55 @@
 package com.evgeniyfedorchenko.hogwarts.services;
 
+import com.evgeniyfedorchenko.hogwarts.dto.CacheRegionStatsDto;
+import com.evgeniyfedorchenko.hogwarts.dto.CacheStatsDto;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.Map;
+import java.util.TreeMap;
+
 @Service
 public class InfoServiceImpl implements InfoService {
 
-    @Value("${server.port}")
+    private final EntityManagerFactory entityManagerFactory;
+    private final StudentDtoCache studentDtoCache;
+
+    @Value("${server.port:8080}")
     private int port;
 
+    public InfoServiceImpl(EntityManagerFactory entityManagerFactory, StudentDtoCache studentDtoCache) {
+        this.entityManagerFactory = entityManagerFactory;
+        this.studentDtoCache = studentDtoCache;
+    }
+
     @Override
     public Integer getUsedPort() {
         return port;
     }
+
+    @Override
+    public CacheStatsDto getCacheStats() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        Map<String, CacheRegionStatsDto> regions = new TreeMap<>();
+        for (String regionName : statistics.getSecondLevelCacheRegionNames()) {
+            CacheRegionStatistics region = statistics.getCacheRegionStatistics(regionName);
+            if (region != null) {
+                regions.put(regionName, new CacheRegionStatsDto(region.getHitCount(), region.getMissCount(),
+                        region.getPutCount(), region.getElementCountInMemory()));
+            }
+        }
+
+        CacheStatsDto cacheStatsDto = new CacheStatsDto();
+        cacheStatsDto.setStatisticsEnabled(statistics.isStatisticsEnabled());
+        cacheStatsDto.setEntityLoadCount(statistics.getEntityLoadCount());
+        cacheStatsDto.setQueryExecutionCount(statistics.getQueryExecutionCount());
+        cacheStatsDto.setRegions(regions);
+        cacheStatsDto.setStudentDtoCache(studentDtoCache.getStats());
+        return cacheStatsDto;
+    }
 }
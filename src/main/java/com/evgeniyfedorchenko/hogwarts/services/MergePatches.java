@@ -0,0 +1,52 @@
+package com.evgeniyfedorchenko.hogwarts.services;
+
+import com.evgeniyfedorchenko.hogwarts.exceptions.InvalidRequestParameterException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.stream.Collectors;
+
+/**
+ * JSON Merge Patch (RFC 7396) для плоских входных DTO: свойства из патча заменяют текущие значения,
+ * отсутствующие остаются как есть, {@code null} стирает значение (и для обязательных полей не пройдет валидацию)
+ */
+final class MergePatches {
+
+    private MergePatches() {
+    }
+
+    /**
+     * @param current - входной DTO, заполненный текущим состоянием сущности. Изменяется на месте
+     * @return - тот же DTO с примененным патчем, прошедший валидацию
+     * @throws InvalidRequestParameterException - патч не объект, в нем неизвестные свойства или результат невалиден
+     */
+    static <T> T apply(ObjectMapper objectMapper, Validator validator, JsonNode patch, T current) {
+        if (patch == null || !patch.isObject()) {
+            throw new InvalidRequestParameterException("Merge patch must be a JSON object");
+        }
+        try {
+            objectMapper.readerForUpdating(current)
+                    .with(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                    .readValue(patch);
+        } catch (JsonProcessingException e) {   // Неизвестное свойство или значение не того типа
+            throw new InvalidRequestParameterException("Invalid merge patch: " + e.getOriginalMessage());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);   // Чтение из уже разобранного JsonNode не обращается к вводу-выводу
+        }
+
+        String errors = validator.validate(current).stream()
+                .map(ConstraintViolation::getMessage)
+                .sorted()
+                .collect(Collectors.joining("; "));
+        if (!errors.isEmpty()) {
+            throw new InvalidRequestParameterException(errors);
+        }
+        return current;
+    }
+}
@@ -0,0 +1,17 @@
+package com.evgeniyfedorchenko.hogwarts.services;
+
+import com.evgeniyfedorchenko.hogwarts.dto.StudentStatsDto;
+
+public interface StudentAnalyticsService {
+
+    /**
+     * Возрастная статистика по факультетам, цветам и всем студентам.
+     * Считается одним запросом и кэшируется до ближайшего изменения студентов или факультетов
+     */
+    StudentStatsDto getStats();
+
+    /**
+     * Сбрасывает кэш после коммита текущей транзакции. Вызывается сервисами при каждой записи
+     */
+    void invalidate();
+}
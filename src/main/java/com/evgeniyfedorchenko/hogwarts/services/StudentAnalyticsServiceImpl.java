@@ -0,0 +1,108 @@
+package com.evgeniyfedorchenko.hogwarts.services;
+
+import com.evgeniyfedorchenko.hogwarts.dto.AgeStatsDto;
+import com.evgeniyfedorchenko.hogwarts.dto.FacultyAgeStatsDto;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentStatsDto;
+import com.evgeniyfedorchenko.hogwarts.entities.Color;
+import com.evgeniyfedorchenko.hogwarts.repositories.AgeStatsRow;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+@Service
+public class StudentAnalyticsServiceImpl implements StudentAnalyticsService {
+
+    private final StudentRepository studentRepository;
+    private final long cacheTtlMillis;
+    private final Logger logger = LoggerFactory.getLogger(StudentAnalyticsServiceImpl.class);
+
+    private record CachedStats(StudentStatsDto stats, long computedAt) {
+    }
+
+    /* generation увеличивается при каждом сбросе. Результат, посчитанный до сброса, в кэш уже не кладется,
+       иначе запрос, начатый до коммита, мог бы закэшировать устаревшие данные.
+       TTL нужен для записей в обход сервисов: о них сброс не узнает */
+    private volatile CachedStats cached;
+    private long generation;
+
+    public StudentAnalyticsServiceImpl(StudentRepository studentRepository,
+                                       @Value("${students.analytics.cache-ttl:60000}") long cacheTtlMillis) {
+        this.studentRepository = studentRepository;
+        this.cacheTtlMillis = cacheTtlMillis;
+    }
+
+    @Override
+    public StudentStatsDto getStats() {
+        CachedStats current = cached;
+        if (current != null && System.currentTimeMillis() - current.computedAt() < cacheTtlMillis) {
+            return current.stats();
+        }
+
+        long generationBefore;
+        synchronized (this) {
+            generationBefore = generation;
+        }
+        StudentStatsDto stats = toDto(studentRepository.findAgeStats());
+        logger.debug("Student stats recalculated for {} faculties", stats.getByFaculty().size());
+
+        synchronized (this) {
+            if (generation == generationBefore) {
+                cached = new CachedStats(stats, System.currentTimeMillis());
+            }
+        }
+        return stats;
+    }
+
+    @Override
+    public void invalidate() {
+        TransactionCallbacks.afterCommit(() -> {
+            synchronized (this) {
+                generation++;
+                cached = null;
+            }
+        });
+    }
+
+    private StudentStatsDto toDto(List<AgeStatsRow> rows) {
+        AgeStatsDto total = new AgeStatsDto();
+        List<FacultyAgeStatsDto> byFaculty = new ArrayList<>();
+        Map<Color, AgeStatsDto> byColor = new EnumMap<>(Color.class);
+
+        for (AgeStatsRow row : rows) {
+            switch (row.level()) {
+                case FACULTY -> {
+                    FacultyAgeStatsDto facultyStats = fill(row, new FacultyAgeStatsDto());
+                    facultyStats.setFacultyId(row.facultyId());
+                    facultyStats.setFacultyName(row.facultyName());
+                    facultyStats.setColor(row.color());
+                    byFaculty.add(facultyStats);
+                }
+                case COLOR -> byColor.put(row.color(), fill(row, new AgeStatsDto()));
+                case TOTAL -> total = fill(row, new AgeStatsDto());
+            }
+        }
+
+        StudentStatsDto statsDto = new StudentStatsDto();
+        statsDto.setTotal(total);
+        statsDto.setByFaculty(byFaculty);
+        statsDto.setByColor(byColor);
+        return statsDto;
+    }
+
+    private <T extends AgeStatsDto> T fill(AgeStatsRow row, T dest) {
+        dest.setCount(row.count());
+        dest.setAverageAge(row.averageAge());
+        dest.setMinAge(row.minAge());
+        dest.setMaxAge(row.maxAge());
+        dest.setMedianAge(row.medianAge());
+        dest.setPercentile90Age(row.percentile90Age());
+        return dest;
+    }
+}
@@ -0,0 +1,98 @@
+package com.evgeniyfedorchenko.hogwarts.services;
+
+import com.evgeniyfedorchenko.hogwarts.dto.LocalCacheStatsDto;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentOutputDto;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Policy;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Кэш готовых {@link StudentOutputDto} для {@code GET /students/{id}}, ограниченный примерным объемом в байтах.
+ * Вытеснение - W-TinyLFU Caffeine: редкие студенты не вытесняют из кэша часто запрашиваемых.
+ * Сервисы сбрасывают записи после коммита изменений, а загрузка записи атомарна по ключу,
+ * поэтому чтение, начатое до коммита, не может вернуть в кэш устаревшее значение.
+ * Записи в обход сервисов устаревают по сроку жизни
+ */
+@Component
+public class StudentDtoCache {
+
+    // Заголовки объектов DTO и строк, поля и ссылки - без учета самих символов строк
+    private static final int DTO_OVERHEAD_BYTES = 128;
+
+    private final Cache<Long, StudentOutputDto> cache;
+
+    public StudentDtoCache(@Value("${students.dto-cache.maximum-weight:16777216}") long maximumWeight,
+                           @Value("${students.dto-cache.expire-after-write:600000}") long expireAfterWriteMillis) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maximumWeight)
+                .weigher((Long id, StudentOutputDto dto) -> weigh(dto))
+                .expireAfterWrite(Duration.ofMillis(expireAfterWriteMillis))
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @param loader - читает студента из БД при промахе. Отсутствующие студенты не кэшируются
+     */
+    public Optional<StudentOutputDto> get(Long id, Function<Long, Optional<StudentOutputDto>> loader) {
+        return Optional.ofNullable(cache.get(id, key -> loader.apply(key).orElse(null)));
+    }
+
+    /**
+     * Пакетное чтение только из кэша. Промахи вызывающий читает из БД сам и в кэш не кладет:
+     * загрузка пачки не атомарна по каждому ключу, и без этого сброс, пришедший во время чтения,
+     * мог бы оказаться раньше устаревшего значения
+     *
+     * @return - найденные в кэше записи по id
+     */
+    public Map<Long, StudentOutputDto> getAllPresent(Collection<Long> ids) {
+        return cache.getAllPresent(ids);
+    }
+
+    public void evict(Long id) {
+        TransactionCallbacks.afterCommit(() -> cache.invalidate(id));
+    }
+
+    public void evictAll(Collection<Long> ids) {
+        if (!ids.isEmpty()) {
+            List<Long> idsCopy = List.copyOf(ids);
+            TransactionCallbacks.afterCommit(() -> cache.invalidateAll(idsCopy));
+        }
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public LocalCacheStatsDto getStats() {
+        CacheStats stats = cache.stats();
+        Policy.Eviction<Long, StudentOutputDto> eviction = cache.policy().eviction().orElseThrow();
+
+        LocalCacheStatsDto statsDto = new LocalCacheStatsDto();
+        statsDto.setEstimatedSize(cache.estimatedSize());
+        statsDto.setWeightedSize(eviction.weightedSize().orElse(-1));
+        statsDto.setMaximumWeight(eviction.getMaximum());
+        statsDto.setHitCount(stats.hitCount());
+        statsDto.setMissCount(stats.missCount());
+        statsDto.setHitRate(stats.hitRate());
+        statsDto.setEvictionCount(stats.evictionCount());
+        statsDto.setEvictionWeight(stats.evictionWeight());
+        return statsDto;
+    }
+
+    private static int weigh(StudentOutputDto dto) {
+        int chars = (dto.getName() == null ? 0 : dto.getName().length())
+                    + (dto.getAvatarUrl() == null ? 0 : dto.getAvatarUrl().length());
+        return DTO_OVERHEAD_BYTES + 2 * chars;
+    }
+}
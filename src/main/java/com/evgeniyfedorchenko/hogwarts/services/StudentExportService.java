@@ -0,0 +1,21 @@
+package com.evgeniyfedorchenko.hogwarts.services;
+
+import com.evgeniyfedorchenko.hogwarts.controllers.ExportFormat;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentSort;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+public interface StudentExportService {
+
+    /**
+     * Построчно пишет всех студентов в {@code outputStream}, читая их из БД курсором.
+     * Потребление памяти не зависит от количества студентов
+     */
+    void exportStudents(ExportFormat format, OutputStream outputStream) throws IOException;
+
+    /**
+     * Так же построчно пишет студентов одного факультета в порядке {@code sort}
+     */
+    void exportStudentsOfFaculty(Long facultyId, StudentSort sort, ExportFormat format, OutputStream outputStream) throws IOException;
+}
@@ -0,0 +1,91 @@
+package com.evgeniyfedorchenko.hogwarts.services;
+
+import com.evgeniyfedorchenko.hogwarts.controllers.ExportFormat;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentRepository;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentRow;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentSort;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+@Service
+public class StudentExportServiceImpl implements StudentExportService {
+
+    private static final String CSV_HEADER = "id,name,age,facultyId,hasAvatar";
+
+    private final StudentRepository studentRepository;
+    private final ObjectMapper objectMapper;
+    private final Logger logger = LoggerFactory.getLogger(StudentExportServiceImpl.class);
+
+    public StudentExportServiceImpl(StudentRepository studentRepository,
+                                    ObjectMapper objectMapper) {
+        this.studentRepository = studentRepository;
+        this.objectMapper = objectMapper;
+    }
+
+    /* Транзакция обязательна: без нее драйвер PostgreSQL игнорирует fetch size
+       и вычитывает весь результат в память, а не порциями через серверный курсор */
+    @Override
+    @Transactional(readOnly = true)
+    public void exportStudents(ExportFormat format, OutputStream outputStream) throws IOException {
+        try (Stream<StudentRow> rows = studentRepository.streamAllRows()) {
+            long exported = write(rows, format, outputStream);
+            logger.info("{} students successfully exported as {}", exported, format);
+        }
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void exportStudentsOfFaculty(Long facultyId, StudentSort sort, ExportFormat format, OutputStream outputStream) throws IOException {
+        try (Stream<StudentRow> rows = studentRepository.streamRowsOfFaculty(facultyId, sort)) {
+            long exported = write(rows, format, outputStream);
+            logger.info("{} students of facultyID {} successfully exported as {}", exported, facultyId, format);
+        }
+    }
+
+    private long write(Stream<StudentRow> rows, ExportFormat format, OutputStream outputStream) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        long exported = 0;
+
+        if (format == ExportFormat.CSV) {
+            writer.write(CSV_HEADER);
+            writer.write('\n');
+        }
+//        Итератор, а не forEach: запись бросает checked IOException
+        Iterator<StudentRow> iterator = rows.iterator();
+        while (iterator.hasNext()) {
+            writer.write(format == ExportFormat.CSV ? toCsv(iterator.next()) : objectMapper.writeValueAsString(iterator.next()));
+            writer.write('\n');
+            exported++;
+        }
+        writer.flush();
+        return exported;
+    }
+
+    private String toCsv(StudentRow row) {
+        return String.join(",",
+                String.valueOf(row.id()),
+                escapeCsv(row.name()),
+                String.valueOf(row.age()),
+                String.valueOf(row.facultyId()),
+                String.valueOf(row.hasAvatar()));
+    }
+
+    private String escapeCsv(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n") || value.contains("\r")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+}
@@ -0,0 +1,15 @@
+package com.evgeniyfedorchenko.hogwarts.services;
+
+import com.evgeniyfedorchenko.hogwarts.dto.StudentImportResultDto;
+
+import java.io.InputStream;
+
+public interface StudentImportService {
+
+    /**
+     * Загружает студентов из CSV ({@code name,age,facultyName}, первая строка - заголовок) одной транзакцией.
+     * Факультеты ищутся по имени. Строки с ошибками пропускаются и попадают в отчет,
+     * но если файл не разбирается как CSV, не загружается ничего
+     */
+    StudentImportResultDto importStudents(InputStream csv);
+}
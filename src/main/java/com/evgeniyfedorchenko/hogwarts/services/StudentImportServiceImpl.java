@@ -0,0 +1,42 @@
+package com.evgeniyfedorchenko.hogwarts.services;
+
+import com.evgeniyfedorchenko.hogwarts.dto.StudentImportResultDto;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentImportResult;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentJdbcRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.InputStream;
+
+@Service
+public class StudentImportServiceImpl implements StudentImportService {
+
+    private final StudentJdbcRepository studentJdbcRepository;
+    private final StudentStatistics studentStatistics;
+    private final StudentAnalyticsService studentAnalyticsService;
+    private final Logger logger = LoggerFactory.getLogger(StudentImportServiceImpl.class);
+
+    public StudentImportServiceImpl(StudentJdbcRepository studentJdbcRepository,
+                                    StudentStatistics studentStatistics,
+                                    StudentAnalyticsService studentAnalyticsService) {
+        this.studentJdbcRepository = studentJdbcRepository;
+        this.studentStatistics = studentStatistics;
+        this.studentAnalyticsService = studentAnalyticsService;
+    }
+
+    @Override
+    @Transactional
+    public StudentImportResultDto importStudents(InputStream csv) {
+        long start = System.currentTimeMillis();
+        StudentImportResult result = studentJdbcRepository.importCsv(csv);
+
+        studentStatistics.ageGroupsAdded(result.importedAges());
+        studentAnalyticsService.invalidate();
+        logger.info("Imported {} students from CSV in {} ms, {} rows rejected",
+                result.importedCount(), System.currentTimeMillis() - start, result.rejectedCount());
+
+        return new StudentImportResultDto(result.importedCount(), result.rejectedCount(), result.rejectedRows());
+    }
+}
@@ -0,0 +1,17 @@
+package com.evgeniyfedorchenko.hogwarts.services;
+
+import com.evgeniyfedorchenko.hogwarts.dto.StudentProfileDto;
+
+import java.util.Optional;
+
+public interface StudentProfileService {
+
+    /**
+     * Карточка студента одним ответом: студент, его факультет, метаданные аватара и, по запросу, сжатое изображение.
+     * Независимые чтения выполняются параллельно, поэтому время ответа - это время самого долгого из них
+     *
+     * @param withPreview - добавить в ответ сжатое изображение аватара из БД
+     * @return - пустой Optional, если студента нет
+     */
+    Optional<StudentProfileDto> getProfile(Long studentId, boolean withPreview);
+}
@@ -0,0 +1,126 @@
+package com.evgeniyfedorchenko.hogwarts.services;
+
+import com.evgeniyfedorchenko.hogwarts.dto.FacultyOutputDto;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentOutputDto;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentProfileDto;
+import com.evgeniyfedorchenko.hogwarts.mappers.AvatarMapper;
+import com.evgeniyfedorchenko.hogwarts.repositories.AvatarRepository;
+import com.evgeniyfedorchenko.hogwarts.repositories.AvatarRow;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+@Service
+public class StudentProfileServiceImpl implements StudentProfileService {
+
+    private final StudentService studentService;
+    private final AvatarRepository avatarRepository;
+    private final AvatarMapper avatarMapper;
+    private final Logger logger = LoggerFactory.getLogger(StudentProfileServiceImpl.class);
+
+    /* Поток на каждое чтение: ожидание ответа БД не занимает платформенный поток.
+       Каждое чтение берет свое соединение из пула, поэтому одна карточка держит их не больше трех */
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /* Виртуальных потоков сколько угодно, а соединений в пуле - нет: без ограничения параллельные карточки
+       забирают весь пул Hikari, и остальные запросы приложения ждут соединения до таймаута.
+       Поэтому одновременно к БД ходят не больше половины пула чтений всех карточек вместе */
+    private final Semaphore lookups;
+
+    public StudentProfileServiceImpl(StudentService studentService,
+                                     AvatarRepository avatarRepository,
+                                     AvatarMapper avatarMapper,
+                                     @Value("${spring.datasource.hikari.maximum-pool-size:10}") int poolSize) {
+        this.studentService = studentService;
+        this.avatarRepository = avatarRepository;
+        this.avatarMapper = avatarMapper;
+        this.lookups = new Semaphore(Math.max(1, poolSize / 2), true);
+    }
+
+    @Override
+    public Optional<StudentProfileDto> getProfile(Long studentId, boolean withPreview) {
+        /* Все чтения идут от id студента, а не от загруженного студента, поэтому ни одно не ждет другого:
+           студент - из кэша DTO, факультет - по подзапросу к students, аватар - через students.avatar_id.
+           Картинка читается после аватара и только если он есть: ее чтение не занимает соединение параллельно с ним */
+        Future<Optional<StudentOutputDto>> student = submit(() -> studentService.findStudent(studentId));
+        Future<Optional<FacultyOutputDto>> faculty = submit(() -> studentService.getFaculty(studentId));
+        Future<Optional<AvatarRow>> avatar = submit(() -> avatarRepository.findRowByStudentId(studentId));
+        Future<Optional<byte[]>> preview = withPreview
+                ? executor.submit(() -> await(avatar).isPresent()
+                        ? lookup(() -> avatarRepository.findDataByStudentId(studentId))
+                        : Optional.<byte[]>empty())
+                : CompletableFuture.completedFuture(Optional.empty());
+
+        try {
+            Optional<StudentOutputDto> studentOpt = await(student);
+            if (studentOpt.isEmpty()) {
+                logger.debug("StudentID {} not found for profile", studentId);
+                return Optional.empty();
+            }
+            StudentProfileDto profile = new StudentProfileDto();
+            profile.setStudent(studentOpt.get());
+            profile.setFaculty(await(faculty).orElse(null));
+            profile.setAvatar(await(avatar).map(avatarMapper::toDto).orElse(null));
+            profile.setPreview(await(preview).orElse(null));
+            return Optional.of(profile);
+
+        } finally {
+//            Если студента нет или одно из чтений упало, остальные больше не нужны
+            List.of(student, faculty, avatar, preview).forEach(future -> future.cancel(true));
+        }
+    }
+
+    private <T> Future<T> submit(Callable<T> lookup) {
+        return executor.submit(() -> lookup(lookup));
+    }
+
+    /**
+     * Выполняет чтение, пропуская к БД не больше {@link #lookups} чтений одновременно.
+     * Ожидание других задач - только до захвата разрешения, иначе занятые разрешения могут ждать друг друга
+     */
+    private <T> T lookup(Callable<T> lookup) throws Exception {
+        lookups.acquire();
+        try {
+            return lookup.call();
+        } finally {
+            lookups.release();
+        }
+    }
+
+    private <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading student profile", e);
+        } catch (ExecutionException e) {
+            // Пробрасываем исходное исключение, чтобы его обработал GlobalExceptionHandler как при обычном вызове
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException("Failed to load student profile", e.getCause());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+//        Новые карточки больше не принимаем, а начатые чтения прерываем: их ответы уже никто не ждет
+        executor.shutdownNow();
+        if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+            logger.warn("Student profile lookups did not finish before shutdown");
+        }
+    }
+}
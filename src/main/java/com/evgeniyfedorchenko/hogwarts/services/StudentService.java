@@ -1,11 +1,18 @@
 package com.evgeniyfedorchenko.hogwarts.services;
 
-import com.evgeniyfedorchenko.hogwarts.controllers.SortOrder;
+import com.evgeniyfedorchenko.hogwarts.controllers.TotalCountMode;
+import com.evgeniyfedorchenko.hogwarts.dto.BatchItemResultDto;
 import com.evgeniyfedorchenko.hogwarts.dto.FacultyOutputDto;
+import com.evgeniyfedorchenko.hogwarts.dto.MultiGetResult;
+import com.evgeniyfedorchenko.hogwarts.dto.SparseFieldset;
 import com.evgeniyfedorchenko.hogwarts.dto.StudentInputDto;
 import com.evgeniyfedorchenko.hogwarts.dto.StudentOutputDto;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentsPage;
 import com.evgeniyfedorchenko.hogwarts.entities.Avatar;
 import com.evgeniyfedorchenko.hogwarts.entities.Student;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentFilter;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentSort;
+import com.fasterxml.jackson.databind.JsonNode;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.util.List;
@@ -13,11 +20,43 @@ import java.util.Optional;
 
 public interface StudentService {
 
+    int MAX_BATCH_SIZE = 10_000;
+    int MAX_MULTI_GET_IDS = 1_000;
+
     StudentOutputDto createStudent(StudentInputDto studentInputDto);
 
+    /**
+     * Сохраняет студентов одной транзакцией пакетными INSERT. Факультеты проверяются одним запросом на весь пакет.
+     * Невалидные элементы отклоняются по отдельности и не мешают сохранению остальных
+     *
+     * @return - результаты в порядке элементов запроса
+     */
+    List<BatchItemResultDto<StudentOutputDto>> createStudents(List<StudentInputDto> inputDtos);
+
     Optional<StudentOutputDto> findStudent(Long id);
 
-    Optional<StudentOutputDto> updateStudent(Long id, StudentInputDto studentInputDto);
+    /**
+     * Студенты по списку id: закэшированные берутся из кэша, остальные читаются одним запросом
+     *
+     * @return - студенты в порядке запрошенных id и id, которых нет в БД. Повторы id схлопываются
+     */
+    MultiGetResult<StudentOutputDto> findStudents(List<Long> ids);
+
+    /**
+     * @param expectedVersion - версия из If-Match или {@code null}, если клиент ее не передал
+     * @throws com.evgeniyfedorchenko.hogwarts.exceptions.PreconditionFailedException - текущая версия студента другая
+     */
+    Optional<StudentOutputDto> updateStudent(Long id, StudentInputDto studentInputDto, Long expectedVersion);
+
+    /**
+     * Частичное обновление по JSON Merge Patch: меняются только переданные свойства,
+     * и UPDATE содержит только действительно измененные колонки. Патч без изменений не пишет в БД
+     *
+     * @param expectedVersion - версия из If-Match или {@code null}, если клиент ее не передал
+     * @throws com.evgeniyfedorchenko.hogwarts.exceptions.PreconditionFailedException - текущая версия студента другая
+     * @throws com.evgeniyfedorchenko.hogwarts.exceptions.InvalidRequestParameterException - патч или его результат невалиден
+     */
+    Optional<StudentOutputDto> patchStudent(Long id, JsonNode patch, Long expectedVersion);
 
     Optional<Student> deleteStudent(Long id);
 
@@ -27,7 +66,30 @@ public interface StudentService {
 
     Double getAverageAge();
 
-    List<StudentOutputDto> searchStudents(String sortParam, SortOrder sortOrder, int pageNumber, int pageSize);
+    /**
+     * Если передан курсор, страница ищется по нему (keyset), а сортировка и номер страницы игнорируются:
+     * они уже зашиты в курсор
+     *
+     * @param countMode - нужно ли и как считать общее количество студентов для {@link StudentsPage#getTotalCount()}
+     * @param fields    - запрошенные свойства студентов, остальные могут остаться незаполненными
+     */
+    StudentsPage searchStudents(StudentSort sort, int pageNumber, int pageSize, String cursor, TotalCountMode countMode,
+                                SparseFieldset fields);
+
+    /**
+     * Поиск по любой комбинации условий одним запросом. Страницы - как в {@link #searchStudents}:
+     * по номеру или по курсору, который нужно передавать вместе с теми же условиями
+     *
+     * @throws com.evgeniyfedorchenko.hogwarts.exceptions.InvalidRequestParameterException - minAge больше maxAge
+     */
+    StudentsPage queryStudents(StudentFilter filter, StudentSort sort, int pageNumber, int pageSize, String cursor,
+                               TotalCountMode countMode, SparseFieldset fields);
+
+    /**
+     * @return - студенты, в имени которых встречается {@code query} или похожее на него слово.
+     * Более похожие идут первыми
+     */
+    List<StudentOutputDto> searchStudentsByName(String query, int pageNumber, int pageSize);
 
     Optional<FacultyOutputDto> getFaculty(Long studentId);
 
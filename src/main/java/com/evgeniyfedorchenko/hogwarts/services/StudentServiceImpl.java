@@ -1,26 +1,50 @@
 package com.evgeniyfedorchenko.hogwarts.services;
 
-import com.evgeniyfedorchenko.hogwarts.controllers.SortOrder;
+import com.evgeniyfedorchenko.hogwarts.controllers.TotalCountMode;
+import com.evgeniyfedorchenko.hogwarts.dto.BatchItemResultDto;
 import com.evgeniyfedorchenko.hogwarts.dto.FacultyOutputDto;
+import com.evgeniyfedorchenko.hogwarts.dto.MultiGetResult;
+import com.evgeniyfedorchenko.hogwarts.dto.SparseFieldset;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentCursor;
 import com.evgeniyfedorchenko.hogwarts.dto.StudentInputDto;
 import com.evgeniyfedorchenko.hogwarts.dto.StudentOutputDto;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentsPage;
 import com.evgeniyfedorchenko.hogwarts.entities.Avatar;
 import com.evgeniyfedorchenko.hogwarts.entities.Faculty;
 import com.evgeniyfedorchenko.hogwarts.entities.Student;
 import com.evgeniyfedorchenko.hogwarts.exceptions.AvatarProcessingException;
 import com.evgeniyfedorchenko.hogwarts.exceptions.EntityNotFoundException;
+import com.evgeniyfedorchenko.hogwarts.exceptions.InvalidRequestParameterException;
+import com.evgeniyfedorchenko.hogwarts.exceptions.PreconditionFailedException;
 import com.evgeniyfedorchenko.hogwarts.mappers.FacultyMapper;
 import com.evgeniyfedorchenko.hogwarts.mappers.StudentMapper;
+import com.evgeniyfedorchenko.hogwarts.repositories.CountedRows;
 import com.evgeniyfedorchenko.hogwarts.repositories.FacultyRepository;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentFilter;
 import com.evgeniyfedorchenko.hogwarts.repositories.StudentRepository;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentRow;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentSort;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 public class StudentServiceImpl implements StudentService {
@@ -30,6 +54,11 @@ public class StudentServiceImpl implements StudentService {
     private final AvatarService avatarService;
     private final StudentMapper studentMapper;
     private final FacultyMapper facultyMapper;
+    private final StudentStatistics studentStatistics;
+    private final StudentAnalyticsService studentAnalyticsService;
+    private final StudentDtoCache studentDtoCache;
+    private final Validator validator;
+    private final ObjectMapper objectMapper;
     private final Logger logger = LoggerFactory.getLogger(StudentServiceImpl.class);
 
 
@@ -37,37 +66,138 @@ public class StudentServiceImpl implements StudentService {
                               FacultyRepository facultyRepository,
                               AvatarService avatarService,
                               StudentMapper studentMapper,
-                              FacultyMapper facultyMapper) {
+                              FacultyMapper facultyMapper,
+                              StudentStatistics studentStatistics,
+                              StudentAnalyticsService studentAnalyticsService,
+                              StudentDtoCache studentDtoCache,
+                              Validator validator,
+                              ObjectMapper objectMapper) {
         this.studentRepository = studentRepository;
         this.facultyRepository = facultyRepository;
         this.avatarService = avatarService;
         this.studentMapper = studentMapper;
         this.facultyMapper = facultyMapper;
+        this.studentStatistics = studentStatistics;
+        this.studentAnalyticsService = studentAnalyticsService;
+        this.studentDtoCache = studentDtoCache;
+        this.validator = validator;
+        this.objectMapper = objectMapper;
     }
 
     @Override
     @Transactional
     public StudentOutputDto createStudent(StudentInputDto inputDto) {
-        Student student = fillStudent(inputDto, new Student());
+        Student student = new Student();
+        student.setName(inputDto.getName());
+        student.setAge(inputDto.getAge());
+        /* Только вставка строки students: факультет берется из кэша второго уровня (запроса к faculties нет)
+           и не изменяется, поэтому параллельные создания в один факультет ни за что не конкурируют.
+           Несуществующий факультет отсекается здесь же, до вставки, а не по отказу внешнего ключа.
+           Внешний ключ остается страховкой от факультета, удаленного между проверкой и коммитом:
+           такой коммит упадет с DataIntegrityViolationException, то есть 409 */
+        student.setFaculty(findFaculty(inputDto.getFacultyId()));
+
         Student savedStudent = studentRepository.save(student);
+        studentStatistics.studentAdded(savedStudent.getAge());
+        studentAnalyticsService.invalidate();
 
-        Faculty findedFaculty = findFaculty(inputDto.getFacultyId());
-        findedFaculty.addStudent(savedStudent);
-        facultyRepository.save(findedFaculty);
-        
         logger.info("New {} successfully saved", savedStudent);
         return studentMapper.toDto(savedStudent);
     }
 
+    @Override
+    @Transactional
+    public List<BatchItemResultDto<StudentOutputDto>> createStudents(List<StudentInputDto> inputDtos) {
+        if (inputDtos.size() > MAX_BATCH_SIZE) {
+            throw new InvalidRequestParameterException("Batch size must not exceed " + MAX_BATCH_SIZE);
+        }
+
+        Set<Long> facultyIds = inputDtos.stream()
+                .filter(Objects::nonNull)
+                .map(StudentInputDto::getFacultyId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Map<Long, Faculty> faculties = facultyRepository.findAllById(facultyIds).stream()
+                .collect(Collectors.toMap(Faculty::getId, Function.identity()));
+
+        List<BatchItemResultDto<StudentOutputDto>> results = new ArrayList<>(inputDtos.size());
+        List<Student> students = new ArrayList<>();
+        for (int i = 0; i < inputDtos.size(); i++) {
+            StudentInputDto inputDto = inputDtos.get(i);
+            List<String> errors = validate(inputDto);
+            if (errors.isEmpty() && !faculties.containsKey(inputDto.getFacultyId())) {
+                errors.add("FacultyId " + inputDto.getFacultyId() + " not found");
+            }
+            if (!errors.isEmpty()) {
+                results.add(BatchItemResultDto.rejected(i, errors));
+                continue;
+            }
+
+            Student student = new Student();
+            student.setName(inputDto.getName());
+            student.setAge(inputDto.getAge());
+            /* Студент добавляется только со стороны владельца связи: состав факультета (обратная сторона)
+               на БД не влияет, а его загрузка стоила бы запроса на каждый факультет */
+            student.setFaculty(faculties.get(inputDto.getFacultyId()));
+            students.add(student);
+            results.add(null);   // Заполняется после сохранения, когда известен id
+        }
+
+        // id выдаются при persist из уже выделенного блока последовательности, INSERT уйдут пачками при коммите
+        studentRepository.saveAll(students);
+
+        Iterator<Student> saved = students.iterator();
+        for (int i = 0; i < results.size(); i++) {
+            if (results.get(i) == null) {
+                results.set(i, BatchItemResultDto.created(i, studentMapper.toDto(saved.next())));
+            }
+        }
+
+        studentStatistics.studentsAdded(students.stream().map(Student::getAge).toList());
+        studentAnalyticsService.invalidate();
+        logger.info("{} of {} students successfully saved in batch", students.size(), inputDtos.size());
+        return results;
+    }
+
+    private List<String> validate(StudentInputDto inputDto) {
+        if (inputDto == null) {
+            return new ArrayList<>(List.of("Student must not be null"));
+        }
+        return validator.validate(inputDto).stream()
+                .map(ConstraintViolation::getMessage)
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+
     @Override
     public Optional<StudentOutputDto> findStudent(Long id) {
-        return studentRepository.findById(id)
-                .map(studentMapper::toDto);
+        // При промахе читается только строка students, без сущности и ее связей
+        return studentDtoCache.get(id, studentId -> studentRepository.findRowById(studentId).map(studentMapper::toDto));
+    }
+
+    @Override
+    public MultiGetResult<StudentOutputDto> findStudents(List<Long> ids) {
+        Set<Long> requestedIds = new LinkedHashSet<>(ids);
+        if (requestedIds.size() > MAX_MULTI_GET_IDS) {
+            throw new InvalidRequestParameterException("Number of ids must not exceed " + MAX_MULTI_GET_IDS);
+        }
+
+        Map<Long, StudentOutputDto> found = new HashMap<>(studentDtoCache.getAllPresent(requestedIds));
+        List<Long> missedIds = requestedIds.stream()
+                .filter(id -> !found.containsKey(id))
+                .toList();
+        // Все промахи кэша - один запрос по первичному ключу, без сущностей и факультетов
+        studentRepository.findRowsByIds(missedIds)
+                .forEach(row -> found.put(row.id(), studentMapper.toDto(row)));
+
+        logger.debug("Calling findStudents for {} ids: {} from cache, {} from DB, {} not found",
+                requestedIds.size(), requestedIds.size() - missedIds.size(),
+                found.size() - (requestedIds.size() - missedIds.size()), requestedIds.size() - found.size());
+        return MultiGetResult.inRequestOrder(requestedIds, found);
     }
 
     @Override
     @Transactional
-    public Optional<StudentOutputDto> updateStudent(Long id, StudentInputDto inputDto) {
+    public Optional<StudentOutputDto> updateStudent(Long id, StudentInputDto inputDto, Long expectedVersion) {
         if (id <= 0L) {
             return Optional.empty();
         }
@@ -77,13 +207,63 @@ public class StudentServiceImpl implements StudentService {
             logger.debug("StudentID {} not found for update", id);
             return Optional.empty();
         }
+        if (expectedVersion != null && studentById.get().getVersion() != expectedVersion) {
+            throw new PreconditionFailedException("Student %d has version %d, not %d"
+                    .formatted(id, studentById.get().getVersion(), expectedVersion));
+        }
+        int oldAge = studentById.get().getAge();
         Student student = fillStudent(inputDto, studentById.get());
-        studentRepository.save(student);
+        /* Изменение между проверкой выше и записью отловит сам @Version. Flush сразу, чтобы в ответе была новая версия */
+        studentRepository.saveAndFlush(student);
+        studentStatistics.ageChanged(oldAge, student.getAge());
+        studentDtoCache.evict(id);
+        studentAnalyticsService.invalidate();
         
         logger.info("{} successfully updated to {}", studentById.get(), student);
         return Optional.of(studentMapper.toDto(student));
     }
 
+    @Override
+    @Transactional
+    public Optional<StudentOutputDto> patchStudent(Long id, JsonNode patch, Long expectedVersion) {
+        if (id <= 0L) {
+            return Optional.empty();
+        }
+
+        // Факультет и аватар ленивые: читается только строка students
+        Optional<Student> studentById = studentRepository.findById(id);
+        if (studentById.isEmpty()) {
+            logger.debug("StudentID {} not found for patch", id);
+            return Optional.empty();
+        }
+        Student student = studentById.get();
+        if (expectedVersion != null && student.getVersion() != expectedVersion) {
+            throw new PreconditionFailedException("Student %d has version %d, not %d"
+                    .formatted(id, student.getVersion(), expectedVersion));
+        }
+
+        StudentInputDto patched = MergePatches.apply(objectMapper, validator, patch, studentMapper.toInputDto(student));
+        long versionBefore = student.getVersion();
+        int oldAge = student.getAge();
+
+        /* Одинаковые значения Hibernate грязными не считает, а с @DynamicUpdate в UPDATE попадают только
+           измененные колонки. Факультет ищется, только если он действительно меняется */
+        student.setName(patched.getName());
+        student.setAge(patched.getAge());
+        if (!patched.getFacultyId().equals(student.getFaculty().getId())) {
+            student.setFaculty(findFaculty(patched.getFacultyId()));
+        }
+        studentRepository.flush();
+
+        if (student.getVersion() != versionBefore) {
+            studentStatistics.ageChanged(oldAge, student.getAge());
+            studentDtoCache.evict(id);
+            studentAnalyticsService.invalidate();
+            logger.info("{} successfully patched", student);
+        }
+        return Optional.of(studentMapper.toDto(student));
+    }
+
     private Student fillStudent(StudentInputDto src, Student dest) {
 
         Faculty findedFaculty = findFaculty(src.getFacultyId());
@@ -94,24 +274,101 @@ public class StudentServiceImpl implements StudentService {
 
 //          dest.getFaculty() может быть null, если мы пришли сюда из метода create()
         if (dest.getFaculty() != null && !dest.getFaculty().equals(findedFaculty)) {
-            facultyRepository.save(dest.getFaculty().removeStudent(dest));
-            facultyRepository.save(findedFaculty.addStudent(dest));
             logger.debug("At {} changed faculty from {} to {}", dest, dest.getFaculty(), findedFaculty);
-        } else {
-            dest.setFaculty(findedFaculty);
         }
+        /* Связь меняется только со стороны студента, как и в createStudents(): составы факультетов
+           на БД не влияют, а их загрузка стоила бы чтения всех студентов обоих факультетов */
+        dest.setFaculty(findedFaculty);
         return dest;
     }
 
     @Override
-    @Transactional
-    public List<StudentOutputDto> searchStudents(String sortParam, SortOrder sortOrder, int pageNumber, int pageSize) {
-        int offset = (pageNumber - 1) * pageSize;
-        List<Student> students = sortOrder == SortOrder.ASC
-                ? studentRepository.findLastStudentsAscSort(sortParam, pageSize, offset)
-                : studentRepository.findLastStudentsDescSort(sortParam, pageSize, offset);
-        logger.debug("Calling searchStudents with params: sortParam={}, sortOrder={}, pageNumber={}, pageSize={} returned student's ids: {}",
-                sortParam, sortOrder, pageNumber, pageSize, students.stream().map(Student::getId).toList());
+    @Transactional(readOnly = true)
+    public StudentsPage searchStudents(StudentSort sort, int pageNumber, int pageSize, String cursor, TotalCountMode countMode,
+                                       SparseFieldset fields) {
+        List<StudentRow> students;
+        Long totalCount = null;
+
+        if (cursor != null) {
+            StudentCursor currentCursor = StudentCursor.decode(cursor);
+            sort = currentCursor.sort();
+            students = studentRepository.findPageAfter(currentCursor, pageSize);
+//            Окно в keyset-запросе посчитало бы только строки после курсора, поэтому точное количество - отдельным запросом
+            if (countMode == TotalCountMode.EXACT) {
+                totalCount = studentRepository.count();
+            }
+        } else if (countMode == TotalCountMode.EXACT) {
+            long offset = (long) (pageNumber - 1) * pageSize;
+            CountedRows countedRows = studentRepository.findCountedPage(sort, pageSize, offset);
+            students = countedRows.rows();
+            totalCount = countedRows.totalCount();
+        } else {
+            long offset = (long) (pageNumber - 1) * pageSize;
+            students = studentRepository.findPage(sort, pageSize, offset);
+        }
+        if (countMode == TotalCountMode.ESTIMATED) {
+            totalCount = studentStatistics.getCount();
+        }
+        logger.debug("Calling searchStudents with params: sort={}, pageNumber={}, pageSize={}, cursor={} returned student's ids: {}",
+                sort, pageNumber, pageSize, cursor, students.stream().map(StudentRow::id).toList());
+        return StudentsPage.of(students, sort, pageSize, row -> studentMapper.toDto(row, fields), totalCount);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public StudentsPage queryStudents(StudentFilter filter, StudentSort sort, int pageNumber, int pageSize, String cursor,
+                                      TotalCountMode countMode, SparseFieldset fields) {
+        if (filter.minAge() != null && filter.maxAge() != null && filter.minAge() > filter.maxAge()) {
+            throw new InvalidRequestParameterException("minAge must not be greater than maxAge");
+        }
+        List<StudentRow> students;
+
+        if (cursor != null) {
+            StudentCursor currentCursor = StudentCursor.decode(cursor);
+            sort = currentCursor.sort();
+            students = studentRepository.findPageByFilterAfter(filter, currentCursor, pageSize);
+        } else {
+            long offset = (long) (pageNumber - 1) * pageSize;
+            students = studentRepository.findPageByFilter(filter, sort, pageSize, offset);
+        }
+        logger.debug("Calling queryStudents with params: filter={}, sort={}, pageNumber={}, pageSize={}, cursor={} returned student's ids: {}",
+                filter, sort, pageNumber, pageSize, cursor, students.stream().map(StudentRow::id).toList());
+
+        Long totalCount = switch (countMode) {
+            case NONE -> null;
+            case EXACT -> studentRepository.countByFilter(filter);
+            case ESTIMATED -> estimateCount(filter);
+        };
+        return StudentsPage.of(students, sort, pageSize, row -> studentMapper.toDto(row, fields), totalCount);
+    }
+
+    /* Для фильтра только по возрасту количество берется из гистограммы возрастов в памяти.
+       Для остальных условий дешевой оценки нет, и количество считается точно */
+    private long estimateCount(StudentFilter filter) {
+        if (!filter.restrictsOnlyAge()) {
+            return studentRepository.countByFilter(filter);
+        }
+        int minAge = filter.minAge() == null ? Integer.MIN_VALUE : filter.minAge();
+        int maxAge = filter.maxAge() == null ? Integer.MAX_VALUE : filter.maxAge();
+        return studentStatistics.getSnapshot().ageHistogram()
+                .subMap(minAge, true, maxAge, true)
+                .values().stream()
+                .mapToLong(Long::longValue)
+                .sum();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<StudentOutputDto> searchStudentsByName(String query, int pageNumber, int pageSize) {
+        String pattern = query.replace("\\", "\\\\")
+                .replace("%", "\\%")
+                .replace("_", "\\_");
+        long offset = (long) (pageNumber - 1) * pageSize;
+
+        List<StudentRow> students = studentRepository.findByNameSimilarity(query, pattern, pageSize, offset);
+        logger.debug("Calling searchStudentsByName with params: query={}, pageNumber={}, pageSize={} returned student's ids: {}",
+                query, pageNumber, pageSize, students.stream().map(StudentRow::id).toList());
+
         return students.stream()
                 .map(studentMapper::toDto)
                 .toList();
@@ -119,19 +376,19 @@ public class StudentServiceImpl implements StudentService {
 
     @Override
     public Double getAverageAge() {
-        return studentRepository.getAverageAge();
+        return studentStatistics.getAverageAge();
     }
 
     @Override
     public Long getNumberOfStudents() {
-        return studentRepository.count();
+        return studentStatistics.getCount();
     }
 
     @Override
     @Transactional
     public Optional<Student> deleteStudent(Long id) {
 
-        Optional<Student> studentOpt = studentRepository.findById(id);
+        Optional<Student> studentOpt = studentRepository.findWithFacultyById(id);
         if (studentOpt.isEmpty()) {
             logger.debug("StudentID {} not found for delete", id);
             return Optional.empty();
@@ -141,49 +398,50 @@ public class StudentServiceImpl implements StudentService {
         if (student.getAvatar() != null) {
             avatarService.deleteAvatar((student));
         }
-        facultyRepository.findById(student.getFaculty().getId())
-                .ifPresent(faculty -> facultyRepository.save(faculty.removeStudent(student)));
-
-        studentRepository.deleteById(student.getId());
+        /* Состав факультета не трогаем: Faculty.students - обратная сторона связи и в БД ничего не меняет,
+           а его загрузка стоила бы чтения всех студентов факультета */
+        studentRepository.delete(student);
+        studentStatistics.studentRemoved(student.getAge());
+        studentDtoCache.evict(id);
+        studentAnalyticsService.invalidate();
         logger.info("{} successfully deleted", student);
         return studentOpt;
     }
 
 
     @Override
-    @Transactional   // Нужно вытагивать еще и аватары
     public List<StudentOutputDto> findStudentsByAge(int age, int upTo) {
-        List<Student> students = upTo == -1L
-                ? studentRepository.findByAge(age)
-                : studentRepository.findByAgeBetween(age, upTo);
+        List<StudentRow> students = upTo == -1L
+                ? studentRepository.findRowsByAge(age)
+                : studentRepository.findRowsByAgeBetween(age, upTo);
 
         logger.debug("Calling searchStudents with params: age={}, upTo={} returned student's ids: {}",
-                age, upTo, students.stream().map(Student::getId).toList());
+                age, upTo, students.stream().map(StudentRow::id).toList());
 
         return students.stream().map(studentMapper::toDto).toList();
     }
 
     @Override
     public Optional<FacultyOutputDto> getFaculty(Long studentId) {
-        Optional<Faculty> facultyOpt = studentRepository.findById(studentId)
-                .map(Student::getFaculty);
+        Optional<Faculty> facultyOpt = facultyRepository.findByStudentId(studentId);
         if (facultyOpt.isEmpty()) {
 //        Используется warn потому что не предусмотрены студенты без факультетов
         logger.warn("StudentID {} doesn't have faculty", studentId);
         return Optional.empty();
         }
-        return facultyOpt.map(facultyMapper::toDto);
+        return facultyOpt.map(faculty -> facultyMapper.toDto(faculty, studentRepository.countByFaculty_Id(faculty.getId())));
 
     }
 
     @Override
     public boolean setAvatar(Long studentId, MultipartFile avatarFile) {
-        Student student = studentRepository.findById(studentId).orElseThrow(() -> {
+        Student student = studentRepository.findWithFacultyById(studentId).orElseThrow(() -> {
                     logger.error("Filed to find studentID {} for set Avatar", studentId);
                     throw new EntityNotFoundException("Student with ID " + studentId + " not found for set Avatar");
                 });
 
         boolean resultOfSaving = avatarService.downloadToLocal(student, avatarFile) && avatarService.downloadToDb(student, avatarFile);
+        studentDtoCache.evict(studentId);   // У студента появилась ссылка на аватар
         logger.info("Successful saving avatar and set its to {}", student);
         return resultOfSaving;
 
@@ -0,0 +1,260 @@
+package com.evgeniyfedorchenko.hogwarts.services;
+
+import com.evgeniyfedorchenko.hogwarts.repositories.AgeCount;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Статистика по студентам, которая поддерживается в памяти и отвечает без обращения к БД.
+ * Сервисы сообщают о каждом добавлении, удалении и смене возраста студента, а изменения применяются
+ * только после коммита транзакции, чтобы откаченные операции не портили счетчики.
+ * Записи в обход сервисов (например, прямо в БД) подхватываются периодической сверкой {@link #reconcile()}
+ */
+@Component
+public class StudentStatistics {
+
+    /**
+     * Неизменяемый срез статистики. Читатели получают его целиком, без блокировок
+     *
+     * @param ageHistogram - количество студентов каждого возраста, по возрастанию возраста
+     */
+    public record Snapshot(long count, long ageSum, Integer minAge, Integer maxAge,
+                           NavigableMap<Integer, Long> ageHistogram) {
+
+        private static final Snapshot EMPTY = new Snapshot(0, 0, null, null, Collections.emptyNavigableMap());
+
+        /**
+         * @return - средний возраст или {@code null}, если студентов нет (как {@code AVG} в SQL)
+         */
+        public Double averageAge() {
+            return count == 0 ? null : (double) ageSum / count;
+        }
+    }
+
+    /**
+     * Сколько сверок подряд можно пропустить из-за параллельных изменений, прежде чем сверить статистику с паузой изменений
+     */
+    static final int MAX_SKIPPED_RECONCILES = 3;
+
+    /**
+     * Сколько сверка с паузой ждет завершения уже начатых изменений. Новые изменения все это время ждут сверку
+     */
+    static final Duration PAUSE_TIMEOUT = Duration.ofSeconds(2);
+
+    private final StudentRepository studentRepository;
+    private final Logger logger = LoggerFactory.getLogger(StudentStatistics.class);
+
+    /* Изменяемое состояние защищено монитором this. После каждого изменения из него собирается новый Snapshot,
+       поэтому чтение - это одно обращение к volatile-полю */
+    private final TreeMap<Integer, Long> histogram = new TreeMap<>();
+    private long count;
+    private long ageSum;
+    /* Изменения считаются с момента, когда сервис о них сообщил, то есть еще внутри транзакции, до коммита.
+       Считать только примененные нельзя: транзакция может закоммититься до запроса сверки, а применить
+       изменения после нее, и сверка, уже увидевшая эти строки, учла бы их второй раз */
+    private long modificationsStarted;
+    private long modificationsInFlight;
+    private int skippedReconciles;
+    private boolean paused;
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    public StudentStatistics(StudentRepository studentRepository) {
+        this.studentRepository = studentRepository;
+    }
+
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public long getCount() {
+        return snapshot.count();
+    }
+
+    public Double getAverageAge() {
+        return snapshot.averageAge();
+    }
+
+    public void studentAdded(int age) {
+        modify(List.of(new AgeCount(age, 1)));
+    }
+
+    public void studentsAdded(List<Integer> ages) {
+        modify(ages.stream().map(age -> new AgeCount(age, 1)).toList());
+    }
+
+    /**
+     * Для set-based вставок, когда известно только количество добавленных студентов каждого возраста
+     */
+    public void ageGroupsAdded(List<AgeCount> ageCounts) {
+        modify(ageCounts);
+    }
+
+    public void studentRemoved(int age) {
+        modify(List.of(new AgeCount(age, -1)));
+    }
+
+    /**
+     * Для set-based удалений, когда известно только количество удаленных студентов каждого возраста
+     */
+    public void ageGroupsRemoved(List<AgeCount> ageCounts) {
+        modify(ageCounts.stream()
+                .map(ageCount -> new AgeCount(ageCount.age(), -ageCount.count()))
+                .toList());
+    }
+
+    public void ageChanged(int oldAge, int newAge) {
+        if (oldAge != newAge) {
+            modify(List.of(new AgeCount(oldAge, -1), new AgeCount(newAge, 1)));
+        }
+    }
+
+    /**
+     * Пересчитывает статистику по БД одним запросом {@code GROUP BY age}. Выполняется при старте и далее периодически.
+     * Если до запроса остались незавершенные транзакции с изменениями или новые начались, пока он шел,
+     * то неизвестно, какие из них запрос увидел, поэтому его результат отбрасывается до следующей сверки.
+     * Под постоянной нагрузкой так можно не сверяться никогда, поэтому после {@link #MAX_SKIPPED_RECONCILES}
+     * пропусков подряд сверка ставит изменения на паузу: новые ждут, пока начатые завершатся и пройдет запрос
+     */
+    @Scheduled(fixedDelayString = "${students.statistics.reconcile-delay:300000}")
+    public void reconcile() {
+        if (tryReconcile()) {
+            return;
+        }
+        synchronized (this) {
+            if (++skippedReconciles < MAX_SKIPPED_RECONCILES) {
+                return;
+            }
+            logger.warn("Student statistics reconcile skipped {} times in a row, reconciling with changes paused",
+                    skippedReconciles);
+            reconcilePaused();
+        }
+    }
+
+    private boolean tryReconcile() {
+        long startedBefore;
+        synchronized (this) {
+            if (modificationsInFlight > 0) {
+                logger.debug("Student statistics reconcile skipped: {} changes are not completed yet", modificationsInFlight);
+                return false;
+            }
+            startedBefore = modificationsStarted;
+        }
+
+        List<AgeCount> ageCounts = studentRepository.countGroupedByAge();
+
+        synchronized (this) {
+            if (modificationsStarted != startedBefore) {
+                logger.debug("Student statistics reconcile skipped: {} changes were started during the query",
+                        modificationsStarted - startedBefore);
+                return false;
+            }
+            replaceWith(ageCounts);
+            return true;
+        }
+    }
+
+    /* Монитор держится все время, кроме ожидания: пока paused, modify() не пускает новые изменения.
+       Транзакция, которая уже внесла изменение и вносит следующее, ждет сверку, а сверка ждет ее,
+       поэтому ожидание ограничено PAUSE_TIMEOUT, после чего сверка откладывается до следующего раза */
+    private synchronized void reconcilePaused() {
+        paused = true;
+        try {
+            long deadline = System.nanoTime() + PAUSE_TIMEOUT.toNanos();
+            while (modificationsInFlight > 0) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    logger.warn("Student statistics reconcile postponed: {} changes were not completed in {}",
+                            modificationsInFlight, PAUSE_TIMEOUT);
+                    return;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, left);
+            }
+//            Незавершенных изменений нет, а новые не начнутся до конца запроса: он видит ровно то, что учли счетчики
+            replaceWith(studentRepository.countGroupedByAge());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            paused = false;
+            notifyAll();
+        }
+    }
+
+    private void replaceWith(List<AgeCount> ageCounts) {
+        long countBefore = count;
+        histogram.clear();
+        count = 0;
+        ageSum = 0;
+        ageCounts.forEach(ageCount -> {
+            histogram.put(ageCount.age(), ageCount.count());
+            count += ageCount.count();
+            ageSum += (long) ageCount.age() * ageCount.count();
+        });
+        skippedReconciles = 0;
+        publish();
+
+        if (countBefore != count) {
+            logger.info("Student statistics reconciled with DB: count {} -> {}", countBefore, count);
+        }
+    }
+
+    /* Вызывается внутри транзакции, которая меняет студентов, - до ее коммита, а не после.
+       Изменения применяются после коммита, а после коммита или отката транзакция перестает считаться незавершенной */
+    private void modify(List<AgeCount> deltas) {
+        synchronized (this) {
+            awaitUnpaused();
+            modificationsStarted++;
+            modificationsInFlight++;
+        }
+        TransactionCallbacks.afterCommit(() -> applyDeltas(deltas));
+        TransactionCallbacks.afterCompletion(this::modificationCompleted);
+    }
+
+    private synchronized void modificationCompleted() {
+        modificationsInFlight--;
+        if (paused && modificationsInFlight == 0) {
+            notifyAll();
+        }
+    }
+
+    // Прерывание не отменяет изменение: оно уже сделано в БД, и счетчики должны о нем узнать
+    private void awaitUnpaused() {
+        boolean interrupted = false;
+        while (paused) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // AgeCount здесь - изменение количества студентов данного возраста, может быть отрицательным
+    private synchronized void applyDeltas(List<AgeCount> deltas) {
+        deltas.forEach(delta -> {
+            histogram.merge(delta.age(), delta.count(), (current, change) -> current + change == 0 ? null : current + change);
+            count += delta.count();
+            ageSum += (long) delta.age() * delta.count();
+        });
+        publish();
+    }
+
+    private void publish() {
+        snapshot = histogram.isEmpty()
+                ? Snapshot.EMPTY
+                : new Snapshot(count, ageSum, histogram.firstKey(), histogram.lastKey(),
+                               Collections.unmodifiableNavigableMap(new TreeMap<>(histogram)));
+    }
+}
@@ -0,0 +1,42 @@
+package com.evgeniyfedorchenko.hogwarts.services;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Откладывает действия над состоянием в памяти до коммита текущей транзакции,
+ * чтобы откаченные изменения БД в него не попадали
+ */
+final class TransactionCallbacks {
+
+    private TransactionCallbacks() {
+    }
+
+    // Вне транзакции (или при ее отсутствии в тестах) действие выполняется сразу
+    static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    // Выполняется и после коммита, и после отката (после всех afterCommit). Вне транзакции - сразу
+    static void afterCompletion(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                action.run();
+            }
+        });
+    }
+}
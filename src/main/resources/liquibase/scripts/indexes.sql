@@ -4,4 +4,75 @@
 CREATE INDEX student_name_idx ON students (name);
 
 -- changeset evgeniy-fedorchenko:2
-CREATE INDEX faculty_name_color_idx ON faculties (name, color);
\ No newline at end of file
+CREATE INDEX faculty_name_color_idx ON faculties (name, color);
+
+-- changeset evgeniy-fedorchenko:3
+CREATE INDEX student_name_id_idx ON students (name, id);
+
+-- changeset evgeniy-fedorchenko:4
+CREATE INDEX student_age_id_idx ON students (age, id);
+
+-- changeset evgeniy-fedorchenko:5
+-- Сортировка по имени факультета: nested loop по faculties в порядке имени + students по (faculty_id, id)
+CREATE INDEX student_faculty_id_id_idx ON students (faculty_id, id);
+
+-- changeset evgeniy-fedorchenko:6
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+-- changeset evgeniy-fedorchenko:7
+-- B-tree student_name_idx не помогает ни поиску по подстроке, ни поиску с опечатками
+CREATE INDEX student_name_trgm_idx ON students USING gin (name gin_trgm_ops);
+
+-- changeset evgeniy-fedorchenko:8
+-- IDENTITY не дает Hibernate батчить вставки: id каждой строки нужен сразу после INSERT.
+-- Последовательности выдают id блоками по 50 (оптимизатор pooled-lo), а DEFAULT оставляет их и для вставок в обход Hibernate
+CREATE SEQUENCE IF NOT EXISTS students_seq INCREMENT BY 50;
+SELECT setval('students_seq', (SELECT coalesce(max(id), 0) + 1 FROM students), false);
+ALTER TABLE students ALTER COLUMN id DROP IDENTITY IF EXISTS;
+ALTER TABLE students ALTER COLUMN id SET DEFAULT nextval('students_seq');
+ALTER SEQUENCE students_seq OWNED BY students.id;
+
+CREATE SEQUENCE IF NOT EXISTS faculties_seq INCREMENT BY 50;
+SELECT setval('faculties_seq', (SELECT coalesce(max(id), 0) + 1 FROM faculties), false);
+ALTER TABLE faculties ALTER COLUMN id DROP IDENTITY IF EXISTS;
+ALTER TABLE faculties ALTER COLUMN id SET DEFAULT nextval('faculties_seq');
+ALTER SEQUENCE faculties_seq OWNED BY faculties.id;
+
+-- changeset evgeniy-fedorchenko:9
+-- Версии строк для ETag и If-Match. DEFAULT now() вычисляется один раз, поэтому ADD COLUMN не переписывает таблицы
+ALTER TABLE students ADD COLUMN version bigint NOT NULL DEFAULT 0;
+ALTER TABLE students ADD COLUMN updated_at timestamptz NOT NULL DEFAULT now();
+ALTER TABLE faculties ADD COLUMN version bigint NOT NULL DEFAULT 0;
+ALTER TABLE faculties ADD COLUMN updated_at timestamptz NOT NULL DEFAULT now();
+
+-- changeset evgeniy-fedorchenko:10
+-- Состав факультета с сортировкой по имени или возрасту: страница читается из индекса уже упорядоченной
+CREATE INDEX student_faculty_id_name_id_idx ON students (faculty_id, name, id);
+CREATE INDEX student_faculty_id_age_id_idx ON students (faculty_id, age, id);
+
+-- changeset evgeniy-fedorchenko:11
+-- Аудит индексов. students.faculty_id (в том числе для проверки внешнего ключа при удалении факультета) и students.age
+-- уже покрыты составными (faculty_id, id) и (age, id), а student_name_idx - префикс student_name_id_idx и только замедляет запись.
+-- Не хватало индекса по students.avatar_id: по нему Hibernate находит студента аватара (обратная сторона @OneToOne)
+-- и соединяет аватары со студентами в GET /students/avatars. Индекс частичный: у большинства студентов аватара нет
+DROP INDEX IF EXISTS student_name_idx;
+CREATE INDEX IF NOT EXISTS student_avatar_id_idx ON students (avatar_id) WHERE avatar_id IS NOT NULL;
+
+-- changeset evgeniy-fedorchenko:12 splitStatements:false
+-- Создание студента проверяет факультет по кэшу второго уровня, до вставки. Внешний ключ - только страховка
+-- от факультета, удаленного между этой проверкой и коммитом: такая вставка отклоняется, а не ссылается в никуда.
+-- Схема создавалась Hibernate, поэтому ключ добавляется, только если его еще нет
+DO $$
+BEGIN
+    IF NOT EXISTS (SELECT 1 FROM pg_constraint
+                   WHERE conrelid = 'students'::regclass AND confrelid = 'faculties'::regclass AND contype = 'f') THEN
+        ALTER TABLE students ADD CONSTRAINT student_faculty_id_fk FOREIGN KEY (faculty_id) REFERENCES faculties (id);
+    END IF;
+END $$;
+
+-- changeset evgeniy-fedorchenko:13
+-- Поиск по имени упорядочен по расстоянию s.name <->> :query. GIN не умеет отдавать строки в порядке расстояния,
+-- и все совпадения сортировались целиком ради одной страницы. GiST отдает их по порядку (KNN), а подстроку и похожесть
+-- проверяет так же, как GIN, поэтому GIN-индекс удаляется
+CREATE INDEX student_name_trgm_gist_idx ON students USING gist (name gist_trgm_ops);
+DROP INDEX IF EXISTS student_name_trgm_idx;
@@ -0,0 +1,104 @@
+package com.evgeniyfedorchenko.hogwarts;
+
+import com.evgeniyfedorchenko.hogwarts.entities.Color;
+import com.evgeniyfedorchenko.hogwarts.entities.Faculty;
+import com.evgeniyfedorchenko.hogwarts.repositories.FacultyRepository;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentRepository;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
+
+/**
+ * Общая основа тестов на настоящей БД: контейнер PostgreSQL, подключение к нему и заполнение данными.
+ * Наследники добавляют только свои настройки (собственным {@link DynamicPropertySource}) и то, что проверяют.
+ * Параметры драйвера задаются через {@code spring.datasource.hikari.data-source-properties.*}, а не в URL,
+ * потому что порядок применения {@link DynamicPropertySource} родителя и наследника не определен
+ */
+public abstract class PostgresIntegrationTest {
+
+    /* Один контейнер на все тестовые классы. Закешированные Spring контексты держат соединения к нему,
+       поэтому контейнер не останавливается после каждого класса, а живет до конца JVM.
+       Соединений с запасом: пулы всех закешированных контекстов открыты одновременно */
+    protected static final PostgreSQLContainer<?> postgresContainer =
+            new PostgreSQLContainer<>("postgres:latest")
+                    .withCommand("postgres", "-c", "max_connections=300");
+
+    static {
+        postgresContainer.start();
+    }
+
+    @Autowired
+    protected FacultyRepository facultyRepository;
+    @Autowired
+    protected StudentRepository studentRepository;
+    @Autowired
+    protected JdbcTemplate jdbcTemplate;
+    @Autowired
+    protected EntityManagerFactory entityManagerFactory;
+
+    @DynamicPropertySource
+    static void configurePostgres(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", postgresContainer::getJdbcUrl);
+        registry.add("spring.datasource.username", postgresContainer::getUsername);
+        registry.add("spring.datasource.password", postgresContainer::getPassword);
+        registry.add("spring.jpa.generate-ddl", () -> true);
+        registry.add("spring.jpa.properties.hibernate.generate_statistics", () -> true);
+    }
+
+    protected Faculty saveFaculty(String name, Color color) {
+        Faculty faculty = new Faculty();
+        faculty.setName(name);
+        faculty.setColor(color);
+        return facultyRepository.save(faculty);
+    }
+
+    /**
+     * Сохраняет факультеты "Faculty0", "Faculty1"... с разными цветами
+     *
+     * @param count - не больше количества цветов
+     */
+    protected List<Faculty> saveFaculties(int count) {
+        return facultyRepository.saveAll(IntStream.range(0, count)
+                .mapToObj(i -> {
+                    Faculty faculty = new Faculty();
+                    faculty.setName("Faculty" + i);
+                    faculty.setColor(Color.values()[i]);
+                    return faculty;
+                })
+                .toList());
+    }
+
+    /**
+     * Вставляет студентов "Student0", "Student1"... в каждый факультет одним пакетом JDBC, без сущностей
+     *
+     * @param ageOf - возраст студента по его номеру в факультете
+     */
+    protected void insertStudents(List<Faculty> faculties, int studentsPerFaculty, IntUnaryOperator ageOf) {
+        List<Object[]> students = faculties.stream()
+                .flatMap(faculty -> IntStream.range(0, studentsPerFaculty)
+                        .mapToObj(i -> new Object[]{"Student" + i, ageOf.applyAsInt(i), faculty.getId()}))
+                .toList();
+        jdbcTemplate.batchUpdate("INSERT INTO students (id, name, age, faculty_id, version) VALUES (nextval('students_seq'), ?, ?, ?, 0)", students);
+    }
+
+    /**
+     * Удаляет всех студентов и факультеты двумя DELETE, без загрузки сущностей
+     */
+    protected void deleteStudentsAndFaculties() {
+        studentRepository.deleteAllInBatch();
+        facultyRepository.deleteAllInBatch();
+    }
+
+    protected Statistics statistics() {
+        return entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+}
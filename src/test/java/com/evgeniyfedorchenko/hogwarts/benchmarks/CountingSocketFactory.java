@@ -0,0 +1,86 @@
+package com.evgeniyfedorchenko.hogwarts.benchmarks;
+
+import javax.net.SocketFactory;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Фабрика сокетов для драйвера PostgreSQL (параметр {@code socketFactory} в JDBC URL),
+ * которая считает байты, полученные от сервера БД
+ */
+public class CountingSocketFactory extends SocketFactory {
+
+    public static final AtomicLong BYTES_READ = new AtomicLong();
+
+    @Override
+    public Socket createSocket() {
+        return new CountingSocket();
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        Socket socket = createSocket();
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        Socket socket = createSocket();
+        socket.bind(new InetSocketAddress(localHost, localPort));
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        Socket socket = createSocket();
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+        Socket socket = createSocket();
+        socket.bind(new InetSocketAddress(localAddress, localPort));
+        socket.connect(new InetSocketAddress(address, port));
+        return socket;
+    }
+
+    private static class CountingSocket extends Socket {
+
+        private InputStream countingStream;
+
+        @Override
+        public synchronized InputStream getInputStream() throws IOException {
+            if (countingStream == null) {
+                countingStream = new FilterInputStream(super.getInputStream()) {
+
+                    @Override
+                    public int read() throws IOException {
+                        int b = super.read();
+                        if (b != -1) {
+                            BYTES_READ.incrementAndGet();
+                        }
+                        return b;
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        int read = super.read(b, off, len);
+                        if (read > 0) {
+                            BYTES_READ.addAndGet(read);
+                        }
+                        return read;
+                    }
+                };
+            }
+            return countingStream;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.evgeniyfedorchenko.hogwarts.benchmarks;
+
+import com.evgeniyfedorchenko.hogwarts.PostgresIntegrationTest;
+import com.evgeniyfedorchenko.hogwarts.dto.FacultyInputDto;
+import com.evgeniyfedorchenko.hogwarts.dto.FacultyOutputDto;
+import com.evgeniyfedorchenko.hogwarts.dto.SparseFieldset;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentInputDto;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentOutputDto;
+import com.evgeniyfedorchenko.hogwarts.entities.Color;
+import com.evgeniyfedorchenko.hogwarts.entities.Faculty;
+import com.evgeniyfedorchenko.hogwarts.services.FacultyService;
+import com.evgeniyfedorchenko.hogwarts.services.StudentService;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Кэш второго уровня для факультетов: поиск факультета при изменении студентов не доходит до БД,
+ * а изменение и удаление факультета сразу видны следующим чтениям
+ */
+@SpringBootTest
+public class FacultyCacheBenchmarkTest extends PostgresIntegrationTest {
+
+    private static final int STUDENTS = 200;
+
+    @Autowired
+    private StudentService studentService;
+    @Autowired
+    private FacultyService facultyService;
+
+    private final Logger logger = LoggerFactory.getLogger(FacultyCacheBenchmarkTest.class);
+    private Faculty faculty;
+
+    @DynamicPropertySource
+    static void configureCache(DynamicPropertyRegistry registry) {
+        registry.add("spring.jpa.properties.hibernate.cache.use_second_level_cache", () -> true);
+        registry.add("spring.jpa.properties.hibernate.cache.use_query_cache", () -> true);
+        registry.add("spring.jpa.properties.hibernate.cache.region.factory_class", () -> "jcache");
+        registry.add("spring.jpa.properties.hibernate.javax.cache.provider",
+                () -> "com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider");
+        registry.add("spring.jpa.properties.hibernate.javax.cache.missing_cache_strategy", () -> "create");
+    }
+
+    @BeforeEach
+    public void beforeEach() {
+        faculty = saveFaculty("Gryffindor", Color.RED_GOLD);
+    }
+
+    @AfterEach
+    public void afterEach() {
+        studentRepository.deleteAllInBatch();
+        facultyRepository.deleteAll();
+    }
+
+    @Test
+    void facultyLookupsAreServedFromCacheTest() {
+        StudentOutputDto student = studentService.createStudent(studentInput(0));
+        studentService.updateStudent(student.getId(), studentInput(0), null);   // Прогрев
+        Statistics statistics = statistics();
+        statistics.clear();
+
+        for (int i = 1; i <= STUDENTS; i++) {
+            studentService.updateStudent(student.getId(), studentInput(i), null);
+        }
+
+        long facultiesLoaded = statistics.getEntityStatistics(Faculty.class.getName()).getLoadCount();
+        long cacheHits = statistics.getDomainDataRegionStatistics("faculties").getHitCount();
+        logger.info("{} student updates: {} faculties loaded from DB, {} faculty cache hits",
+                STUDENTS, facultiesLoaded, cacheHits);
+
+        assertThat(facultiesLoaded).isZero();
+        assertThat(cacheHits).isGreaterThanOrEqualTo(STUDENTS);
+        assertThat(studentRepository.findById(student.getId()).orElseThrow().getName()).isEqualTo("Student" + STUDENTS);
+    }
+
+    @Test
+    void facultySearchIsServedFromQueryCacheTest() {
+        facultyService.findFacultyByColorOrPartName(Color.RED_GOLD, "gryff", SparseFieldset.ALL);   // Прогрев
+        Statistics statistics = statistics();
+        statistics.clear();
+
+        List<FacultyOutputDto> found = facultyService.findFacultyByColorOrPartName(Color.RED_GOLD, "gryff", SparseFieldset.ALL);
+
+        assertThat(found).extracting(FacultyOutputDto::getName).containsExactly("Gryffindor");
+        assertThat(statistics.getQueryCacheHitCount()).isEqualTo(1);
+        assertThat(statistics.getEntityStatistics(Faculty.class.getName()).getLoadCount()).isZero();
+    }
+
+    @Test
+    void updateAndDeleteAreVisibleThroughCacheTest() {
+        assertThat(facultyService.findFaculty(faculty.getId(), SparseFieldset.ALL)).isPresent();
+        assertThat(facultyService.findFacultyByColorOrPartName(null, "gryff", SparseFieldset.ALL)).hasSize(1);
+
+        FacultyInputDto inputDto = new FacultyInputDto();
+        inputDto.setName("Slytherin");
+        inputDto.setColor(Color.GREEN_SILVER);
+        facultyService.updateFaculty(faculty.getId(), inputDto, null);
+
+        assertThat(facultyService.findFaculty(faculty.getId(), SparseFieldset.ALL))
+                .map(FacultyOutputDto::getName)
+                .contains("Slytherin");
+        assertThat(facultyService.findFacultyByColorOrPartName(null, "gryff", SparseFieldset.ALL)).isEmpty();
+
+        facultyService.deleteFaculty(faculty.getId());
+
+        assertThat(facultyService.findFaculty(faculty.getId(), SparseFieldset.ALL)).isEmpty();
+        assertThat(facultyService.findFacultyByColorOrPartName(null, "slyth", SparseFieldset.ALL)).isEmpty();
+    }
+
+    private StudentInputDto studentInput(int i) {
+        StudentInputDto inputDto = new StudentInputDto();
+        inputDto.setName("Student" + i);
+        inputDto.setAge(16 + i % 10);
+        inputDto.setFacultyId(faculty.getId());
+        return inputDto;
+    }
+}
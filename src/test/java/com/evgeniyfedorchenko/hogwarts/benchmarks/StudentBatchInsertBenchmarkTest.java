@@ -0,0 +1,118 @@
+package com.evgeniyfedorchenko.hogwarts.benchmarks;
+
+import com.evgeniyfedorchenko.hogwarts.PostgresIntegrationTest;
+import com.evgeniyfedorchenko.hogwarts.dto.BatchItemResultDto;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentInputDto;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentOutputDto;
+import com.evgeniyfedorchenko.hogwarts.entities.Color;
+import com.evgeniyfedorchenko.hogwarts.entities.Faculty;
+import com.evgeniyfedorchenko.hogwarts.services.StudentService;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Пакетное создание студентов: id из последовательности блоками, INSERT пачками по hibernate.jdbc.batch_size
+ */
+@SpringBootTest
+public class StudentBatchInsertBenchmarkTest extends PostgresIntegrationTest {
+
+    private static final int STUDENTS = 10_000;
+    private static final int BATCH_SIZE = 50;
+
+    @Autowired
+    private StudentService studentService;
+
+    private final Logger logger = LoggerFactory.getLogger(StudentBatchInsertBenchmarkTest.class);
+    private Faculty faculty;
+
+    @DynamicPropertySource
+    static void configureBatching(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.hikari.data-source-properties.reWriteBatchedInserts", () -> true);
+        registry.add("spring.jpa.properties.hibernate.jdbc.batch_size", () -> BATCH_SIZE);
+        registry.add("spring.jpa.properties.hibernate.order_inserts", () -> true);
+    }
+
+    @BeforeEach
+    public void beforeEach() {
+        faculty = saveFaculty("Gryffindor", Color.RED_GOLD);
+    }
+
+    @AfterEach
+    public void afterEach() {
+        deleteStudentsAndFaculties();
+    }
+
+    @Test
+    void createStudentsInBatchesTest() {
+        List<StudentInputDto> inputDtos = IntStream.range(0, STUDENTS)
+                .mapToObj(i -> {
+                    StudentInputDto inputDto = new StudentInputDto();
+                    inputDto.setName("Student" + i);
+                    inputDto.setAge(16 + i % 10);
+                    inputDto.setFacultyId(faculty.getId());
+                    return inputDto;
+                })
+                .toList();
+        studentService.createStudents(inputDtos.subList(0, 1));   // Прогрев
+        studentRepository.deleteAllInBatch();
+
+        Statistics statistics = statistics();
+        statistics.clear();
+        long start = System.nanoTime();
+
+        List<BatchItemResultDto<StudentOutputDto>> results = studentService.createStudents(inputDtos);
+
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        logger.info("{} students created in {} ms with {} statements", STUDENTS, elapsedMillis, statistics.getPrepareStatementCount());
+
+        assertThat(results)
+                .hasSize(STUDENTS)
+                .allMatch(result -> result.getStatus() == BatchItemResultDto.Status.CREATED);
+        assertThat(studentRepository.count()).isEqualTo(STUDENTS);
+        /* Поиск факультета, одна выборка из последовательности и одна пачка INSERT на каждые BATCH_SIZE студентов.
+           Без батчинга и с IDENTITY было бы по запросу на каждого студента */
+        assertThat(statistics.getPrepareStatementCount()).isLessThan(STUDENTS / 10);
+    }
+
+    @Test
+    void invalidItemsAreRejectedSeparatelyTest() {
+        StudentInputDto valid = new StudentInputDto();
+        valid.setName("Harry");
+        valid.setAge(17);
+        valid.setFacultyId(faculty.getId());
+
+        StudentInputDto tooYoung = new StudentInputDto();
+        tooYoung.setName("Dobby");
+        tooYoung.setAge(10);
+        tooYoung.setFacultyId(faculty.getId());
+
+        StudentInputDto unknownFaculty = new StudentInputDto();
+        unknownFaculty.setName("Ron");
+        unknownFaculty.setAge(17);
+        unknownFaculty.setFacultyId(faculty.getId() + 1_000);
+
+        List<BatchItemResultDto<StudentOutputDto>> results = studentService.createStudents(List.of(valid, tooYoung, unknownFaculty));
+
+        assertThat(results)
+                .extracting(BatchItemResultDto::getStatus)
+                .containsExactly(BatchItemResultDto.Status.CREATED,
+                        BatchItemResultDto.Status.REJECTED,
+                        BatchItemResultDto.Status.REJECTED);
+        assertThat(results.get(0).getResult().getName()).isEqualTo("Harry");
+        assertThat(results.get(2).getErrors()).containsExactly("FacultyId " + unknownFaculty.getFacultyId() + " not found");
+        assertThat(studentRepository.count()).isEqualTo(1);
+    }
+}
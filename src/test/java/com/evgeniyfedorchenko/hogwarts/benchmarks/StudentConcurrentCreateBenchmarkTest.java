@@ -0,0 +1,125 @@
+package com.evgeniyfedorchenko.hogwarts.benchmarks;
+
+import com.evgeniyfedorchenko.hogwarts.PostgresIntegrationTest;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentInputDto;
+import com.evgeniyfedorchenko.hogwarts.entities.Color;
+import com.evgeniyfedorchenko.hogwarts.entities.Faculty;
+import com.evgeniyfedorchenko.hogwarts.exceptions.EntityNotFoundException;
+import com.evgeniyfedorchenko.hogwarts.services.StudentService;
+import org.hibernate.stat.EntityStatistics;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Параллельное создание студентов в один факультет: каждое создание - только INSERT строки students,
+ * факультет берется из кэша второго уровня и не обновляется, поэтому создатели не конкурируют за него
+ */
+@SpringBootTest
+public class StudentConcurrentCreateBenchmarkTest extends PostgresIntegrationTest {
+
+    private static final int CREATORS = 64;
+    private static final int STUDENTS_PER_CREATOR = 50;
+
+    @Autowired
+    private StudentService studentService;
+
+    private final Logger logger = LoggerFactory.getLogger(StudentConcurrentCreateBenchmarkTest.class);
+    private Faculty faculty;
+
+    @DynamicPropertySource
+    static void configurePool(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.hikari.maximum-pool-size", () -> CREATORS);
+    }
+
+    @BeforeEach
+    public void beforeEach() {
+        faculty = saveFaculty("Gryffindor", Color.RED_GOLD);
+    }
+
+    @AfterEach
+    public void afterEach() {
+        deleteStudentsAndFaculties();
+    }
+
+    @Test
+    void parallelCreatorsDoNotTouchFacultyTest() throws Exception {
+        studentService.createStudent(studentInput(faculty.getId(), 0));   // Прогрев
+        studentRepository.deleteAllInBatch();
+
+        Statistics statistics = statistics();
+        statistics.clear();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> creators = new ArrayList<>(CREATORS);
+
+        long elapsedMillis;
+        try (ExecutorService executor = Executors.newFixedThreadPool(CREATORS)) {
+            for (int creator = 0; creator < CREATORS; creator++) {
+                int first = creator * STUDENTS_PER_CREATOR;
+                creators.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = first; i < first + STUDENTS_PER_CREATOR; i++) {
+                        studentService.createStudent(studentInput(faculty.getId(), i));
+                    }
+                    return null;
+                }));
+            }
+            long startNanos = System.nanoTime();
+            start.countDown();
+            for (Future<?> creator : creators) {
+                creator.get();   // Пробрасывает исключение создателя, если оно было
+            }
+            elapsedMillis = (System.nanoTime() - startNanos) / 1_000_000;
+        }
+
+        int students = CREATORS * STUDENTS_PER_CREATOR;
+        EntityStatistics facultyStatistics = statistics.getEntityStatistics(Faculty.class.getName());
+        logger.info("{} students created by {} parallel creators in {} ms ({} per second) with {} statements",
+                students, CREATORS, elapsedMillis, students * 1000L / Math.max(elapsedMillis, 1),
+                statistics.getPrepareStatementCount());
+
+        assertThat(studentRepository.countByFaculty_Id(faculty.getId())).isEqualTo(students);
+        // Факультет прогрет в кэше второго уровня: ни одной загрузки из БД
+        assertThat(facultyStatistics.getLoadCount()).isZero();
+        assertThat(statistics.getSecondLevelCacheMissCount()).isZero();
+        assertThat(facultyStatistics.getUpdateCount()).isZero();
+        assertThat(facultyRepository.findById(faculty.getId()).orElseThrow().getVersion()).isEqualTo(faculty.getVersion());
+        // INSERT на каждого студента и выборки из последовательности блоками по 50, без единого запроса к faculties
+        assertThat(statistics.getPrepareStatementCount()).isLessThanOrEqualTo(students + students / 50 + CREATORS);
+    }
+
+    @Test
+    void unknownFacultyIsRejectedTest() {
+        Long unknownFacultyId = faculty.getId() + 1_000;
+
+        assertThatThrownBy(() -> studentService.createStudent(studentInput(unknownFacultyId, 0)))
+                .isInstanceOf(EntityNotFoundException.class)
+                .hasMessage("FacultyId " + unknownFacultyId + " not found");
+        assertThat(studentRepository.count()).isZero();
+    }
+
+    private StudentInputDto studentInput(Long facultyId, int i) {
+        StudentInputDto inputDto = new StudentInputDto();
+        inputDto.setName("Student" + i);
+        inputDto.setAge(16 + i % 10);
+        inputDto.setFacultyId(facultyId);
+        return inputDto;
+    }
+}
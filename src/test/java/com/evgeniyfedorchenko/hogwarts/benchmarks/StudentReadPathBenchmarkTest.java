@@ -0,0 +1,147 @@
+package com.evgeniyfedorchenko.hogwarts.benchmarks;
+
+import com.evgeniyfedorchenko.hogwarts.PostgresIntegrationTest;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentOutputDto;
+import com.evgeniyfedorchenko.hogwarts.entities.Faculty;
+import com.evgeniyfedorchenko.hogwarts.entities.Student;
+import com.evgeniyfedorchenko.hogwarts.mappers.StudentMapper;
+import com.evgeniyfedorchenko.hogwarts.repositories.RecordingStatementInspector;
+import jakarta.persistence.EntityManager;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Сравнивает чтение списка студентов факультета через сущности (как было) и через проекцию {@code StudentRow}.
+ * Для каждого способа считаются SQL-запросы, выбранные колонки и строки, загруженные сущности и байты, полученные от БД.
+ * Отдельно проверяется, что граф сущностей факультета читает его состав одним запросом, без каскада N+1
+ */
+@SpringBootTest
+public class StudentReadPathBenchmarkTest extends PostgresIntegrationTest {
+
+    private static final int STUDENTS_PER_FACULTY = 1_000;
+
+    @Autowired
+    private StudentMapper studentMapper;
+    @Autowired
+    private EntityManager entityManager;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private final Logger logger = LoggerFactory.getLogger(StudentReadPathBenchmarkTest.class);
+    private Long facultyId;
+
+    @DynamicPropertySource
+    static void configureSocketFactory(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.hikari.data-source-properties.socketFactory", CountingSocketFactory.class::getName);
+        registry.add("spring.jpa.properties.hibernate.session_factory.statement_inspector",
+                RecordingStatementInspector.class::getName);
+    }
+
+    @BeforeEach
+    public void beforeEach() {
+        List<Faculty> faculties = saveFaculties(4);
+        facultyId = faculties.get(0).getId();
+        insertStudents(faculties, STUDENTS_PER_FACULTY, i -> 16 + i % 10);
+    }
+
+    @AfterEach
+    public void afterEach() {
+        deleteStudentsAndFaculties();
+    }
+
+    @Test
+    void projectionLoadsNoEntitiesTest() {
+        Measurement entities = measure("entities", () -> entityManager
+                .createQuery("SELECT s FROM Student s WHERE s.faculty.id = :facultyId", Student.class)
+                .setParameter("facultyId", facultyId)
+                .getResultList().stream()
+                .map(studentMapper::toDto)
+                .toList());
+
+        Measurement projection = measure("projection", () -> studentRepository.findRowsByFacultyId(facultyId).stream()
+                .map(studentMapper::toDto)
+                .toList());
+
+        assertThat(projection.dtos()).containsExactlyInAnyOrderElementsOf(entities.dtos());
+        assertThat(projection.entitiesLoaded()).isZero();
+        assertThat(projection.statements()).isEqualTo(1);
+        /* Связи студента ленивые, поэтому и путь через сущности укладывается в один запрос,
+           но каждая строка всё равно становится управляемой сущностью */
+        assertThat(entities.statements()).isEqualTo(1);
+        assertThat(entities.entitiesLoaded()).isGreaterThanOrEqualTo(STUDENTS_PER_FACULTY);
+
+        /* DTO нужны все колонки students (hasAvatar вместо avatar_id, version и updated_at для ETag и Last-Modified),
+           поэтому от БД приходит столько же строк и колонок, и байтов почти столько же - они только пишутся в лог.
+           Выигрыш проекции не в трафике, а в том, что строки не становятся сущностями */
+        assertThat(projection.dtos()).hasSize(STUDENTS_PER_FACULTY);
+        assertThat(entities.dtos()).hasSize(STUDENTS_PER_FACULTY);
+        assertThat(projection.columns()).isEqualTo(entities.columns());
+    }
+
+    @Test
+    void facultyGraphLoadsRosterInOneStatementTest() {
+        Measurement roster = measure("faculty graph", () -> facultyRepository.findWithStudentsById(facultyId)
+                .orElseThrow()
+                .getStudents().stream()
+                .map(studentMapper::toDto)
+                .toList());
+
+        assertThat(roster.dtos()).hasSize(STUDENTS_PER_FACULTY);
+        assertThat(roster.statements()).isEqualTo(1);
+    }
+
+    private Measurement measure(String name, Supplier<List<StudentOutputDto>> readPath) {
+        Statistics statistics = statistics();
+        statistics.clear();
+        RecordingStatementInspector.STATEMENTS.clear();
+        CountingSocketFactory.BYTES_READ.set(0);
+
+        List<StudentOutputDto> dtos = transactionTemplate.execute(status -> readPath.get());
+
+        Measurement measurement = new Measurement(dtos,
+                statistics.getPrepareStatementCount(),
+                RecordingStatementInspector.STATEMENTS.stream().mapToInt(StudentReadPathBenchmarkTest::selectedColumns).sum(),
+                statistics.getEntityLoadCount() + statistics.getCollectionLoadCount(),
+                CountingSocketFactory.BYTES_READ.get());
+        logger.info("Read path '{}': {} DTOs, {} statements, {} columns, {} entities and collections loaded, {} bytes from DB",
+                name, dtos.size(), measurement.statements(), measurement.columns(), measurement.entitiesLoaded(),
+                measurement.bytesRead());
+        return measurement;
+    }
+
+    // Колонки списка SELECT: запятые верхнего уровня между select и from, без запятых внутри скобок
+    private static int selectedColumns(String sql) {
+        String lower = sql.toLowerCase();
+        int start = lower.indexOf("select") + "select".length();
+        int columns = 1;
+        int depth = 0;
+        for (int i = start; i < lower.length() && !(depth == 0 && lower.startsWith(" from ", i)); i++) {
+            char c = lower.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                columns++;
+            }
+        }
+        return columns;
+    }
+
+    private record Measurement(List<StudentOutputDto> dtos, long statements, int columns, long entitiesLoaded, long bytesRead) {
+    }
+}
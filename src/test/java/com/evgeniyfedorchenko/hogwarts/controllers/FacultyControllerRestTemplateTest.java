@@ -1,13 +1,16 @@
 package com.evgeniyfedorchenko.hogwarts.controllers;
 
-
+import com.evgeniyfedorchenko.hogwarts.PostgresIntegrationTest;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentOutputDto;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentTransferDto;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentTransferResultDto;
 import com.evgeniyfedorchenko.hogwarts.entities.Color;
 import com.evgeniyfedorchenko.hogwarts.entities.Faculty;
 import com.evgeniyfedorchenko.hogwarts.entities.Student;
 import com.evgeniyfedorchenko.hogwarts.repositories.AvatarRepository;
-import com.evgeniyfedorchenko.hogwarts.repositories.FacultyRepository;
-import com.evgeniyfedorchenko.hogwarts.repositories.StudentRepository;
+import com.evgeniyfedorchenko.hogwarts.services.FacultyService;
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
@@ -17,35 +20,23 @@ import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.test.context.DynamicPropertyRegistry;
-import org.springframework.test.context.DynamicPropertySource;
-import org.testcontainers.containers.PostgreSQLContainer;
-import org.testcontainers.junit.jupiter.Container;
-import org.testcontainers.junit.jupiter.Testcontainers;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 import static com.evgeniyfedorchenko.hogwarts.Constants.*;
 import static org.assertj.core.api.Assertions.assertThat;
 
-@Testcontainers
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
-class FacultyControllerRestTemplateTest {
-
-    @Container
-    private static final PostgreSQLContainer<?> postgresContainer =
-            new PostgreSQLContainer<>("postgres:latest");
-
-    @DynamicPropertySource
-    static void configureProperties(DynamicPropertyRegistry registry) {
-        registry.add("spring.datasource.url", postgresContainer::getJdbcUrl);
-        registry.add("spring.datasource.username", postgresContainer::getUsername);
-        registry.add("spring.datasource.password", postgresContainer::getPassword);
-        registry.add("spring.jpa.generate-ddl", () -> true);
-    }
+class FacultyControllerRestTemplateTest extends PostgresIntegrationTest {
 
     @LocalServerPort
     private int port;
@@ -53,15 +44,14 @@ class FacultyControllerRestTemplateTest {
     @Autowired
     private TestRestTemplate testRestTemplate;
     @Autowired
-    private FacultyRepository facultyRepository;
+    private AvatarRepository avatarRepository;
     @Autowired
-    private StudentRepository studentRepository;
+    private FacultyService facultyService;
     @Autowired
-    private AvatarRepository avatarRepository;
+    private TransactionTemplate transactionTemplate;
 
     private List<Faculty> savedFaculties;
 
-
     @BeforeEach
     void beforeEach() {
         testConstantsInitialisation();
@@ -91,11 +81,6 @@ class FacultyControllerRestTemplateTest {
         facultyRepository.deleteAll();
     }
 
-    @AfterAll
-    static void stopContainers() {
-        postgresContainer.stop();
-    }
-
     private String baseFacultyUrl() {
         return "http://localhost:%d/faculties".formatted(port);
     }
@@ -112,7 +97,7 @@ class FacultyControllerRestTemplateTest {
         Faculty actualBody = responseEntity.getBody();
         assertThat(actualBody).isNotNull()
                 .usingRecursiveComparison()
-                .ignoringFields("id", "students")
+                .ignoringFields("id", "students", "version", "updatedAt")
                 .isEqualTo(UNSAVED_EMPTY_FACULTY);
         assertThat(actualBody.getId()).isNotNull();
 
@@ -120,7 +105,7 @@ class FacultyControllerRestTemplateTest {
         assertThat(actual).isPresent();
         assertThat(actual.get())
                 .usingRecursiveComparison()
-                .ignoringFields("students")
+                .ignoringFields("students", "version", "updatedAt")
                 .isEqualTo(actualBody);
     }
 
@@ -168,7 +153,7 @@ class FacultyControllerRestTemplateTest {
         assertThat(responseEntity.getBody())
                 .isNotNull()
                 .usingRecursiveComparison()
-                .ignoringFields("students")
+                .ignoringFields("students", "version", "updatedAt")
                 .isEqualTo(expected.get());
 
     }
@@ -199,7 +184,7 @@ class FacultyControllerRestTemplateTest {
         assertThat(responseEntity.getBody())
                 .isNotNull()
                 .usingRecursiveComparison()
-                .ignoringFields("id", "students")
+                .ignoringFields("id", "students", "version", "updatedAt")
                 .isEqualTo(List.of(FACULTY_1));
     }
 
@@ -220,7 +205,6 @@ class FacultyControllerRestTemplateTest {
                 .comparingOnlyFields("name", "color", "students");
     }
 
-
     @Test
     void getFacultyByColorAndPartNameWithoutMatchPositiveTest() {
         String namePart = "SSS";
@@ -254,10 +238,89 @@ class FacultyControllerRestTemplateTest {
         assertThat(responseEntity.getBody())
                 .isNotNull()
                 .usingRecursiveComparison()
-                .ignoringFields("id", "faculty")
+                .ignoringFields("id", "faculty", "version", "updatedAt")
                 .isEqualTo(targetFaculty.getStudents());
     }
 
+    @Test
+    void getStudentsOfFacultyByPagesTest() {
+        Faculty targetFaculty = savedFaculties.stream()
+                .max((f1, f2) -> Integer.compare(f1.getStudents().size(), f2.getStudents().size()))
+                .orElseThrow();
+        List<Long> expected = targetFaculty.getStudents().stream()
+                .sorted(Comparator.comparing(Student::getAge).thenComparing(Student::getId).reversed())
+                .map(Student::getId)
+                .toList();
+
+        List<Long> actual = new ArrayList<>();
+        String url = baseFacultyUrl() + "/{id}/students?sort=age:desc&pageSize=1";
+        String cursor = null;
+        do {
+            ResponseEntity<List<StudentOutputDto>> responseEntity = testRestTemplate.exchange(
+                    cursor == null ? url : url + "&cursor=" + cursor,
+                    HttpMethod.GET,
+                    null,
+                    new ParameterizedTypeReference<>() {
+                    },
+                    targetFaculty.getId());
+
+            assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.OK);
+            assertThat(responseEntity.getBody()).isNotNull();
+            responseEntity.getBody().forEach(student -> actual.add(student.getId()));
+            cursor = responseEntity.getHeaders().getFirst(StudentController.NEXT_CURSOR_HEADER);
+        } while (cursor != null);
+
+        assertThat(actual).isEqualTo(expected);
+    }
+
+    @Test
+    void exportStudentsOfFacultyAsNdjsonTest() {
+        Faculty targetFaculty = savedFaculties.get(0);
+
+        ResponseEntity<String> responseEntity = testRestTemplate.getForEntity(
+                baseFacultyUrl() + "/{id}/students/export?format=NDJSON",
+                String.class,
+                targetFaculty.getId());
+
+        assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(responseEntity.getHeaders().getContentType()).isEqualTo(ExportFormat.NDJSON.getMediaType());
+        List<String> lines = responseEntity.getBody() == null ? List.of() : responseEntity.getBody().lines().toList();
+        assertThat(lines).hasSize(targetFaculty.getStudents().size());
+        targetFaculty.getStudents().forEach(student ->
+                assertThat(lines).anyMatch(line -> line.startsWith("{\"id\":" + student.getId() + ",")));
+    }
+
+    @Test
+    void getStudentIdsOfFacultyByPagesTest() {
+        // Факультет с наибольшим числом студентов, чтобы страниц было несколько
+        Faculty targetFaculty = savedFaculties.stream()
+                .max((f1, f2) -> Integer.compare(f1.getStudents().size(), f2.getStudents().size()))
+                .orElseThrow();
+        List<Long> expected = targetFaculty.getStudents().stream()
+                .map(Student::getId)
+                .sorted()
+                .toList();
+
+        List<Long> actual = new ArrayList<>();
+        String cursor = "0";
+        while (cursor != null) {
+            ResponseEntity<List<Long>> responseEntity = testRestTemplate.exchange(
+                    baseFacultyUrl() + "/{id}/student-ids?limit=1&cursor={cursor}",
+                    HttpMethod.GET,
+                    null,
+                    new ParameterizedTypeReference<>() {
+                    },
+                    targetFaculty.getId(), cursor);
+
+            assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.OK);
+            assertThat(responseEntity.getBody()).isNotNull().hasSizeLessThanOrEqualTo(1);
+            actual.addAll(responseEntity.getBody());
+            cursor = responseEntity.getHeaders().getFirst(StudentController.NEXT_CURSOR_HEADER);
+        }
+
+        assertThat(actual).isEqualTo(expected);
+    }
+
     @Test
     void deleteFacultyPositiveTest() {
         Optional<Faculty> firstByName = facultyRepository.findFirstByName(FACULTY_1.getName());
@@ -274,9 +337,67 @@ class FacultyControllerRestTemplateTest {
         assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.OK);
         assertThat(responseEntity.getBody())
                 .usingRecursiveComparison()
-                .ignoringFields("id", "students")
+                .ignoringFields("id", "students", "version", "updatedAt")
                 .isEqualTo(firstByName.get());
         assertThat(facultyRepository.findById(firstByName.get().getId())).isEmpty();
+        assertThat(studentRepository.findByFaculty_Id(firstByName.get().getId())).isEmpty();
+    }
+
+    @Test
+    void deleteFacultyWithAvatarsTest(@TempDir Path avatarsDir) throws IOException, InterruptedException {
+        Faculty faculty = saveFaculty("Durmstrang", Color.values()[0]);
+        insertStudents(List.of(faculty), 3, i -> 17 + i);
+        List<Long> studentIds = jdbcTemplate.queryForList("SELECT id FROM students WHERE faculty_id = ?", Long.class, faculty.getId());
+        List<Long> avatarIds = new ArrayList<>();
+        List<Path> avatarFiles = new ArrayList<>();
+        for (Long studentId : studentIds) {
+            Path avatarFile = Files.writeString(avatarsDir.resolve("avatar" + studentId + ".png"), "picture");
+            Long avatarId = jdbcTemplate.queryForObject(
+                    "INSERT INTO avatars (file_path, media_type, data) VALUES (?, 'image/png', lo_from_bytea(0, CAST('preview' AS bytea))) RETURNING id",
+                    Long.class, avatarFile.toString());
+            jdbcTemplate.update("UPDATE students SET avatar_id = ? WHERE id = ?", avatarId, studentId);
+            avatarIds.add(avatarId);
+            avatarFiles.add(avatarFile);
+        }
+        List<Long> largeObjects = jdbcTemplate.queryForList(
+                "SELECT CAST(data AS bigint) FROM avatars WHERE id IN (%s)".formatted(joinIds(avatarIds)), Long.class);
+
+//        Откат: аватары, их большие объекты и файлы остаются на месте
+        transactionTemplate.executeWithoutResult(status -> {
+            facultyService.deleteFaculty(faculty.getId());
+            status.setRollbackOnly();
+        });
+
+        assertThat(avatarRepository.findAllById(avatarIds)).hasSize(avatarIds.size());
+        assertThat(countLargeObjects(largeObjects)).isEqualTo(largeObjects.size());
+        assertThat(avatarFiles).allMatch(Files::exists);
+
+//        Коммит: строки и большие объекты удалены той же транзакцией, файлы - в фоне после нее
+        ResponseEntity<Faculty> responseEntity = testRestTemplate.exchange(
+                baseFacultyUrl() + "/{id}",
+                HttpMethod.DELETE,
+                null,
+                Faculty.class,
+                faculty.getId());
+
+        assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(studentRepository.findAllById(studentIds)).isEmpty();
+        assertThat(avatarRepository.findAllById(avatarIds)).isEmpty();
+        assertThat(countLargeObjects(largeObjects)).isZero();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (avatarFiles.stream().anyMatch(Files::exists) && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        assertThat(avatarFiles).noneMatch(Files::exists);
+    }
+
+    private long countLargeObjects(List<Long> oids) {
+        return jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM pg_largeobject_metadata WHERE CAST(oid AS bigint) IN (%s)".formatted(joinIds(oids)), Long.class);
+    }
+
+    private static String joinIds(List<Long> ids) {
+        return String.join(",", ids.stream().map(String::valueOf).toList());
     }
 
     @Test
@@ -293,6 +414,33 @@ class FacultyControllerRestTemplateTest {
         assertThat(responseEntity.getBody()).isNull();
     }
 
+    @Test
+    void transferStudentsTest() {
+        Faculty targetFaculty = savedFaculties.get(0);
+        List<Long> studentIds = new ArrayList<>(studentRepository.findAll().stream()
+                .map(Student::getId)
+                .toList());
+        long unknownId = studentIds.stream().mapToLong(Long::longValue).max().orElse(0) + 1_000;
+        studentIds.add(unknownId);
+
+        StudentTransferDto transferDto = new StudentTransferDto();
+        transferDto.setStudentIds(studentIds);
+
+        ResponseEntity<StudentTransferResultDto> responseEntity = testRestTemplate.postForEntity(
+                baseFacultyUrl() + "/{id}/students/transfer",
+                transferDto,
+                StudentTransferResultDto.class,
+                targetFaculty.getId());
+
+        assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(responseEntity.getBody()).isNotNull();
+        assertThat(responseEntity.getBody().getTransferred()).isEqualTo(studentIds.size() - 1);
+        assertThat(responseEntity.getBody().getNotFoundIds()).containsExactly(unknownId);
+        assertThat(studentRepository.findByFaculty_Id(targetFaculty.getId()))
+                .extracting(Student::getId)
+                .containsExactlyInAnyOrderElementsOf(studentIds.subList(0, studentIds.size() - 1));
+    }
+
     @Test
     void updateFacultyPositiveTest() {
         Faculty oldFaculty = savedFaculties.get(0);
@@ -308,7 +456,7 @@ class FacultyControllerRestTemplateTest {
         assertThat(responseEntity.getBody())
                 .isNotNull()
                 .usingRecursiveComparison()
-                .ignoringFields("id", "students")
+                .ignoringFields("id", "students", "version", "updatedAt")
                 .isEqualTo(FACULTY_4_EDITED);
 
         Optional<Faculty> byId = facultyRepository.findById(oldFaculty.getId());
@@ -344,7 +492,6 @@ class FacultyControllerRestTemplateTest {
     @Test
     void updateNonexistentFacultyNegativeTest() {
 
-
         ResponseEntity<String> responseEntity = testRestTemplate.exchange(
                 baseFacultyUrl() + "/{id}",
                 HttpMethod.PUT,
@@ -1,17 +1,26 @@
 package com.evgeniyfedorchenko.hogwarts.controllers;
 
+import com.evgeniyfedorchenko.hogwarts.dto.StudentOutputDto;
 import com.evgeniyfedorchenko.hogwarts.entities.Color;
 import com.evgeniyfedorchenko.hogwarts.entities.Faculty;
 import com.evgeniyfedorchenko.hogwarts.entities.Student;
 import com.evgeniyfedorchenko.hogwarts.exceptions.FacultyAlreadyExistsException;
 import com.evgeniyfedorchenko.hogwarts.exceptions.parentProjectException.IllegalFacultyFieldsException;
+import com.evgeniyfedorchenko.hogwarts.repositories.AgeCount;
 import com.evgeniyfedorchenko.hogwarts.repositories.FacultyRepository;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentDeletionResult;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentJdbcRepository;
 import com.evgeniyfedorchenko.hogwarts.repositories.StudentRepository;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentRow;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentSort;
+import com.evgeniyfedorchenko.hogwarts.services.AvatarFileCleaner;
 import com.evgeniyfedorchenko.hogwarts.services.FacultyServiceImpl;
+import com.evgeniyfedorchenko.hogwarts.services.StudentAnalyticsService;
+import com.evgeniyfedorchenko.hogwarts.services.StudentDtoCache;
+import com.evgeniyfedorchenko.hogwarts.services.StudentExportService;
+import com.evgeniyfedorchenko.hogwarts.services.StudentStatistics;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.introspect.Annotated;
-import com.fasterxml.jackson.databind.introspect.JacksonAnnotationIntrospector;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
@@ -49,8 +58,22 @@ public class FacultyControllerWebMvcTest {
     private FacultyRepository facultyRepositoryMock;
     @MockBean
     private StudentRepository studentRepositoryMock;
+    @MockBean
+    private StudentJdbcRepository studentJdbcRepositoryMock;
+    @MockBean
+    private StudentStatistics studentStatisticsMock;
+    @MockBean
+    private AvatarFileCleaner avatarFileCleanerMock;
+    @MockBean
+    private StudentDtoCache studentDtoCacheMock;
+    @MockBean
+    private StudentAnalyticsService studentAnalyticsServiceMock;
+    @MockBean
+    private StudentExportService studentExportServiceMock;
     @SpyBean
     private FacultyServiceImpl facultyServiceImplSpy;
+    @SpyBean
+    private ExportResponses exportResponsesSpy;
     @InjectMocks
     private FacultyController facultyController;
 
@@ -63,15 +86,6 @@ public class FacultyControllerWebMvcTest {
         objectMapper = new ObjectMapper();
     }
 
-    private void customizeObjectMapper() {
-        objectMapper.setAnnotationIntrospector(new JacksonAnnotationIntrospector() {
-            @Override
-            protected boolean _isIgnorable(Annotated a) {
-                return super._isIgnorable(a) || a.getRawType() == Faculty.class;
-            }
-        });
-    }
-
     @Test
     void createFacultyPositiveTest() throws Exception {
         when(facultyRepositoryMock.existsByName(FACULTY_1.getName())).thenReturn(false);
@@ -132,6 +146,7 @@ public class FacultyControllerWebMvcTest {
     @Test
     void getFacultyPositiveTest() throws Exception {
         when(facultyRepositoryMock.findById(anyLong())).thenReturn(Optional.of(FACULTY_1));
+        when(studentRepositoryMock.countByFaculty_Id(FACULTY_1.getId())).thenReturn(1L);
 
         mockMvc.perform(get("/faculties/{id}", FACULTY_1.getId())
                         .content(objectMapper.writeValueAsString(FACULTY_1))
@@ -140,7 +155,8 @@ public class FacultyControllerWebMvcTest {
 
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.name").value(FACULTY_1.getName()))
-                .andExpect(jsonPath("$.color").value(FACULTY_1.getColor().toString()));
+                .andExpect(jsonPath("$.color").value(FACULTY_1.getColor().toString()))
+                .andExpect(jsonPath("$.studentCount").value(1));
 
     }
 
@@ -214,25 +230,30 @@ public class FacultyControllerWebMvcTest {
     @Test
     void getStudentsOfFacultyPositiveTest() throws Exception {
         FACULTY_1.setStudents(List.of(STUDENT_1, STUDENT_2));
-        when(studentRepositoryMock.findByFaculty_Id(FACULTY_1.getId()))
-                .thenReturn(FACULTY_1.getStudents());
+        when(studentRepositoryMock.findPageOfFaculty(eq(FACULTY_1.getId()), any(StudentSort.class), eq(2), eq(0L)))
+                .thenReturn(FACULTY_1.getStudents().stream()
+                        .map(student -> new StudentRow(student.getId(), student.getName(), student.getAge(),
+                                FACULTY_1.getId(), false, 0L, null))
+                        .toList());
 
 
-        String response = mockMvc.perform(get("/faculties/{id}/students", FACULTY_1.getId())
+        String response = mockMvc.perform(get("/faculties/{id}/students?pageSize=2", FACULTY_1.getId())
                         .contentType(MediaType.APPLICATION_JSON)
                         .accept(MediaType.APPLICATION_JSON))
 
                 .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.header().exists(StudentController.NEXT_CURSOR_HEADER))
                 .andReturn().getResponse().getContentAsString();
 
-        customizeObjectMapper();
-        List<Student> actual = objectMapper.readValue(response, new TypeReference<>() {});
-        assertThat(actual).isEqualTo(FACULTY_1.getStudents());
+        List<StudentOutputDto> actual = objectMapper.readValue(response, new TypeReference<>() {});
+        assertThat(actual)
+                .extracting(StudentOutputDto::getId)
+                .containsExactly(STUDENT_1.getId(), STUDENT_2.getId());
     }
 
     @Test
     void getStudentsOfFacultyNegativeTest() throws Exception {
-        when(studentRepositoryMock.findByFaculty_Id(FACULTY_1.getId()))
+        when(studentRepositoryMock.findPageOfFaculty(eq(FACULTY_1.getId()), any(StudentSort.class), anyInt(), anyLong()))
                 .thenReturn(new ArrayList<>());
 
         String response = mockMvc.perform(get("/faculties/{id}/students", FACULTY_1.getId())
@@ -253,7 +274,7 @@ public class FacultyControllerWebMvcTest {
 
         when(facultyRepositoryMock.findById(FACULTY_4.getId())).thenReturn(Optional.of(FACULTY_4));
         when(facultyRepositoryMock.findFirstByName(FACULTY_4_EDITED.getName())).thenReturn(Optional.empty());
-        when(facultyRepositoryMock.save(FACULTY_4)).thenReturn(FACULTY_4);
+        when(facultyRepositoryMock.saveAndFlush(FACULTY_4)).thenReturn(FACULTY_4);
 
         mockMvc.perform(put("/faculties/{id}", FACULTY_4.getId())
                         .content(objectMapper.writeValueAsString(FACULTY_4_EDITED))
@@ -307,6 +328,8 @@ public class FacultyControllerWebMvcTest {
     void deleteFacultyPositiveTest() throws Exception {
 
         when(facultyRepositoryMock.findById(FACULTY_1.getId())).thenReturn(Optional.of(FACULTY_1));
+        when(studentJdbcRepositoryMock.deleteStudentsOfFaculty(FACULTY_1.getId()))
+                .thenReturn(new StudentDeletionResult(List.of(STUDENT_1.getId(), STUDENT_2.getId()), List.of(new AgeCount(17, 2)), List.of()));
         doNothing().when(facultyRepositoryMock).delete(FACULTY_1);
 
         mockMvc.perform(delete("/faculties/{id}", FACULTY_1.getId())
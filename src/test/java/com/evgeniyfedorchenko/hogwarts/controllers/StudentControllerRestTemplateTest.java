@@ -1,10 +1,15 @@
 package com.evgeniyfedorchenko.hogwarts.controllers;
 
+import com.evgeniyfedorchenko.hogwarts.PostgresIntegrationTest;
 import com.evgeniyfedorchenko.hogwarts.TestUtils;
+import com.evgeniyfedorchenko.hogwarts.dto.AgeStatsDto;
 import com.evgeniyfedorchenko.hogwarts.dto.AvatarDto;
 import com.evgeniyfedorchenko.hogwarts.dto.FacultyOutputDto;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentImportResultDto;
 import com.evgeniyfedorchenko.hogwarts.dto.StudentInputDto;
 import com.evgeniyfedorchenko.hogwarts.dto.StudentOutputDto;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentProfileDto;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentStatsDto;
 import com.evgeniyfedorchenko.hogwarts.entities.Avatar;
 import com.evgeniyfedorchenko.hogwarts.entities.Faculty;
 import com.evgeniyfedorchenko.hogwarts.entities.Student;
@@ -12,17 +17,20 @@ import com.evgeniyfedorchenko.hogwarts.mappers.AvatarMapper;
 import com.evgeniyfedorchenko.hogwarts.mappers.FacultyMapper;
 import com.evgeniyfedorchenko.hogwarts.mappers.StudentMapper;
 import com.evgeniyfedorchenko.hogwarts.repositories.AvatarRepository;
-import com.evgeniyfedorchenko.hogwarts.repositories.FacultyRepository;
-import com.evgeniyfedorchenko.hogwarts.repositories.StudentRepository;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentImportResult;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentRow;
+import com.evgeniyfedorchenko.hogwarts.services.StudentAnalyticsService;
+import com.evgeniyfedorchenko.hogwarts.services.StudentStatistics;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.hc.client5.http.classic.HttpClient;
 import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
-import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.EnumSource;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -36,16 +44,17 @@ import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.test.context.DynamicPropertyRegistry;
 import org.springframework.test.context.DynamicPropertySource;
 import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.StringUtils;
 import org.springframework.web.client.RestTemplate;
-import org.testcontainers.containers.PostgreSQLContainer;
-import org.testcontainers.junit.jupiter.Container;
-import org.testcontainers.junit.jupiter.Testcontainers;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -55,21 +64,17 @@ import java.util.stream.Stream;
 import static com.evgeniyfedorchenko.hogwarts.Constants.*;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.within;
 
-@Testcontainers
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
-public class StudentControllerRestTemplateTest {
+public class StudentControllerRestTemplateTest extends PostgresIntegrationTest {
 
     @LocalServerPort
     private int port;
 
     /*   Repositories   */
     @Autowired
-    private FacultyRepository facultyRepository;
-    @Autowired
     private AvatarRepository avatarRepository;
-    @Autowired
-    private StudentRepository studentRepository;
 
     /*   Mappers   */
     @Autowired
@@ -85,21 +90,17 @@ public class StudentControllerRestTemplateTest {
     @Autowired
     private TestRestTemplate testRestTemplate;
     @Autowired
+    private StudentStatistics studentStatistics;
+    @Autowired
+    private StudentAnalyticsService studentAnalyticsService;
+    @Autowired
     private TestUtils testUtils;
     private List<Faculty> savedFaculties;
     private final List<Student> savedStudents = new ArrayList<>();
     private final Random random = new Random();
 
-    @Container
-    private static final PostgreSQLContainer<?> postgresContainer =
-            new PostgreSQLContainer<>("postgres:latest");
-
     @DynamicPropertySource
     static void configureProperties(DynamicPropertyRegistry registry) {
-        registry.add("spring.datasource.url", postgresContainer::getJdbcUrl);
-        registry.add("spring.datasource.username", postgresContainer::getUsername);
-        registry.add("spring.datasource.password", postgresContainer::getPassword);
-        registry.add("spring.jpa.generate-ddl", () -> true);
         registry.add("spring.datasource.hikari.auto-commit", () -> true);
     }
 
@@ -142,15 +143,25 @@ public class StudentControllerRestTemplateTest {
         savedFaculties.clear();
     }
 
-    @AfterAll
-    static void stopContainers() {
-        postgresContainer.stop();
-    }
-
     private String baseStudentUrl() {
         return "http://localhost:%d/students".formatted(port);
     }
 
+    private Student saveStudentNamed(String name) {
+        Student student = new Student();
+        student.setName(name);
+        student.setAge(random.nextInt(11, 18));
+        student.setFaculty(savedFaculties.get(0));
+        Student savedStudent = studentRepository.save(student);
+        savedStudents.add(savedStudent);
+        return savedStudent;
+    }
+
+    // Схему тестов создает Hibernate, а не Liquibase, поэтому операторы pg_trgm для поиска по имени подключаются здесь
+    private void enableTrigramSearch() {
+        jdbcTemplate.execute("CREATE EXTENSION IF NOT EXISTS pg_trgm");
+    }
+
     private RestTemplate patchedRestTemplate(TestRestTemplate testRestTemplate) {
         RestTemplate patchRestTemplate = this.testRestTemplate.getRestTemplate();
         HttpClient httpClient = HttpClientBuilder.create().build();
@@ -171,7 +182,7 @@ public class StudentControllerRestTemplateTest {
         assertThat(responseEntity.getBody())
                 .isNotNull()
                 .usingRecursiveComparison()
-                .ignoringFields("id")
+                .ignoringFields("id", "version", "updatedAt")
                 .isEqualTo(studentMapper.toDto(UNSAVED_STUDENT));
 
         // Проверка, что в бд и правда сохранен нужный объект
@@ -179,7 +190,7 @@ public class StudentControllerRestTemplateTest {
         assertThat(studentFromDb).isPresent();
         assertThat(studentFromDb).get()
                 .usingRecursiveComparison()
-                .ignoringFields("id", "faculty.students")
+                .ignoringFields("id", "faculty.students", "version", "updatedAt", "faculty.version", "faculty.updatedAt")
                 .isEqualTo(UNSAVED_STUDENT);   /* -> UNSAVED_STUDENT - это локальная переменная.
                 При сохранении его в БД, его факультет в курсе о нем (что покажет следующий ассерт)
                 Но локально поле faculty у UNSAVED_STUDENT не обновлено, и него новый студент не добавляется */
@@ -238,6 +249,26 @@ public class StudentControllerRestTemplateTest {
         assertThat(countStudentsBeforeAdding).isEqualTo(studentRepository.findAll());
     }
 
+    @Test
+    void createStudentWithUnknownFacultyNegativeTest() {
+        long unknownFacultyId = savedFaculties.stream().mapToLong(Faculty::getId).max().orElseThrow() + 1;
+        StudentInputDto inputDto = testUtils.toInputDto(UNSAVED_STUDENT);
+        inputDto.setFacultyId(unknownFacultyId);
+        long countBefore = studentRepository.count();
+
+        ResponseEntity<String> responseEntity = testRestTemplate.postForEntity(
+                baseStudentUrl(),
+                inputDto,
+                String.class);
+
+        assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        // Факультет проверяется до вставки: строка студента не появляется даже на время
+        assertThat(studentRepository.count()).isEqualTo(countBefore);
+        assertThat(studentRepository.findAll())
+                .extracting(Student::getName)
+                .doesNotContain(UNSAVED_STUDENT.getName());
+    }
+
     @Test
     void getStudentPositiveTest() {
         Student expected = savedStudents.get(0);
@@ -251,9 +282,69 @@ public class StudentControllerRestTemplateTest {
         assertThat(responseEntity.getBody())
                 .isNotNull()
                 .usingRecursiveComparison()
+                .ignoringFields("version", "updatedAt")   // Передаются в заголовках, а не в теле
                 .isEqualTo(studentMapper.toDto(expected));
     }
 
+    @Test
+    void getStudentNotModifiedTest() {
+        Student expected = savedStudents.get(0);
+
+        ResponseEntity<StudentOutputDto> first = testRestTemplate.getForEntity(
+                baseStudentUrl() + "/{id}",
+                StudentOutputDto.class,
+                expected.getId());
+        String eTag = first.getHeaders().getETag();
+        assertThat(eTag).isNotNull().matches("\"\\d+\"");
+        assertThat(first.getHeaders().getLastModified()).isPositive();
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfNoneMatch(eTag);
+        ResponseEntity<String> second = testRestTemplate.exchange(
+                baseStudentUrl() + "/{id}",
+                HttpMethod.GET,
+                new HttpEntity<>(headers),
+                String.class,
+                expected.getId());
+
+        assertThat(second.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+        assertThat(second.getBody()).isNull();
+    }
+
+    @Test
+    void updateStudentWithStaleIfMatchNegativeTest() {
+        Student target = savedStudents.get(0);
+        String eTag = testRestTemplate.getForEntity(baseStudentUrl() + "/{id}", StudentOutputDto.class, target.getId())
+                .getHeaders().getETag();
+
+        StudentInputDto inputDto = testUtils.toInputDto(target);
+        inputDto.setName(target.getName() + " Jr");
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfMatch(eTag);
+
+        ResponseEntity<StudentOutputDto> updated = testRestTemplate.exchange(
+                baseStudentUrl() + "/{id}",
+                HttpMethod.PUT,
+                new HttpEntity<>(inputDto, headers),
+                StudentOutputDto.class,
+                target.getId());
+        assertThat(updated.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(updated.getHeaders().getETag()).isNotEqualTo(eTag);
+
+//        Второй клиент со старой версией не должен затереть изменения первого
+        inputDto.setName(target.getName() + " Sr");
+        ResponseEntity<String> stale = testRestTemplate.exchange(
+                baseStudentUrl() + "/{id}",
+                HttpMethod.PUT,
+                new HttpEntity<>(inputDto, headers),
+                String.class,
+                target.getId());
+        assertThat(stale.getStatusCode()).isEqualTo(HttpStatus.PRECONDITION_FAILED);
+        assertThat(studentRepository.findById(target.getId()))
+                .map(Student::getName)
+                .contains(target.getName() + " Jr");
+    }
+
     @Test
     void getStudentNegativeTest() {
 
@@ -381,7 +472,8 @@ public class StudentControllerRestTemplateTest {
         assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.OK);
         assertThat(responseEntity.getBody())
                 .isNotNull()
-                .isEqualTo(facultyMapper.toDto(targetStudent.getFaculty()));
+                .isEqualTo(facultyMapper.toDto(targetStudent.getFaculty(),
+                        studentRepository.countByFaculty_Id(targetStudent.getFaculty().getId())));
     }
 
     @Test
@@ -432,14 +524,14 @@ public class StudentControllerRestTemplateTest {
         assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.OK);
         assertThat(responseEntity.getBody()).isNotNull()
                 .usingRecursiveComparison()
-                .ignoringFields("id")
+                .ignoringFields("id", "version", "updatedAt")
                 .isEqualTo(studentMapper.toDto(STUDENT_4_EDITED));
 
         Optional<Student> fromDb = studentRepository.findById(targetStudent.getId());
         assertThat(fromDb).isPresent();
         assertThat(fromDb.get())
                 .usingRecursiveComparison()
-                .ignoringFields("id", "faculty.students")
+                .ignoringFields("id", "faculty.students", "version", "updatedAt", "faculty.version", "faculty.updatedAt")
                 .isEqualTo(STUDENT_4_EDITED);
     }
 
@@ -467,14 +559,14 @@ public class StudentControllerRestTemplateTest {
         assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.OK);
         assertThat(responseEntity.getBody()).isNotNull()
                 .usingRecursiveComparison()
-                .ignoringFields("id")
+                .ignoringFields("id", "version", "updatedAt")
                 .isEqualTo(studentMapper.toDto(STUDENT_4_EDITED));
 
 //        Проверка, что в БД студент действительно обновился
         Student actualTarget = studentRepository.findById(targetStudent.getId()).orElseThrow();
         assertThat(actualTarget)
                 .usingRecursiveComparison()
-                .ignoringFields("id", "faculty.students")
+                .ignoringFields("id", "faculty.students", "version", "updatedAt", "faculty.version", "faculty.updatedAt")
                 .isEqualTo(STUDENT_4_EDITED);   /* -> STUDENT_4_EDITED - это локальная переменная.
                 При сохранении его в БД, его факультет в курсе о нем (что покажет последний ассерт)
                 Но локально поле faculty у STUDENT_4_EDITED не обновлено, и него новый студент не добавляется */
@@ -739,6 +831,7 @@ public class StudentControllerRestTemplateTest {
 
     @Test
     void getNumberOfStudents() {
+        studentStatistics.reconcile();   // Студенты в beforeEach сохраняются в обход сервиса
         ResponseEntity<Long> responseEntity = testRestTemplate.getForEntity(
                 baseStudentUrl() + "/quantity",
                 Long.class
@@ -752,6 +845,7 @@ public class StudentControllerRestTemplateTest {
         Double expected = (double) studentRepository.findAll().stream()
                 .mapToInt(Student::getAge)
                 .sum() / studentRepository.count();
+        studentStatistics.reconcile();
 
         ResponseEntity<Double> responseEntity = testRestTemplate.getForEntity(
                 baseStudentUrl() + "/avg-age",
@@ -761,12 +855,75 @@ public class StudentControllerRestTemplateTest {
         assertThat(responseEntity.getBody()).isEqualTo(expected);
     }
 
+    @Test
+    void importStudentsTest() {
+        Faculty faculty = savedFaculties.get(0);
+        long countBefore = studentRepository.count();
+        String csv = """
+                name,age,facultyName
+                Neville Longbottom,17,%1$s
+                "Luna, Lovegood",16,%1$s
+                ,17,%1$s
+                Dobby,ten,%1$s
+                Crabbe,17,Durmstrang
+                """.formatted(faculty.getName());
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType("text/csv"));
+        ResponseEntity<StudentImportResultDto> responseEntity = testRestTemplate.postForEntity(
+                baseStudentUrl() + "/import",
+                new HttpEntity<>(csv, headers),
+                StudentImportResultDto.class
+        );
+
+        assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.OK);
+        StudentImportResultDto actual = responseEntity.getBody();
+        assertThat(actual.getImported()).isEqualTo(2);
+        assertThat(actual.getRejected()).isEqualTo(3);
+        assertThat(actual.getRejectedRows())
+                .extracting(StudentImportResult.RejectedRow::line)
+                .containsExactly(4L, 5L, 6L);
+        assertThat(studentRepository.count()).isEqualTo(countBefore + 2);
+        assertThat(studentRepository.findRowsByFacultyId(faculty.getId()))
+                .extracting(StudentRow::name)
+                .contains("Neville Longbottom", "Luna, Lovegood");
+    }
+
+    @Test
+    void getStatsTest() {
+        studentAnalyticsService.invalidate();   // Студенты в beforeEach сохраняются в обход сервиса
+
+        ResponseEntity<StudentStatsDto> responseEntity = testRestTemplate.getForEntity(
+                baseStudentUrl() + "/stats",
+                StudentStatsDto.class
+        );
+        assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.OK);
+        StudentStatsDto actual = responseEntity.getBody();
+
+        IntSummaryStatistics expectedTotal = savedStudents.stream()
+                .mapToInt(Student::getAge)
+                .summaryStatistics();
+        assertThat(actual.getTotal().getCount()).isEqualTo(expectedTotal.getCount());
+        assertThat(actual.getTotal().getAverageAge()).isCloseTo(expectedTotal.getAverage(), within(1e-9));
+        assertThat(actual.getTotal().getMinAge()).isEqualTo(expectedTotal.getMin());
+        assertThat(actual.getTotal().getMaxAge()).isEqualTo(expectedTotal.getMax());
+
+        assertThat(actual.getByFaculty()).hasSize(savedFaculties.size());
+        actual.getByFaculty().forEach(facultyStats -> {
+            long expectedCount = savedStudents.stream()
+                    .filter(student -> student.getFaculty().getId().equals(facultyStats.getFacultyId()))
+                    .count();
+            assertThat(facultyStats.getCount()).isEqualTo(expectedCount);
+        });
+        assertThat(actual.getByColor().values().stream().mapToLong(AgeStatsDto::getCount).sum())
+                .isEqualTo(expectedTotal.getCount());
+    }
+
     @Test
     void getAllAvatars() {
         int pageNumber = random.nextInt(1, 3);
         int pageSize = random.nextInt(1, 6);
 
-
         ResponseEntity<List<AvatarDto>> responseEntity = testRestTemplate.exchange(
                 baseStudentUrl() + "/avatars?pageNumber={pageNumber}&pageSize={pageSize}",
                 HttpMethod.GET,
@@ -785,6 +942,93 @@ public class StudentControllerRestTemplateTest {
         assertThat(responseEntity.getBody()).hasSameElementsAs(actual);
     }
 
+    @Test
+    void getAllAvatarsWithExactCountTest() {
+        RestTemplate patchedRestTemplate = patchedRestTemplate(testRestTemplate);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+        List<Student> withAvatars = savedStudents.subList(0, 2);
+        withAvatars.forEach(student -> {
+            LinkedMultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+            body.add("avatar", new FileSystemResource(testResourcePath()));
+            patchedRestTemplate.exchange(
+                    baseStudentUrl() + "/{id}/avatar",
+                    HttpMethod.PATCH,
+                    new HttpEntity<>(body, headers),
+                    Boolean.class,
+                    student.getId());
+        });
+
+        ResponseEntity<List<AvatarDto>> firstPage = testRestTemplate.exchange(
+                baseStudentUrl() + "/avatars?pageNumber=1&pageSize=1&count=EXACT",
+                HttpMethod.GET,
+                HttpEntity.EMPTY,
+                new ParameterizedTypeReference<>() {}
+        );
+        ResponseEntity<List<AvatarDto>> afterLastPage = testRestTemplate.exchange(
+                baseStudentUrl() + "/avatars?pageNumber=3&pageSize=1&count=EXACT",
+                HttpMethod.GET,
+                HttpEntity.EMPTY,
+                new ParameterizedTypeReference<>() {}
+        );
+
+//        Количество посчитано окном по всей выборке, а не по одной строке страницы
+        Long firstAvatarId = avatarRepository.findAll().stream().map(Avatar::getId).min(Long::compare).orElseThrow();
+        assertThat(firstPage.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(firstPage.getHeaders().getFirst(StudentController.TOTAL_COUNT_HEADER)).isEqualTo("2");
+        assertThat(firstPage.getBody()).singleElement()
+                .satisfies(avatar -> assertThat(avatar.getId()).isEqualTo(firstAvatarId));
+        assertThat(afterLastPage.getHeaders().getFirst(StudentController.TOTAL_COUNT_HEADER)).isEqualTo("2");
+        assertThat(afterLastPage.getBody()).isEmpty();
+    }
+
+    @ParameterizedTest
+    @EnumSource(ExportFormat.class)
+    void exportStudentsTest(ExportFormat format) throws IOException {
+        insertStudents(savedFaculties, 2_000, i -> 11 + i % 7);
+        long expectedRows = studentRepository.count();
+
+        List<String> lines = new ArrayList<>();
+        HttpHeaders headers = testRestTemplate.execute(
+                baseStudentUrl() + "/export?format={format}",
+                HttpMethod.GET,
+                null,
+                response -> {
+                    try (BufferedReader reader = new BufferedReader(new InputStreamReader(response.getBody(), StandardCharsets.UTF_8))) {
+                        reader.lines().forEach(lines::add);
+                    }
+                    return response.getHeaders();
+                },
+                format);
+
+        assertThat(headers).isNotNull();
+        assertThat(headers.getContentType()).isEqualTo(format.getMediaType());
+//        Тело не собрано в памяти целиком: длина заранее неизвестна, и ответ уходит порциями
+        assertThat(headers.getContentLength()).isEqualTo(-1);
+        assertThat(headers.getFirst(HttpHeaders.TRANSFER_ENCODING)).isEqualTo("chunked");
+
+        Set<Long> exportedIds = new HashSet<>();
+        if (format == ExportFormat.CSV) {
+            assertThat(lines.get(0)).isEqualTo("id,name,age,facultyId,hasAvatar");
+            for (String row : lines.subList(1, lines.size())) {
+                String[] columns = row.split(",");
+                assertThat(columns).as(row).hasSize(5);
+                exportedIds.add(Long.parseLong(columns[0]));
+            }
+            assertThat(lines).hasSize((int) expectedRows + 1);
+        } else {
+            for (String line : lines) {
+                JsonNode student = objectMapper.readTree(line);
+                assertThat(student.isObject()).as(line).isTrue();
+                exportedIds.add(student.get("id").asLong());
+            }
+            assertThat(lines).hasSize((int) expectedRows);
+        }
+        assertThat(exportedIds).hasSize((int) expectedRows);
+
+        deleteStudentsAndFaculties();
+    }
+
     @Test
     void searchStudentsTest() {
 
@@ -812,4 +1056,326 @@ public class StudentControllerRestTemplateTest {
         assertThat(responseEntity.getBody()).hasSameElementsAs(actual);
 
     }
-}
\ No newline at end of file
+
+    @Test
+    void searchStudentsPageSizeBoundsTest() {
+
+        ResponseEntity<List<StudentOutputDto>> defaultPageSize = testRestTemplate.exchange(
+                baseStudentUrl(),
+                HttpMethod.GET,
+                HttpEntity.EMPTY,
+                new ParameterizedTypeReference<>() {}
+        );
+        ResponseEntity<String> tooLargePageSize = testRestTemplate.getForEntity(
+                baseStudentUrl() + "?pageSize={pageSize}",
+                String.class,
+                StudentController.MAX_QUERY_PAGE_SIZE + 1
+        );
+
+//        Без pageSize берется страница по умолчанию, а не ошибка переполнения int
+        assertThat(defaultPageSize.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(defaultPageSize.getBody()).hasSize(savedStudents.size());
+        assertThat(tooLargePageSize.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(tooLargePageSize.getBody()).contains("Size of page must not exceed " + StudentController.MAX_QUERY_PAGE_SIZE);
+    }
+
+    @Test
+    void searchStudentsByCursorWithThreeSortColumnsTest() {
+        List<Long> expected = savedStudents.stream()
+                .sorted(Comparator.comparing((Student student) -> student.getFaculty().getName())
+                        .thenComparing(Student::getName)
+                        .thenComparing(Comparator.comparing(Student::getAge).thenComparing(Student::getId).reversed()))
+                .map(Student::getId)
+                .toList();
+
+        List<Long> actual = new ArrayList<>();
+        String url = baseStudentUrl() + "?sort=facultyName,name,age:desc&pageSize=1";
+        String cursor = null;
+        int pages = 0;
+        do {
+            ResponseEntity<List<StudentOutputDto>> responseEntity = testRestTemplate.exchange(
+                    cursor == null ? url : url + "&cursor=" + cursor,
+                    HttpMethod.GET,
+                    HttpEntity.EMPTY,
+                    new ParameterizedTypeReference<>() {}
+            );
+
+            assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.OK);
+            assertThat(responseEntity.getBody()).isNotNull();
+            responseEntity.getBody().forEach(student -> actual.add(student.getId()));
+            cursor = responseEntity.getHeaders().getFirst(StudentController.NEXT_CURSOR_HEADER);
+            pages++;
+        } while (cursor != null);
+
+        assertThat(pages).isGreaterThanOrEqualTo(2);
+        assertThat(actual).isEqualTo(expected);
+    }
+
+    @Test
+    void queryStudentsTest() {
+
+        Student targetStudent = savedStudents.get(random.nextInt(0, savedStudents.size()));
+        String namePrefix = targetStudent.getName().substring(0, 2).toLowerCase();
+
+        List<StudentOutputDto> expected = savedStudents.stream()
+                .filter(student -> student.getFaculty().getColor() == targetStudent.getFaculty().getColor())
+                .filter(student -> student.getAge() >= targetStudent.getAge() - 1 && student.getAge() <= targetStudent.getAge() + 1)
+                .filter(student -> student.getName().regionMatches(true, 0, namePrefix, 0, namePrefix.length()))
+                .filter(student -> student.getAvatar() == null)
+                .sorted(Comparator.comparing(Student::getAge).reversed().thenComparing(Student::getId, Comparator.reverseOrder()))
+                .map(studentMapper::toDto)
+                .toList();
+
+        ResponseEntity<List<StudentOutputDto>> responseEntity = testRestTemplate.exchange(
+                baseStudentUrl() + "/query?color={color}&minAge={minAge}&maxAge={maxAge}&namePrefix={namePrefix}&hasAvatar=false&sort=age:desc",
+                HttpMethod.GET,
+                HttpEntity.EMPTY,
+                new ParameterizedTypeReference<>() {},
+                targetStudent.getFaculty().getColor(), targetStudent.getAge() - 1, targetStudent.getAge() + 1, namePrefix
+        );
+
+        assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(responseEntity.getBody())
+                .isNotEmpty()
+                .containsExactlyElementsOf(expected);
+    }
+
+    @Test
+    void searchStudentsWithTotalCountTest() {
+
+        ResponseEntity<List<StudentOutputDto>> exact = testRestTemplate.exchange(
+                baseStudentUrl() + "?sort=age:desc&pageNumber={pageNumber}&pageSize=1&count=EXACT",
+                HttpMethod.GET,
+                HttpEntity.EMPTY,
+                new ParameterizedTypeReference<>() {},
+                random.nextInt(1, savedStudents.size() + 2)
+        );
+        ResponseEntity<List<AvatarDto>> avatars = testRestTemplate.exchange(
+                baseStudentUrl() + "/avatars?pageNumber=1&pageSize=1&count=EXACT",
+                HttpMethod.GET,
+                HttpEntity.EMPTY,
+                new ParameterizedTypeReference<>() {}
+        );
+        ResponseEntity<List<StudentOutputDto>> withoutCount = testRestTemplate.exchange(
+                baseStudentUrl() + "?pageSize=1",
+                HttpMethod.GET,
+                HttpEntity.EMPTY,
+                new ParameterizedTypeReference<>() {}
+        );
+
+        assertThat(exact.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(exact.getHeaders().getFirst(StudentController.TOTAL_COUNT_HEADER))
+                .isEqualTo(String.valueOf(savedStudents.size()));
+        assertThat(avatars.getHeaders().getFirst(StudentController.TOTAL_COUNT_HEADER))
+                .isEqualTo(String.valueOf(avatarRepository.count()));
+        assertThat(withoutCount.getHeaders().containsKey(StudentController.TOTAL_COUNT_HEADER)).isFalse();
+    }
+
+    @Test
+    void searchStudentsWithSparseFieldsetTest() {
+
+        ResponseEntity<List<Map<String, Object>>> sparse = testRestTemplate.exchange(
+                baseStudentUrl() + "?pageSize=100&fields=id,name",
+                HttpMethod.GET,
+                HttpEntity.EMPTY,
+                new ParameterizedTypeReference<>() {}
+        );
+        ResponseEntity<String> unknownField = testRestTemplate.getForEntity(
+                baseStudentUrl() + "?pageSize=100&fields=id,password",
+                String.class
+        );
+
+        assertThat(sparse.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(sparse.getBody())
+                .hasSize(savedStudents.size())
+                .allSatisfy(student -> assertThat(student).containsOnlyKeys("id", "name"));
+        assertThat(sparse.getBody())
+                .extracting(student -> student.get("name"))
+                .containsExactlyInAnyOrderElementsOf(savedStudents.stream().map(Student::getName).toList());
+
+//        Отказ именно из-за свойства не из белого списка, а не из-за других параметров
+        assertThat(unknownField.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(unknownField.getBody())
+                .startsWith("Unknown fields [password]")
+                .doesNotContain("Size of page");
+    }
+
+    @Test
+    void searchStudentsByNameWithTypoTest() {
+        enableTrigramSearch();
+        Student hermione = saveStudentNamed("Hermione Granger");
+        saveStudentNamed("Harry Potter");
+
+//        Пропущенная буква: подстрокой запрос не найдется, только по похожести триграмм
+        ResponseEntity<List<StudentOutputDto>> responseEntity = testRestTemplate.exchange(
+                baseStudentUrl() + "/search?q={q}",
+                HttpMethod.GET,
+                HttpEntity.EMPTY,
+                new ParameterizedTypeReference<>() {},
+                "Hermone"
+        );
+
+        assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(responseEntity.getBody())
+                .extracting(StudentOutputDto::getId)
+                .containsExactly(hermione.getId());
+    }
+
+    @Test
+    void searchStudentsByNameRankingTest() {
+        enableTrigramSearch();
+        Student withTypo = saveStudentNamed("Lily Poter");
+        Student exact = saveStudentNamed("Harry Potter");
+        Student longer = saveStudentNamed("James Potterson");
+
+        ResponseEntity<List<StudentOutputDto>> firstPage = testRestTemplate.exchange(
+                baseStudentUrl() + "/search?q={q}&pageSize=2",
+                HttpMethod.GET,
+                HttpEntity.EMPTY,
+                new ParameterizedTypeReference<>() {},
+                "Potter"
+        );
+        ResponseEntity<List<StudentOutputDto>> secondPage = testRestTemplate.exchange(
+                baseStudentUrl() + "/search?q={q}&pageNumber=2&pageSize=2",
+                HttpMethod.GET,
+                HttpEntity.EMPTY,
+                new ParameterizedTypeReference<>() {},
+                "Potter"
+        );
+
+//        Целое слово, затем начало более длинного слова, затем слово с опечаткой
+        assertThat(firstPage.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(firstPage.getBody())
+                .extracting(StudentOutputDto::getId)
+                .containsExactly(exact.getId(), longer.getId());
+        assertThat(secondPage.getBody())
+                .extracting(StudentOutputDto::getId)
+                .containsExactly(withTypo.getId());
+    }
+
+    @Test
+    void getStudentsByIdsTest() {
+        Long missingId = savedStudents.stream().mapToLong(Student::getId).max().orElseThrow() + 1;
+        List<Long> ids = List.of(savedStudents.get(1).getId(), missingId, savedStudents.get(0).getId());
+
+        ResponseEntity<List<StudentOutputDto>> responseEntity = testRestTemplate.exchange(
+                baseStudentUrl() + "?ids={ids}",
+                HttpMethod.GET,
+                HttpEntity.EMPTY,
+                new ParameterizedTypeReference<>() {},
+                StringUtils.collectionToCommaDelimitedString(ids)
+        );
+
+        assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(responseEntity.getBody())
+                .extracting(StudentOutputDto::getId)
+                .containsExactly(savedStudents.get(1).getId(), savedStudents.get(0).getId());
+        assertThat(responseEntity.getHeaders().getFirst(StudentController.MISSING_IDS_HEADER))
+                .isEqualTo(missingId.toString());
+    }
+
+    @Test
+    void getStudentProfileTest() {
+        Student target = savedStudents.get(0);
+        long missingId = savedStudents.stream().mapToLong(Student::getId).max().orElseThrow() + 1;
+
+        ResponseEntity<StudentProfileDto> profile = testRestTemplate.getForEntity(
+                baseStudentUrl() + "/{id}/profile?preview=true",
+                StudentProfileDto.class,
+                target.getId()
+        );
+        ResponseEntity<StudentProfileDto> missing = testRestTemplate.getForEntity(
+                baseStudentUrl() + "/{id}/profile",
+                StudentProfileDto.class,
+                missingId
+        );
+
+        assertThat(profile.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(profile.getBody()).isNotNull();
+        assertThat(profile.getBody().getStudent().getName()).isEqualTo(target.getName());
+        assertThat(profile.getBody().getFaculty().getId()).isEqualTo(target.getFaculty().getId());
+        assertThat(profile.getBody().getAvatar()).isNull();
+        assertThat(profile.getBody().getPreview()).isNull();
+        assertThat(missing.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+    }
+
+    @Test
+    void getStudentProfileWithAvatarTest() {
+        Student target = savedStudents.get(0);
+        RestTemplate patchedRestTemplate = patchedRestTemplate(testRestTemplate);
+
+        LinkedMultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+        body.add("avatar", new FileSystemResource(testResourcePath()));
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+        patchedRestTemplate.exchange(
+                baseStudentUrl() + "/{id}/avatar",
+                HttpMethod.PATCH,
+                new HttpEntity<>(body, headers),
+                Boolean.class,
+                target.getId());
+
+        ResponseEntity<StudentProfileDto> withPreview = testRestTemplate.getForEntity(
+                baseStudentUrl() + "/{id}/profile?preview=true",
+                StudentProfileDto.class,
+                target.getId()
+        );
+        ResponseEntity<StudentProfileDto> withoutPreview = testRestTemplate.getForEntity(
+                baseStudentUrl() + "/{id}/profile",
+                StudentProfileDto.class,
+                target.getId()
+        );
+
+        Avatar avatarFromDb = avatarRepository.findById(
+                studentRepository.findById(target.getId()).orElseThrow().getAvatar().getId()).orElseThrow();
+
+        assertThat(withPreview.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(withPreview.getBody()).isNotNull();
+        assertThat(withPreview.getBody().getAvatar()).isNotNull();
+        assertThat(withPreview.getBody().getAvatar().getId()).isEqualTo(avatarFromDb.getId());
+        assertThat(withPreview.getBody().getAvatar().getMediaType()).isEqualTo(avatarFromDb.getMediaType());
+        assertThat(withPreview.getBody().getAvatar().getStudentId()).isEqualTo(target.getId());
+        assertThat(withPreview.getBody().getAvatar().getStudentName()).isEqualTo(target.getName());
+//        Превью - сжатая картинка из БД, а не файл из локального хранилища
+        assertThat(withPreview.getBody().getPreview())
+                .isNotEmpty()
+                .isEqualTo(avatarFromDb.getData());
+
+        assertThat(withoutPreview.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(withoutPreview.getBody()).isNotNull();
+        assertThat(withoutPreview.getBody().getAvatar().getId()).isEqualTo(avatarFromDb.getId());
+        assertThat(withoutPreview.getBody().getPreview()).isNull();
+    }
+
+    @Test
+    void patchStudentTest() {
+        Student target = savedStudents.get(0);
+        Student before = studentRepository.findById(target.getId()).orElseThrow();
+        RestTemplate patchedRestTemplate = patchedRestTemplate(testRestTemplate);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.valueOf(StudentController.MERGE_PATCH_JSON_VALUE));
+
+        ResponseEntity<StudentOutputDto> patched = patchedRestTemplate.exchange(
+                baseStudentUrl() + "/{id}",
+                HttpMethod.PATCH,
+                new HttpEntity<>("{\"age\": 42}", headers),
+                StudentOutputDto.class,
+                target.getId());
+        ResponseEntity<String> unknownProperty = patchedRestTemplate.exchange(
+                baseStudentUrl() + "/{id}",
+                HttpMethod.PATCH,
+                new HttpEntity<>("{\"house\": \"Gryffindor\"}", headers),
+                String.class,
+                target.getId());
+
+        assertThat(patched.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(patched.getBody()).isNotNull();
+        assertThat(patched.getBody().getAge()).isEqualTo(42);
+        assertThat(patched.getBody().getName()).isEqualTo(before.getName());
+        assertThat(patched.getBody().getFacultyId()).isEqualTo(target.getFaculty().getId());
+        assertThat(studentRepository.findById(target.getId()).orElseThrow().getVersion())
+                .isEqualTo(before.getVersion() + 1);
+        assertThat(unknownProperty.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+}
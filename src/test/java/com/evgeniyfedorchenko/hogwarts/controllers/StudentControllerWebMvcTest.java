@@ -8,9 +8,16 @@ import com.evgeniyfedorchenko.hogwarts.exceptions.parentProjectException.Illegal
 import com.evgeniyfedorchenko.hogwarts.repositories.AvatarRepository;
 import com.evgeniyfedorchenko.hogwarts.repositories.FacultyRepository;
 import com.evgeniyfedorchenko.hogwarts.repositories.StudentRepository;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentRow;
 import com.evgeniyfedorchenko.hogwarts.services.AvatarServiceImpl;
 import com.evgeniyfedorchenko.hogwarts.services.FacultyServiceImpl;
+import com.evgeniyfedorchenko.hogwarts.services.StudentAnalyticsService;
+import com.evgeniyfedorchenko.hogwarts.services.StudentDtoCache;
+import com.evgeniyfedorchenko.hogwarts.services.StudentExportService;
+import com.evgeniyfedorchenko.hogwarts.services.StudentImportService;
+import com.evgeniyfedorchenko.hogwarts.services.StudentProfileService;
 import com.evgeniyfedorchenko.hogwarts.services.StudentServiceImpl;
+import com.evgeniyfedorchenko.hogwarts.services.StudentStatistics;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.introspect.Annotated;
@@ -43,7 +50,6 @@ import java.util.stream.Stream;
 import static com.evgeniyfedorchenko.hogwarts.Constants.*;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -64,13 +70,25 @@ public class StudentControllerWebMvcTest {
 
     @MockBean
     private FacultyServiceImpl facultyServiceImplMock;
+    @MockBean
+    private StudentStatistics studentStatisticsMock;
+    @MockBean
+    private StudentAnalyticsService studentAnalyticsServiceMock;
+    @MockBean
+    private StudentExportService studentExportServiceMock;
+    @MockBean
+    private StudentImportService studentImportServiceMock;
+    @MockBean
+    private StudentProfileService studentProfileServiceMock;
     @SpyBean
     private AvatarServiceImpl avatarServiceImplSpy;
     @SpyBean
     private StudentServiceImpl studentServiceImplSpy;
+    @SpyBean
+    private StudentDtoCache studentDtoCacheSpy;
+    @SpyBean
+    private ExportResponses exportResponsesSpy;
 
-    @Captor
-    private ArgumentCaptor<Faculty> facultyCaptor;
     @Captor
     private ArgumentCaptor<Avatar> avatarCaptor;
     @Captor
@@ -106,6 +124,7 @@ public class StudentControllerWebMvcTest {
 
         testConstantsInitialisation();
         objectMapper = new ObjectMapper();
+        studentDtoCacheSpy.invalidateAll();
 
         Random random = new Random();
         TEST_lIST_OF_4_STUDENTS
@@ -134,9 +153,6 @@ public class StudentControllerWebMvcTest {
 
         when(facultyRepositoryMock.findById(targetStudent.getFaculty().getId())).thenReturn(Optional.of(targetStudent.getFaculty()));
         when(studentRepositoryMock.save(any(Student.class))).thenReturn(STUDENT_1);
-        when(facultyServiceImplMock.updateFaculty(anyLong(), any(Faculty.class))).thenReturn(Optional.of(FACULTY_1));
-        when(facultyRepositoryMock.save(any(Faculty.class))).thenReturn(targetStudent.getFaculty());
-
 
         mockMvc.perform(post("/students")
                         .content(getFormattedBody(targetStudent))
@@ -154,12 +170,9 @@ public class StudentControllerWebMvcTest {
                 .usingRecursiveComparison()
                 .ignoringFields("id", "avatar", "faculty.students")
                 .isEqualTo(targetStudent);
-        verify(facultyRepositoryMock).save(facultyCaptor.capture());
-        Faculty facultyCaptorValue = facultyCaptor.getValue();
-
-//        проверка, что факультет нового студента действительно содержит этого студента
-        assertThat(facultyCaptorValue.getStudents())
-                .contains(targetStudent);
+//        Студент привязан к факультету со своей стороны, состав факультета при этом не загружается и не сохраняется
+        assertThat(studentCaptorValue.getFaculty().getId()).isEqualTo(targetStudent.getFaculty().getId());
+        verify(facultyRepositoryMock, never()).save(any(Faculty.class));
     }
 
     @Test
@@ -222,7 +235,8 @@ public class StudentControllerWebMvcTest {
     @Test
     void getStudentPositiveTest() throws Exception {
         Student targetStudent = STUDENT_1;
-        when(studentRepositoryMock.findById(targetStudent.getId())).thenReturn(Optional.of(targetStudent));
+        when(studentRepositoryMock.findRowById(targetStudent.getId())).thenReturn(Optional.of(new StudentRow(
+                targetStudent.getId(), targetStudent.getName(), targetStudent.getAge(), targetStudent.getFaculty().getId(), true, 0L, null)));
 
         mockMvc.perform(get("/students/{id}", targetStudent.getId())
                         .contentType(MediaType.APPLICATION_JSON)
@@ -237,7 +251,7 @@ public class StudentControllerWebMvcTest {
     @Test
     void getStudentNegativeTest() throws Exception {
 
-        when(studentRepositoryMock.findById(STUDENT_1.getId())).thenReturn(Optional.empty());
+        when(studentRepositoryMock.findRowById(STUDENT_1.getId())).thenReturn(Optional.empty());
 
         mockMvc.perform(get("/students/{id}", STUDENT_1.getId())
                         .contentType(MediaType.APPLICATION_JSON)
@@ -311,7 +325,7 @@ public class StudentControllerWebMvcTest {
 
     @Test
     void getFacultyOfStudentPositiveTest() throws Exception {
-        when(studentRepositoryMock.findById(STUDENT_1.getId())).thenReturn(Optional.of(STUDENT_1));
+        when(facultyRepositoryMock.findByStudentId(STUDENT_1.getId())).thenReturn(Optional.of(STUDENT_1.getFaculty()));
 
         mockMvc.perform(get("/students/{id}/faculty", STUDENT_1.getId())
                         .contentType(MediaType.APPLICATION_JSON)
@@ -325,7 +339,7 @@ public class StudentControllerWebMvcTest {
 
     @Test
     void getFacultyOfStudentNegativeTest() throws Exception {
-        when(studentRepositoryMock.findById(STUDENT_1.getId())).thenReturn(Optional.empty());
+        when(facultyRepositoryMock.findByStudentId(STUDENT_1.getId())).thenReturn(Optional.empty());
 
         mockMvc.perform(get("/students/{id}/faculty", STUDENT_1.getId())
                         .contentType(MediaType.APPLICATION_JSON)
@@ -343,7 +357,7 @@ public class StudentControllerWebMvcTest {
 
         when(studentRepositoryMock.findById(srcStudent.getId())).thenReturn(Optional.of(srcStudent));
         when(facultyRepositoryMock.findById(srcStudent.getFaculty().getId())).thenReturn(Optional.of(srcStudent.getFaculty()));
-        when(studentRepositoryMock.save(any(Student.class))).thenReturn(destStudent);
+        when(studentRepositoryMock.saveAndFlush(any(Student.class))).thenReturn(destStudent);
 
         mockMvc.perform(put("/students/{id}", srcStudent.getId())
                         .content(getFormattedBody(destStudent))
@@ -355,7 +369,7 @@ public class StudentControllerWebMvcTest {
                 .andExpect(jsonPath("$.name").value(destStudent.getName()))
                 .andExpect(jsonPath("$.age").value(destStudent.getAge()));
 
-        verify(studentRepositoryMock).save(studentCaptor.capture());
+        verify(studentRepositoryMock).saveAndFlush(studentCaptor.capture());
         Student captorValue = studentCaptor.getValue();
         assertThat(captorValue)
                 .usingRecursiveComparison()
@@ -369,9 +383,8 @@ public class StudentControllerWebMvcTest {
     @Test
     void updateStudentWithChangeFacultyPositiveTest() throws Exception {   // Со сменой факультета
 
-        /* Мы хотим изменить 4ого студента: сменить ему имя и перевести на второй факультет
-           Саму логику пересборки факультетов с новыми студентами (метод FacultyService.updateFaculty()) замокаем,
-           так как этот метод тестировался в своем классе */
+        /* Мы хотим изменить 4ого студента: сменить ему имя и перевести на второй факультет.
+           Составы факультетов при этом не загружаются и не сохраняются - меняется только факультет студента */
 
 //         В первом факультете студенты: 1, и 4
         FACULTY_1.setStudents(new ArrayList<>(List.of(STUDENT_1, STUDENT_4)));
@@ -385,16 +398,7 @@ public class StudentControllerWebMvcTest {
 
         when(studentRepositoryMock.findById(srcStudent.getId())).thenReturn(Optional.of(srcStudent));
         when(facultyRepositoryMock.findById(destStudent.getFaculty().getId())).thenReturn(Optional.of(destStudent.getFaculty()));
-        when(facultyRepositoryMock.save(any(Faculty.class)))
-                .thenReturn(srcStudent.getFaculty())
-                .thenReturn(destStudent.getFaculty());
-        when(studentRepositoryMock.save(any(Student.class))).thenReturn(STUDENT_4_EDITED);
-
-        // Зачислили студента во 2ой факультет
-        FACULTY_2.setStudents(new ArrayList<>(List.of(STUDENT_2, STUDENT_3, STUDENT_4_EDITED)));
-        when(facultyServiceImplMock.updateFaculty(anyLong(), any(Faculty.class)))
-                .thenReturn(Optional.of(FACULTY_1))
-                .thenReturn(Optional.of(FACULTY_2));
+        when(studentRepositoryMock.saveAndFlush(any(Student.class))).thenReturn(STUDENT_4_EDITED);
 
         mockMvc.perform(put("/students/{id}", srcStudent.getId())
                         .content(getFormattedBody(destStudent))
@@ -405,15 +409,11 @@ public class StudentControllerWebMvcTest {
                 .andExpect(jsonPath("$.name").value(destStudent.getName()))
                 .andExpect(jsonPath("$.age").value(destStudent.getAge()));
 
-        verify(facultyRepositoryMock, times(2)).save(facultyCaptor.capture());
-        List<Faculty> capturedFaculties = facultyCaptor.getAllValues();
-        assertThat(capturedFaculties.get(0).getStudents()).doesNotContain(srcStudent);
-        assertThat(capturedFaculties.get(1).getStudents()).contains(destStudent);
+        verify(facultyRepositoryMock, never()).save(any(Faculty.class));
 
-         /* В .save() должен прийти студент с новыми полями (но здешний локально его факультет не обновлен, а там он
-            поднимается из БД, и его студенты обновляются), поэтому исключено поле this.faculty.student
-            Остальные поля факультета (в том числе id) говорят о том, что факультет поднялся правильный */
-        verify(studentRepositoryMock).save(studentCaptor.capture());
+         /* В .save() должен прийти студент с новыми полями. Состав факультета сервис не трогает, поэтому исключено
+            поле this.faculty.students. Остальные поля факультета (в том числе id) говорят о том, что факультет поднялся правильный */
+        verify(studentRepositoryMock).saveAndFlush(studentCaptor.capture());
         Student captorValue = studentCaptor.getValue();
         assertThat(captorValue)
                 .usingRecursiveComparison()
@@ -423,11 +423,6 @@ public class StudentControllerWebMvcTest {
 //        id остался старый, так что новый студент не создастся, а просто обновится старый
         assertThat(captorValue.getId())
                 .isEqualTo(srcStudent.getId());
-
-//        Факультет обновленного студента содержит этого студента
-        assertThat(captorValue.getFaculty().getStudents())
-                .contains(destStudent);
-
     }
 
     @Test
@@ -488,7 +483,7 @@ public class StudentControllerWebMvcTest {
     void setAvatarPositiveTest() throws Exception {
         Student targetStudent = STUDENT_1;
 
-        when(studentRepositoryMock.findById(targetStudent.getId())).thenReturn(Optional.of(targetStudent));
+        when(studentRepositoryMock.findWithFacultyById(targetStudent.getId())).thenReturn(Optional.of(targetStudent));
         when(avatarRepositoryMock.findByStudent_Id(targetStudent.getId())).thenReturn(Optional.empty());
         when(avatarRepositoryMock.save(any(Avatar.class))).thenReturn(AVATAR_1);
         when(studentRepositoryMock.save(any(Student.class))).thenReturn(targetStudent);
@@ -529,7 +524,7 @@ public class StudentControllerWebMvcTest {
 
     @Test
     void setAvatarNegativeTest() throws Exception {
-        when(studentRepositoryMock.findById(FACULTY_1.getId())).thenReturn(Optional.empty());
+        when(studentRepositoryMock.findWithFacultyById(FACULTY_1.getId())).thenReturn(Optional.empty());
 
         MockMultipartFile multipartFile = new MockMultipartFile(
                 "avatar",
@@ -595,7 +590,7 @@ public class StudentControllerWebMvcTest {
     @Test
     void deleteStudentPositiveTest() throws Exception {
 
-        when(studentRepositoryMock.findById(STUDENT_1.getId())).thenReturn(Optional.of(STUDENT_1));
+        when(studentRepositoryMock.findWithFacultyById(STUDENT_1.getId())).thenReturn(Optional.of(STUDENT_1));
         doNothing().when(studentRepositoryMock).delete(STUDENT_1);
 
         mockMvc.perform(delete("/students/{id}", STUDENT_1.getId())
@@ -617,7 +612,7 @@ public class StudentControllerWebMvcTest {
     @Test
     void deleteStudentNegativeTest() throws Exception {
 
-        when(studentRepositoryMock.findById(STUDENT_1.getId())).thenReturn(Optional.empty());
+        when(studentRepositoryMock.findWithFacultyById(STUDENT_1.getId())).thenReturn(Optional.empty());
 
         mockMvc.perform(delete("/students/{id}", STUDENT_1.getId())
                         .contentType(MediaType.APPLICATION_JSON)
@@ -0,0 +1,66 @@
+package com.evgeniyfedorchenko.hogwarts.dto;
+
+import com.evgeniyfedorchenko.hogwarts.controllers.SortOrder;
+import com.evgeniyfedorchenko.hogwarts.exceptions.InvalidRequestParameterException;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentSort;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentSortColumn;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StudentCursorTest {
+
+    public static Stream<Arguments> provideParamsForEncodeDecodeTest() {
+        return Stream.of(
+                Arguments.of(new StudentCursor(StudentSort.of(StudentSortColumn.ID, SortOrder.ASC), List.of(15L))),
+                Arguments.of(new StudentCursor(StudentSort.of(StudentSortColumn.AGE, SortOrder.DESC), List.of(21, 7L))),
+                Arguments.of(new StudentCursor(StudentSort.parse("facultyName,name:desc"),
+                        List.of("Gryffindor", "Harry | The Boy Who Lived", 3L))),
+                // Три колонки клиента и id: в курсоре четыре ключа
+                Arguments.of(new StudentCursor(StudentSort.parse("facultyName,name,age:desc"),
+                        List.of("Gryffindor", "Harry", 17, 3L)))
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("provideParamsForEncodeDecodeTest")
+    void encodeDecodeTest(StudentCursor cursor) {
+        assertThat(StudentCursor.decode(cursor.encode()))
+                .isEqualTo(cursor);
+    }
+
+    @Test
+    void decodeMalformedCursorTest() {
+        assertThatThrownBy(() -> StudentCursor.decode("not a cursor"))
+                .isInstanceOf(InvalidRequestParameterException.class);
+        assertThatThrownBy(() -> StudentCursor.decode(
+                new StudentCursor(StudentSort.of(StudentSortColumn.AGE, SortOrder.ASC), List.of("abc", 1L)).encode()))
+                .isInstanceOf(InvalidRequestParameterException.class);
+        assertThatThrownBy(() -> StudentCursor.decode(
+                new StudentCursor(StudentSort.of(StudentSortColumn.AGE, SortOrder.ASC), List.of(1L)).encode()))
+                .isInstanceOf(InvalidRequestParameterException.class);
+    }
+
+    @Test
+    void sortGetsIdTiebreakerTest() {
+        assertThat(StudentSort.parse("age:desc, name").toString())
+                .isEqualTo("age:DESC,name:ASC,id:ASC");
+        assertThat(StudentSort.parse("id:desc,name").toString())
+                .isEqualTo("id:DESC");
+        assertThatThrownBy(() -> StudentSort.parse("age;DROP TABLE students"))
+                .isInstanceOf(InvalidRequestParameterException.class);
+        assertThatThrownBy(() -> StudentSort.parse("facultyName,name,age,id"))
+                .isInstanceOf(InvalidRequestParameterException.class);
+        assertThat(StudentSort.parseWithTiebreaker("facultyName:ASC,name:ASC,age:DESC,id:DESC"))
+                .isEqualTo(StudentSort.parse("facultyName,name,age:desc"));
+        assertThatThrownBy(() -> StudentSort.parseWithTiebreaker("facultyName,name,age,id:desc,name"))
+                .isInstanceOf(InvalidRequestParameterException.class);
+    }
+}
@@ -0,0 +1,21 @@
+package com.evgeniyfedorchenko.hogwarts.repositories;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Запоминает SQL всех запросов, которые Hibernate отправляет в БД
+ * (свойство {@code hibernate.session_factory.statement_inspector}). Сам SQL не меняет
+ */
+public class RecordingStatementInspector implements StatementInspector {
+
+    public static final List<String> STATEMENTS = new CopyOnWriteArrayList<>();
+
+    @Override
+    public String inspect(String sql) {
+        STATEMENTS.add(sql);
+        return sql;
+    }
+}
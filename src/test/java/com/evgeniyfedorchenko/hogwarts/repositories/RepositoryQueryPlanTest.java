@@ -0,0 +1,352 @@
+package com.evgeniyfedorchenko.hogwarts.repositories;
+
+import com.evgeniyfedorchenko.hogwarts.PostgresIntegrationTest;
+import com.evgeniyfedorchenko.hogwarts.controllers.SortOrder;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentCursor;
+import com.evgeniyfedorchenko.hogwarts.entities.Color;
+import com.evgeniyfedorchenko.hogwarts.entities.Faculty;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Регрессионный тест планов: каждый метод репозиториев вызывается на заполненной БД с индексами из
+ * {@code liquibase/scripts/indexes.sql}, а весь SQL, который при этом сгенерировал Hibernate, проходит через
+ * {@code EXPLAIN (GENERIC_PLAN)}. Запросы {@link StudentJdbcRepository} идут мимо Hibernate, поэтому их тексты
+ * проверяются напрямую. Тест падает, если запрос читает таблицу целиком вместо поиска по индексу.
+ * <p>
+ * Последовательное чтение запрещено ({@code enable_seqscan = off}), поэтому при отсутствии подходящего индекса
+ * планировщик выбирает либо Seq Scan, либо полный проход по чужому индексу с фильтром - оба варианта считаются регрессией.
+ * Методы, которые по смыслу читают всю таблицу (агрегаты, выгрузка, поиск подстроки в названии факультета),
+ * тоже выполняются, но их планы только пишутся в лог
+ */
+@SpringBootTest
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class RepositoryQueryPlanTest extends PostgresIntegrationTest {
+
+    private static final int FACULTIES = 4;
+    private static final int STUDENTS_PER_FACULTY = 2_500;
+    private static final int AVATARS = 1_000;
+    private static final String INDEXES_SCRIPT = "liquibase/scripts/indexes.sql";
+
+    @Autowired
+    private AvatarRepository avatarRepository;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final Logger logger = LoggerFactory.getLogger(RepositoryQueryPlanTest.class);
+    private Long facultyId;
+    private Long studentId;
+
+    @DynamicPropertySource
+    static void configureProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.jpa.properties.hibernate.session_factory.statement_inspector",
+                RecordingStatementInspector.class::getName);
+    }
+
+    @BeforeAll
+    public void beforeAll() throws IOException {
+        /* Схему в тестах создает Hibernate, а Liquibase выключен, поэтому changelog применяется здесь:
+           так проверяются ровно те индексы, которые будут на проде */
+        changelogStatements().forEach(jdbcTemplate::execute);
+
+        List<Faculty> faculties = saveFaculties(FACULTIES);
+        facultyId = faculties.get(0).getId();
+        insertStudents(faculties, STUDENTS_PER_FACULTY, i -> 11 + i % 40);
+
+//        Аватары есть только у части студентов, как и на проде
+        jdbcTemplate.update("INSERT INTO avatars (file_path, media_type) SELECT 'avatar' || g, 'image/png' FROM generate_series(1, ?) g", AVATARS);
+        jdbcTemplate.update("""
+                UPDATE students SET avatar_id = a.id
+                FROM (SELECT id, row_number() OVER (ORDER BY id) AS rn FROM avatars) a,
+                     (SELECT id, row_number() OVER (ORDER BY id) AS rn FROM students) s
+                WHERE s.rn = a.rn AND students.id = s.id""");
+        studentId = jdbcTemplate.queryForObject("SELECT min(id) FROM students", Long.class);
+
+        jdbcTemplate.execute("ANALYZE");
+    }
+
+    @AfterAll
+    public void afterAll() {
+        studentRepository.deleteAllInBatch();
+        avatarRepository.deleteAllInBatch();
+        facultyRepository.deleteAllInBatch();
+    }
+
+    public Stream<Arguments> provideRepositoryMethods() {
+        StudentSort byAgeDesc = StudentSort.of(StudentSortColumn.AGE, SortOrder.DESC);
+        StudentSort byName = StudentSort.of(StudentSortColumn.NAME, SortOrder.ASC);
+        StudentSort byAgeDescName = StudentSort.parse("age:desc,name");
+        StudentSort byId = StudentSort.of(StudentSortColumn.ID, SortOrder.ASC);
+        return Stream.of(
+                indexed("StudentRepository.findById", () -> studentRepository.findById(studentId)),
+                indexed("StudentRepository.findWithFacultyById", () -> studentRepository.findWithFacultyById(studentId)),
+                indexed("StudentRepository.findByAge", () -> studentRepository.findByAge(17)),
+                indexed("StudentRepository.findByAgeBetween", () -> studentRepository.findByAgeBetween(17, 18)),
+                indexed("StudentRepository.findByFaculty_Id", () -> studentRepository.findByFaculty_Id(facultyId)),
+                indexed("StudentRepository.findRowById", () -> studentRepository.findRowById(studentId)),
+                indexed("StudentRepository.findRowsByIds",
+                        () -> studentRepository.findRowsByIds(List.of(studentId, studentId + 1, studentId + 2))),
+                indexed("StudentRepository.findRowsByAge", () -> studentRepository.findRowsByAge(17)),
+                indexed("StudentRepository.findRowsByAgeBetween", () -> studentRepository.findRowsByAgeBetween(17, 18)),
+                indexed("StudentRepository.findRowsByFacultyId", () -> studentRepository.findRowsByFacultyId(facultyId)),
+                indexed("StudentRepository.findIdsByFacultyIdAfter",
+                        () -> studentRepository.findIdsByFacultyIdAfter(facultyId, studentId, Limit.of(100))),
+                indexed("StudentRepository.countByFaculty_Id", () -> studentRepository.countByFaculty_Id(facultyId)),
+                indexed("StudentRepository.countByFacultyIdIn", () -> studentRepository.countByFacultyIdIn(List.of(facultyId))),
+                indexed("StudentRepository.findPage(id)", () -> studentRepository.findPage(byId, 100, 0)),
+                indexed("StudentRepository.findPage(age:desc)", () -> studentRepository.findPage(byAgeDesc, 100, 0)),
+                indexed("StudentRepository.findPageAfter(age:desc)",
+                        () -> studentRepository.findPageAfter(new StudentCursor(byAgeDesc, List.of(30, studentId)), 100)),
+                indexed("StudentRepository.findPageAfter(name)",
+                        () -> studentRepository.findPageAfter(new StudentCursor(byName, List.of("Student5", studentId)), 100)),
+                indexed("StudentRepository.findPageAfter(age:desc,name)",
+                        () -> studentRepository.findPageAfter(new StudentCursor(byAgeDescName, List.of(30, "Student5", studentId)), 100)),
+                indexed("StudentRepository.findPageOfFaculty(name)",
+                        () -> studentRepository.findPageOfFaculty(facultyId, byName, 100, 0)),
+                indexed("StudentRepository.findPageOfFacultyAfter(age:desc)",
+                        () -> studentRepository.findPageOfFacultyAfter(facultyId, new StudentCursor(byAgeDesc, List.of(30, studentId)), 100)),
+                indexed("StudentRepository.streamRowsOfFaculty(name)",
+                        () -> studentRepository.streamRowsOfFaculty(facultyId, byName).limit(100).count()),
+                indexed("StudentRepository.findPageByFilter(facultyId, age, name)", () -> studentRepository.findPageByFilter(
+                        new StudentFilter(17, 18, facultyId, null, null, null), byName, 100, 0)),
+                indexed("StudentRepository.findPageByFilterAfter(facultyId, namePrefix, age:desc)", () -> studentRepository.findPageByFilterAfter(
+                        new StudentFilter(null, null, facultyId, null, "Student1", true),
+                        new StudentCursor(byAgeDesc, List.of(30, studentId)), 100)),
+                indexed("StudentRepository.countByFilter(facultyId, age)",
+                        () -> studentRepository.countByFilter(new StudentFilter(17, 18, facultyId, null, null, null))),
+                indexed("StudentRepository.findByNameSimilarity",
+                        () -> studentRepository.findByNameSimilarity("Studnt12", "Studnt12", 100, 0)),
+                fullScan("StudentRepository.getAverageAge", () -> studentRepository.getAverageAge()),
+                fullScan("StudentRepository.countGroupedByAge", () -> studentRepository.countGroupedByAge()),
+                fullScan("StudentRepository.streamAllRows", () -> studentRepository.streamAllRows().limit(100).count()),
+                fullScan("StudentRepository.findCountedPage", () -> studentRepository.findCountedPage(byId, 100, 0)),
+                fullScan("StudentRepository.findAgeStats", () -> studentRepository.findAgeStats()),
+
+                indexed("FacultyRepository.findById", () -> facultyRepository.findById(facultyId)),
+                indexed("FacultyRepository.findAllByIdCached", () -> facultyRepository.findAllByIdCached(List.of(facultyId))),
+                indexed("FacultyRepository.existsByName", () -> facultyRepository.existsByName("Faculty1")),
+                indexed("FacultyRepository.findFirstByName", () -> facultyRepository.findFirstByName("Faculty1")),
+                indexed("FacultyRepository.findExistingNames", () -> facultyRepository.findExistingNames(List.of("Faculty1", "Faculty9"))),
+                indexed("FacultyRepository.findWithStudentsById",
+                        () -> facultyRepository.findWithStudentsById(facultyId).map(faculty -> faculty.getStudents().size())),
+                indexed("FacultyRepository.findByStudentId", () -> facultyRepository.findByStudentId(studentId)),
+                fullScan("FacultyRepository.findFacultyByColorAndNameContainsIgnoreCase",
+                        () -> facultyRepository.findFacultyByColorAndNameContainsIgnoreCase(Color.RED_GOLD, "culty")),
+                fullScan("FacultyRepository.findByNameContainsIgnoreCase", () -> facultyRepository.findByNameContainsIgnoreCase("culty")),
+
+                indexed("AvatarRepository.findByStudent_Id", () -> avatarRepository.findByStudent_Id(studentId)),
+                indexed("AvatarRepository.findRowByStudentId", () -> avatarRepository.findRowByStudentId(studentId)),
+                indexed("AvatarRepository.findDataByStudentId", () -> avatarRepository.findDataByStudentId(studentId)),
+                indexed("AvatarRepository.findAll(Pageable)", () -> avatarRepository.findAll(PageRequest.of(1, 50))),
+                indexed("AvatarRepository.findAllBy(Pageable)", () -> avatarRepository.findAllBy(PageRequest.of(1, 50))),
+                indexed("AvatarRepository.estimateCount", () -> avatarRepository.estimateCount()),
+                fullScan("AvatarRepository.findCountedPage", () -> avatarRepository.findCountedPage(50, 0))
+        );
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("provideRepositoryMethods")
+    void repositoryMethodUsesIndexesTest(String method, boolean fullScanByDesign, Runnable call) {
+        RecordingStatementInspector.STATEMENTS.clear();
+        transactionTemplate.executeWithoutResult(status -> call.run());
+        List<String> statements = List.copyOf(RecordingStatementInspector.STATEMENTS);
+        assertThat(statements).as("SQL of %s", method).isNotEmpty();
+
+        List<String> fullScans = new ArrayList<>();
+        statements.stream()
+                .filter(sql -> sql.stripLeading().regionMatches(true, 0, "select", 0, 6))
+                .forEach(sql -> {
+                    JsonNode plan = explain(sql);
+                    logger.debug("Plan of {}:\n{}\n{}", method, sql, plan.toPrettyString());
+                    collectFullScans(plan, fullScans);
+                });
+
+        if (fullScanByDesign) {
+            logger.info("{} reads whole tables by design: {}", method, fullScans);
+        } else {
+            assertThat(fullScans).as("Full scans in %s", method).isEmpty();
+        }
+    }
+
+    /**
+     * @return - название, SQL и таблица, которую запрос читает целиком по замыслу ({@code null}, если такой нет)
+     */
+    public Stream<Arguments> provideJdbcStatements() {
+        return Stream.of(
+                Arguments.of("StudentJdbcRepository.transferStudents", StudentJdbcRepository.TRANSFER_BY_IDS_SQL, null),
+                Arguments.of("StudentJdbcRepository.transferAllStudents", StudentJdbcRepository.TRANSFER_ALL_SQL, null),
+                Arguments.of("StudentJdbcRepository.deleteStudentsOfFaculty (students)", StudentJdbcRepository.DELETE_STUDENTS_SQL, null),
+                Arguments.of("StudentJdbcRepository.deleteStudentsOfFaculty (avatars, lo_unlink)", StudentJdbcRepository.DELETE_AVATARS_SQL, null),
+//                Загруженный COPY файл читается целиком, но факультеты ищутся по индексу
+                Arguments.of("StudentJdbcRepository.importCsv (insert)", StudentJdbcRepository.INSERT_SQL, "student_import"),
+                Arguments.of("StudentJdbcRepository.importCsv (rejected)", StudentJdbcRepository.REJECTED_SQL, "student_import")
+        );
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("provideJdbcStatements")
+    void jdbcStatementUsesIndexesTest(String method, String sql, String scannedByDesign) {
+//        Временная таблица импорта нужна планировщику и живет только в транзакции EXPLAIN
+        JsonNode plan = explain(sql, StudentJdbcRepository.CREATE_STAGING_SQL);
+        logger.debug("Plan of {}:\n{}\n{}", method, sql, plan.toPrettyString());
+
+        List<String> fullScans = new ArrayList<>();
+        collectFullScans(plan, fullScans);
+
+        if (scannedByDesign == null) {
+            assertThat(fullScans).as("Full scans in %s", method).isEmpty();
+        } else {
+            assertThat(fullScans).as("Full scans in %s", method).allMatch(scan -> scan.endsWith(" on " + scannedByDesign));
+        }
+    }
+
+    private static Arguments indexed(String method, Runnable call) {
+        return Arguments.of(method, false, call);
+    }
+
+    private static Arguments fullScan(String method, Runnable call) {
+        return Arguments.of(method, true, call);
+    }
+
+    /**
+     * Операторы changelog, которые нужно применить к схеме Hibernate: индексы, расширения и DO-блоки (они сами проверяют,
+     * нужны ли их изменения). Последовательности и колонки Hibernate создает сам, такие операторы пропускаются.
+     * Операторы разбираются так же, как их делит Liquibase: по {@code ;} в конце строки, а в changeset
+     * со {@code splitStatements:false} - целиком. Оператор, который не попал ни в одну из групп, роняет тест:
+     * иначе новый индекс, записанный непривычно, молча не попал бы в проверку
+     */
+    private List<String> changelogStatements() throws IOException {
+        String script = new ClassPathResource(INDEXES_SCRIPT).getContentAsString(StandardCharsets.UTF_8);
+        List<String> statements = new ArrayList<>();
+        String changeset = null;
+        boolean splitStatements = true;
+        StringBuilder statement = new StringBuilder();
+
+        for (String line : script.lines().map(String::strip).toList()) {
+            if (line.startsWith("-- changeset ")) {
+                addChangelogStatement(changeset, statement, splitStatements, statements);
+                changeset = line.substring("-- changeset ".length());
+                splitStatements = !line.contains("splitStatements:false");
+            } else if (!line.isEmpty() && !line.startsWith("--")) {
+                statement.append(line).append('\n');
+                if (splitStatements && line.endsWith(";")) {
+                    addChangelogStatement(changeset, statement, true, statements);
+                }
+            }
+        }
+        addChangelogStatement(changeset, statement, splitStatements, statements);
+        return statements;
+    }
+
+    private static void addChangelogStatement(String changeset, StringBuilder statement, boolean splitStatements,
+                                              List<String> statements) {
+        String sql = statement.toString().strip();
+        statement.setLength(0);
+        if (sql.isEmpty()) {
+            return;
+        }
+        if (splitStatements && !sql.endsWith(";")) {
+            throw new IllegalStateException("Changeset %s: unterminated statement %s".formatted(changeset, sql));
+        }
+        if (sql.matches("(?is)^(CREATE (UNIQUE )?INDEX|DROP INDEX|CREATE EXTENSION|DO \\$\\$)\\s.*")) {
+            statements.add(sql);
+        } else if (!sql.matches("(?is)^(CREATE SEQUENCE|ALTER SEQUENCE|SELECT setval|ALTER TABLE \\w+ (ALTER COLUMN id|ADD COLUMN))\\s.*")) {
+            throw new IllegalStateException("Changeset %s: statement is neither applied nor built by Hibernate: %s"
+                    .formatted(changeset, sql));
+        }
+    }
+
+    /**
+     * Параметры запроса неизвестны, поэтому строится общий план, как для подготовленного запроса
+     * (нужен PostgreSQL 16+). Настройка {@code enable_seqscan} и {@code setup} действуют в транзакции EXPLAIN и откатываются
+     */
+    private JsonNode explain(String sql, String... setup) {
+        String json = jdbcTemplate.execute((ConnectionCallback<String>) connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SET LOCAL enable_seqscan = off");
+                for (String setupSql : setup) {
+                    statement.execute(setupSql);
+                }
+                try (ResultSet rs = statement.executeQuery("EXPLAIN (GENERIC_PLAN, FORMAT JSON) " + numberParameters(sql))) {
+                    rs.next();
+                    return rs.getString(1);
+                }
+            } finally {
+//                Откат снимает и настройку, и все, что создал setup
+                connection.rollback();
+                connection.setAutoCommit(autoCommit);
+            }
+        });
+        try {
+            return objectMapper.readTree(json).get(0).get("Plan");
+        } catch (IOException e) {
+            throw new IllegalStateException("Unreadable plan: " + json, e);
+        }
+    }
+
+    /**
+     * JDBC-параметры {@code ?} заменяются на {@code $1, $2, ...}, которые понимает EXPLAIN. Строковые литералы не трогаются
+     */
+    private static String numberParameters(String sql) {
+        StringBuilder result = new StringBuilder(sql.length());
+        boolean inLiteral = false;
+        int parameter = 0;
+        for (char c : sql.toCharArray()) {
+            if (c == '\'') {
+                inLiteral = !inLiteral;
+            }
+            if (c == '?' && !inLiteral) {
+                result.append('$').append(++parameter);
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    /* Полное чтение таблицы - это Seq Scan или проход по индексу без условия поиска, но с фильтром строк.
+       Проход по индексу без фильтра - это чтение в порядке индекса (ORDER BY ... LIMIT), оно допустимо.
+       Как и KNN-проход по GiST (в плане есть "Order By"): строки идут от самых похожих, и LIMIT останавливает его на первых совпадениях */
+    private static void collectFullScans(JsonNode node, List<String> fullScans) {
+        String nodeType = node.path("Node Type").asText();
+        String relation = node.path("Relation Name").asText();
+        boolean indexScan = nodeType.equals("Index Scan") || nodeType.equals("Index Only Scan");
+
+        if (nodeType.equals("Seq Scan")
+                || indexScan && !node.has("Index Cond") && !node.has("Order By") && node.has("Filter")) {
+            fullScans.add(nodeType + " on " + relation);
+        }
+        node.path("Plans").forEach(child -> collectFullScans(child, fullScans));
+    }
+}
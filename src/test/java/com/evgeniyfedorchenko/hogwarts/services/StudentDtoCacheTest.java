@@ -0,0 +1,66 @@
+package com.evgeniyfedorchenko.hogwarts.services;
+
+import com.evgeniyfedorchenko.hogwarts.dto.LocalCacheStatsDto;
+import com.evgeniyfedorchenko.hogwarts.dto.StudentOutputDto;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StudentDtoCacheTest {
+
+    private final StudentDtoCache out = new StudentDtoCache(1_000_000, 600_000);
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private final Function<Long, Optional<StudentOutputDto>> loader = id -> {
+        loads.incrementAndGet();
+        if (id < 0) {
+            return Optional.empty();
+        }
+        StudentOutputDto dto = new StudentOutputDto();
+        dto.setId(id);
+        dto.setName("Student" + id);
+        return Optional.of(dto);
+    };
+
+    @Test
+    void hotStudentIsLoadedOnceTest() {
+        for (int i = 0; i < 10; i++) {
+            assertThat(out.get(1L, loader)).map(StudentOutputDto::getName).contains("Student1");
+        }
+
+        LocalCacheStatsDto stats = out.getStats();
+        assertThat(loads).hasValue(1);
+        assertThat(stats.getHitCount()).isEqualTo(9);
+        assertThat(stats.getMissCount()).isEqualTo(1);
+        assertThat(stats.getEstimatedSize()).isEqualTo(1);
+        assertThat(stats.getWeightedSize()).isPositive();
+    }
+
+    @Test
+    void absentStudentIsNotCachedTest() {
+        assertThat(out.get(-1L, loader)).isEmpty();
+        assertThat(out.get(-1L, loader)).isEmpty();
+
+        assertThat(loads).hasValue(2);
+        assertThat(out.getStats().getEstimatedSize()).isZero();
+    }
+
+    @Test
+    void evictedStudentIsLoadedAgainTest() {
+        out.get(1L, loader);
+        out.get(2L, loader);
+
+        // Вне транзакции сброс выполняется сразу
+        out.evict(1L);
+        out.evictAll(List.of(2L));
+        out.get(1L, loader);
+        out.get(2L, loader);
+
+        assertThat(loads).hasValue(4);
+    }
+}
@@ -0,0 +1,142 @@
+package com.evgeniyfedorchenko.hogwarts.services;
+
+import com.evgeniyfedorchenko.hogwarts.repositories.AgeCount;
+import com.evgeniyfedorchenko.hogwarts.repositories.StudentRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class StudentStatisticsTest {
+
+    @Mock
+    private StudentRepository studentRepositoryMock;
+    @InjectMocks
+    private StudentStatistics out;
+
+    @Test
+    void emptyStatisticsTest() {
+        assertThat(out.getCount()).isZero();
+        assertThat(out.getAverageAge()).isNull();
+        assertThat(out.getSnapshot().minAge()).isNull();
+        assertThat(out.getSnapshot().maxAge()).isNull();
+    }
+
+    @Test
+    void incrementalChangesTest() {
+        out.studentAdded(11);
+        out.studentAdded(15);
+        out.studentAdded(17);
+        out.ageChanged(15, 13);
+        out.studentRemoved(17);
+
+        StudentStatistics.Snapshot snapshot = out.getSnapshot();
+        assertThat(snapshot.count()).isEqualTo(2);
+        assertThat(snapshot.averageAge()).isEqualTo(12.0);
+        assertThat(snapshot.minAge()).isEqualTo(11);
+        assertThat(snapshot.maxAge()).isEqualTo(13);
+        assertThat(snapshot.ageHistogram()).containsExactly(entry(11, 1L), entry(13, 1L));
+    }
+
+    @Test
+    void reconcileReplacesIncrementalStateTest() {
+        out.studentAdded(20);
+        when(studentRepositoryMock.countGroupedByAge()).thenReturn(List.of(new AgeCount(12, 3), new AgeCount(16, 1)));
+
+        out.reconcile();
+
+        StudentStatistics.Snapshot snapshot = out.getSnapshot();
+        assertThat(snapshot.count()).isEqualTo(4);
+        assertThat(snapshot.averageAge()).isEqualTo(13.0);
+        assertThat(snapshot.minAge()).isEqualTo(12);
+        assertThat(snapshot.maxAge()).isEqualTo(16);
+    }
+
+    @Test
+    void reconcileSkippedWhileModificationIsNotCommittedTest() {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+//            Транзакция уже вставила студента и может закоммититься раньше, чем сверка прочитает БД
+            out.studentAdded(20);
+            out.reconcile();
+
+            verifyNoInteractions(studentRepositoryMock);
+            assertThat(out.getCount()).isZero();
+
+            TransactionSynchronizationUtils.triggerAfterCommit();
+            TransactionSynchronizationUtils.triggerAfterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        assertThat(out.getCount()).isEqualTo(1);
+
+        when(studentRepositoryMock.countGroupedByAge()).thenReturn(List.of(new AgeCount(20, 1)));
+        out.reconcile();
+
+        assertThat(out.getCount()).isEqualTo(1);   // Не 2: вставка учтена один раз
+    }
+
+    @Test
+    void reconcileSkippedWhenModificationStartsDuringQueryTest() {
+        when(studentRepositoryMock.countGroupedByAge()).thenAnswer(invocation -> {
+            out.studentAdded(14);
+            return List.of(new AgeCount(12, 3), new AgeCount(14, 1));
+        });
+
+        out.reconcile();
+
+        assertThat(out.getSnapshot().ageHistogram()).containsExactly(entry(14, 1L));
+    }
+
+    @Test
+    void reconcileForcedAfterConsecutiveSkipsTest() {
+        List<AgeCount> ageCounts = List.of(new AgeCount(12, 3));
+        AtomicInteger queries = new AtomicInteger();
+//        Каждая обычная сверка видит изменение, начатое во время ее запроса, и отбрасывает результат
+        when(studentRepositoryMock.countGroupedByAge()).thenAnswer(invocation -> {
+            if (queries.incrementAndGet() <= StudentStatistics.MAX_SKIPPED_RECONCILES) {
+                out.studentAdded(14);
+            }
+            return ageCounts;
+        });
+
+        for (int i = 1; i < StudentStatistics.MAX_SKIPPED_RECONCILES; i++) {
+            out.reconcile();
+        }
+        assertThat(out.getSnapshot().ageHistogram()).containsExactly(entry(14, (long) StudentStatistics.MAX_SKIPPED_RECONCILES - 1));
+
+        out.reconcile();
+
+        assertThat(queries).hasValue(StudentStatistics.MAX_SKIPPED_RECONCILES + 1);
+        assertThat(out.getSnapshot().ageHistogram()).containsExactly(entry(12, 3L));
+    }
+
+    @Test
+    void rolledBackModificationDoesNotBlockReconcileTest() {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            out.studentAdded(20);
+            TransactionSynchronizationUtils.triggerAfterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        when(studentRepositoryMock.countGroupedByAge()).thenReturn(List.of(new AgeCount(12, 3)));
+
+        out.reconcile();
+
+        assertThat(out.getCount()).isEqualTo(3);
+    }
+}